@@ -0,0 +1,155 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The ingest rate and the query latency of the audit log with millions of records. Run with
+ * {@code ./gradlew jmh -PjmhIncludes=AuditStoreBenchmark}.
+ * <p>
+ * append writes batches of records to a store that is emptied before each iteration, so an iteration ingests
+ * several million records into a growing index; the score is records per second and includes building the
+ * records, which is cheap compared to encoding them. The search benchmarks query a store of the given number of
+ * records spread over the last year: an exact SAN and a key, which match one or two records, all names below one of
+ * 10000 zones in the last 30 days, and the latest 100 records without criteria.
+ */
+public class AuditStoreBenchmark {
+
+    static final int ZONES = 10_000;
+    static final int BATCH = 4096;
+    private static final HexFormat HEX = HexFormat.of();
+
+    static String host(int i) {
+        return "host" + i + ".zone" + (i % ZONES) + ".example.com";
+    }
+
+    /**
+     * @return the key of the i-th record; one in a hundred requests reuses the key of the previous one
+     */
+    static String key(int i) {
+        long seed = i % 100 == 1 ? i - 1 : i;
+        long a = seed * 0x9e3779b97f4a7c15L;
+        long b = Long.rotateLeft(a, 17) * 0xbf58476d1ce4e5b9L;
+        return HEX.toHexDigits(a) + HEX.toHexDigits(b) + HEX.toHexDigits(a ^ b) + HEX.toHexDigits(~a);
+    }
+
+    static AuditRecord record(int i, Instant inspectedAt) {
+        var host = host(i);
+        return new AuditRecord(inspectedAt, key(~i), "C=DE,O=Example,CN=" + host, host,
+                List.of(new CsrReport.AltName("dNSName", host), new CsrReport.AltName("dNSName", "zone" + (i % ZONES) + ".example.com")),
+                "RSA", 2048, PKCS10Parser.ValidationResultState.VALID, key(i));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Ingest {
+        Path directory;
+        AuditStore store;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("csrviewer-audit-benchmark");
+            store = AuditStore.open(directory, 256L << 20, false);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            store.close();
+            delete(directory);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void append(Ingest ingest) throws IOException {
+        var now = Instant.now();
+        var batch = new ArrayList<AuditRecord>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(record(ingest.next++, now));
+        }
+        ingest.store.append(batch);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Search {
+        @Param({"1000000", "4000000"})
+        int records;
+
+        Path directory;
+        AuditStore store;
+        Instant now;
+
+        @Setup
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("csrviewer-audit-benchmark");
+            store = AuditStore.open(directory, 256L << 20, false);
+            now = Instant.now();
+            var start = now.minus(Duration.ofDays(365));
+            long step = Duration.ofDays(365).toMillis() / records;
+            var batch = new ArrayList<AuditRecord>(BATCH);
+            for (int i = 0; i < records; i++) {
+                batch.add(record(i, start.plusMillis(i * step)));
+                if (batch.size() == BATCH || i == records - 1) {
+                    store.append(batch);
+                    batch.clear();
+                }
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            store.close();
+            delete(directory);
+        }
+
+        int randomRecord() {
+            return ThreadLocalRandom.current().nextInt(records);
+        }
+    }
+
+    @Benchmark
+    public AuditStore.Result searchSan(Search search) throws IOException {
+        return search.store.search(new AuditStore.Query(host(search.randomRecord()), null, null, null, null, 100));
+    }
+
+    @Benchmark
+    public AuditStore.Result searchKey(Search search) throws IOException {
+        return search.store.search(new AuditStore.Query(null, null, key(search.randomRecord()), null, null, 100));
+    }
+
+    @Benchmark
+    public AuditStore.Result searchZoneLast30Days(Search search) throws IOException {
+        var zone = "*.zone" + ThreadLocalRandom.current().nextInt(ZONES) + ".example.com";
+        return search.store.search(new AuditStore.Query(zone, null, null, search.now.minus(Duration.ofDays(30)), null, 100));
+    }
+
+    @Benchmark
+    public AuditStore.Result searchLatest(Search search) throws IOException {
+        return search.store.search(new AuditStore.Query(null, null, null, search.now.minus(Duration.ofDays(30)), null, 100));
+    }
+}
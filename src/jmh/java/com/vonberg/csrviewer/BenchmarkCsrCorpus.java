@@ -0,0 +1,185 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.bouncycastle.pkcs.PKCS10CertificationRequestBuilder;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+
+/**
+ * Builds the certificate signing requests used by the benchmarks. All randomness comes from a SHA1PRNG seeded before
+ * first use, so every run generates the same keys and requests and results can be reproduced offline.
+ */
+public class BenchmarkCsrCorpus {
+
+    static final long SEED = 0x5EED_C5B0L;
+
+    // signs with the BouncyCastle names of the algorithms, which the JDK providers don't know for RSASSA-PSS
+    private static final Provider provider = new BouncyCastleProvider();
+
+    public enum KeyType {
+        RSA_2048("RSA", 2048, null, "SHA256withRSA"),
+        RSA_3072("RSA", 3072, null, "SHA256withRSA"),
+        RSA_4096("RSA", 4096, null, "SHA256withRSA"),
+        RSA_PSS_2048("RSA", 2048, null, "SHA256withRSAandMGF1"),
+        EC_P256("EC", 0, "secp256r1", "SHA256withECDSA"),
+        EC_P384("EC", 0, "secp384r1", "SHA384withECDSA"),
+        ED25519("Ed25519", 255, null, "Ed25519");
+
+        final String keyAlgorithm;
+        final int keySize;
+        final String curve;
+        final String signatureAlgorithm;
+
+        KeyType(String keyAlgorithm, int keySize, String curve, String signatureAlgorithm) {
+            this.keyAlgorithm = keyAlgorithm;
+            this.keySize = keySize;
+            this.curve = curve;
+            this.signatureAlgorithm = signatureAlgorithm;
+        }
+    }
+
+    static SecureRandom deterministicRandom(long seed) {
+        try {
+            var random = SecureRandom.getInstance("SHA1PRNG");
+            random.setSeed(seed);
+            return random;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static KeyPair keyPair(KeyType keyType, SecureRandom random) throws Exception {
+        var generator = KeyPairGenerator.getInstance(keyType.keyAlgorithm);
+        if (keyType.curve != null) {
+            generator.initialize(new ECGenParameterSpec(keyType.curve), random);
+        } else {
+            generator.initialize(keyType.keySize, random);
+        }
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Build a request signed with a key of the given type.
+     *
+     * @param keyType the type and size of the key
+     * @param subject the subject name of the request
+     * @param altNameCount the number of DNS subject alternative names to request, none if 0
+     * @param seed the seed of the randomness used for generating the key and signing
+     * @return the signed request
+     */
+    public static PKCS10CertificationRequest buildCSR(KeyType keyType, X500Name subject, int altNameCount, long seed)
+            throws Exception {
+        if (altNameCount == 0) {
+            return buildCSR(keyType, subject, null, seed);
+        }
+        var extensions = new ExtensionsGenerator();
+        extensions.addExtension(Extension.subjectAlternativeName, false, altNames(altNameCount));
+        return buildCSR(keyType, subject, extensions.generate(), seed);
+    }
+
+    /**
+     * Build a request signed with a key of the given type.
+     *
+     * @param keyType the type and size of the key
+     * @param subject the subject name of the request
+     * @param extensions the extensions to request, none if null
+     * @param seed the seed of the randomness used for generating the key and signing
+     * @return the signed request
+     */
+    public static PKCS10CertificationRequest buildCSR(KeyType keyType, X500Name subject, Extensions extensions, long seed)
+            throws Exception {
+        var random = deterministicRandom(seed);
+        KeyPair pair = keyPair(keyType, random);
+        PKCS10CertificationRequestBuilder builder = new JcaPKCS10CertificationRequestBuilder(subject, pair.getPublic());
+        if (extensions != null) {
+            builder.addAttribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, extensions);
+        }
+        ContentSigner signer = new JcaContentSignerBuilder(keyType.signatureAlgorithm)
+                .setProvider(provider)
+                .setSecureRandom(random)
+                .build(pair.getPrivate());
+        return builder.build(signer);
+    }
+
+    public static PKCS10CertificationRequest buildCSR(KeyType keyType) throws Exception {
+        return buildCSR(keyType, subject(6), 0, SEED);
+    }
+
+    /**
+     * @param rdnCount the number of RDNs, at least 1
+     * @return a subject name with a common name followed by organizational units up to the given number of RDNs
+     */
+    public static X500Name subject(int rdnCount) {
+        var builder = new X500NameBuilder(BCStyle.INSTANCE)
+                .addRDN(BCStyle.C, "DE")
+                .addRDN(BCStyle.O, "CSR Viewer Benchmarks");
+        for (int i = 2; i < rdnCount - 1; i++) {
+            builder.addRDN(BCStyle.OU, "Unit " + i);
+        }
+        return builder.addRDN(BCStyle.CN, "bench.example.com").build();
+    }
+
+    /**
+     * @param count the number of extensions, at least 5
+     * @return keyUsage, extendedKeyUsage, basicConstraints, subjectKeyIdentifier and subjectAltName extensions
+     * followed by extensions of unknown private types up to the given number of extensions
+     */
+    public static Extensions extensions(int count) throws IOException {
+        var extensions = new ExtensionsGenerator();
+        extensions.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment));
+        extensions.addExtension(Extension.extendedKeyUsage, false,
+                new ExtendedKeyUsage(new KeyPurposeId[]{KeyPurposeId.id_kp_serverAuth, KeyPurposeId.id_kp_clientAuth}));
+        extensions.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+        extensions.addExtension(Extension.subjectKeyIdentifier, false, new SubjectKeyIdentifier(new byte[20]));
+        extensions.addExtension(Extension.subjectAlternativeName, false, altNames(4));
+        var unknown = new ASN1ObjectIdentifier("1.3.6.1.4.1.99999");
+        for (int i = 5; i < count; i++) {
+            extensions.addExtension(unknown.branch(Integer.toString(i)), false, new DERUTF8String("value " + i));
+        }
+        return extensions.generate();
+    }
+
+    static GeneralNames altNames(int count) {
+        var names = new GeneralName[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = new GeneralName(GeneralName.dNSName, "host" + i + ".bench.example.com");
+        }
+        return new GeneralNames(names);
+    }
+
+    public static byte[] toPem(PKCS10CertificationRequest request) throws IOException {
+        var writer = new StringWriter();
+        try (var pemWriter = new JcaPEMWriter(writer)) {
+            pemWriter.writeObject(request);
+        }
+        return writer.toString().getBytes();
+    }
+}
@@ -0,0 +1,101 @@
+package com.vonberg.csrviewer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The cost of checking a request against an issuance policy. Run with
+ * {@code ./gradlew jmh -PjmhIncludes=CsrPolicyBenchmark}.
+ * <p>
+ * The policy allows the given number of domain patterns, a third each exact names, {@code *.} and {@code **.}
+ * patterns, plus a few name patterns, and restricts the key, subject and extensions. check evaluates the cheap rules
+ * for a parsed P-256 request with 10 DNS names, all allowed by the last domain pattern. matchEachPattern is the
+ * baseline that translates every domain pattern into a regular expression and tries them in turn, as a policy would
+ * that is not compiled. compile gives the cost of loading the rules, which is paid once per change of the file.
+ */
+public class CsrPolicyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Policies {
+        @Param({"1000", "10000"})
+        int patterns;
+
+        CsrPolicy.Rules rules;
+        CompiledPolicy compiled;
+        List<Pattern> domainPatterns;
+        CsrInspection inspection;
+        List<String> names;
+
+        @Setup
+        public void setUp() throws Exception {
+            var domains = new ArrayList<String>(patterns);
+            for (int i = 0; i < patterns - 1; i++) {
+                domains.add(switch (i % 3) {
+                    case 0 -> "host" + i + ".team" + i + ".example.org";
+                    case 1 -> "*.team" + i + ".example.net";
+                    default -> "**.team" + i + ".example.com";
+                });
+            }
+            domains.add("*.bench.example.com");
+            rules = new CsrPolicy.Rules(
+                    Map.of("RSA", new CsrPolicy.KeyRule(2048, 4096, null),
+                            "EC", new CsrPolicy.KeyRule(null, null, List.of("P-256", "P-384"))),
+                    List.of("CN", "O", "C"), List.of("basicConstraints"), 100, false, domains,
+                    List.of("[a-z]+@example\\.com", "10\\.1\\.\\d+\\.\\d+"), true);
+            compiled = CompiledPolicy.compile(rules);
+            domainPatterns = new ArrayList<>(patterns);
+            for (var domain : domains) {
+                domainPatterns.add(Pattern.compile(domain.replace(".", "\\.")
+                        .replaceFirst("^\\*\\*\\\\\\.", ".+\\\\.")
+                        .replaceFirst("^\\*\\\\\\.", "[^.]+\\\\."), Pattern.CASE_INSENSITIVE));
+            }
+            var request = BenchmarkCsrCorpus.buildCSR(BenchmarkCsrCorpus.KeyType.EC_P256,
+                    BenchmarkCsrCorpus.subject(6), 10, BenchmarkCsrCorpus.SEED);
+            inspection = CsrInspection.inspect(request.getEncoded());
+            names = new ArrayList<>();
+            for (var name : inspection.subjectAltNames()) {
+                names.add(CsrExtensions.generalNameValue(name));
+            }
+            if (!compiled.check(inspection).isEmpty() || eachPatternMatches(this) != names.size()) {
+                throw new IllegalStateException("The benchmark request does not comply with the policy");
+            }
+        }
+    }
+
+    @Benchmark
+    public List<CsrPolicy.Violation> check(Policies policies) {
+        return policies.compiled.check(policies.inspection);
+    }
+
+    static int eachPatternMatches(Policies policies) {
+        int allowed = 0;
+        for (var name : policies.names) {
+            for (var pattern : policies.domainPatterns) {
+                if (pattern.matcher(name).matches()) {
+                    allowed++;
+                    break;
+                }
+            }
+        }
+        return allowed;
+    }
+
+    @Benchmark
+    public int matchEachPattern(Policies policies) {
+        return eachPatternMatches(policies);
+    }
+
+    @Benchmark
+    public CompiledPolicy compile(Policies policies) {
+        return CompiledPolicy.compile(policies.rules);
+    }
+}
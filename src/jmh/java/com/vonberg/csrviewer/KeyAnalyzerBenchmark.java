@@ -0,0 +1,120 @@
+package com.vonberg.csrviewer;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The cost of the key analysis. Run with {@code ./gradlew jmh -PjmhIncludes=KeyAnalyzerBenchmark}.
+ * <p>
+ * checkBatch checks a batch of 1024 new RSA moduli for factors shared within the batch and with the given number of
+ * previous moduli, kept as products of 1024 moduli each like the analyzer does, on a pool with one thread per
+ * processor; the score is batches per second. The moduli are random odd 2048-bit numbers, since generating that many
+ * real moduli would take hours, and the GCD work is the same. lookupNewKey, lookupKnownKey and smallFactors are the
+ * work done on the request thread for each new key: looking up a key that is not in a table of a million keys, which
+ * the Bloom filter mostly answers alone, or one that is, and checking a modulus for small factors.
+ */
+public class KeyAnalyzerBenchmark {
+
+    static final int BATCH = 1024;
+
+    static BigInteger[] randomModuli(int count, Random random) {
+        var moduli = new BigInteger[count];
+        for (int i = 0; i < count; i++) {
+            moduli[i] = new BigInteger(2048, random).setBit(2047).setBit(0);
+        }
+        return moduli;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Batches {
+        @Param({"10000", "100000"})
+        int previous;
+
+        ForkJoinPool pool;
+        List<BigInteger> products;
+        Random random;
+
+        @Setup
+        public void setUp() {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            random = new Random(42);
+            products = new ArrayList<>();
+            for (int i = 0; i < previous; i += BATCH) {
+                var moduli = randomModuli(Math.min(BATCH, previous - i), random);
+                products.add(pool.invoke(BatchGcd.productTree(moduli)).product());
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int checkBatch(Batches batches) {
+        var moduli = randomModuli(BATCH, batches.random);
+        var tree = batches.pool.invoke(BatchGcd.productTree(moduli));
+        var tasks = new ArrayList<ForkJoinTask<boolean[]>>();
+        tasks.add(batches.pool.submit(BatchGcd.sharedFactors(tree, moduli)));
+        for (var product : batches.products) {
+            tasks.add(batches.pool.submit(BatchGcd.factorsIn(tree, moduli, product)));
+        }
+        int shared = 0;
+        for (var task : tasks) {
+            for (boolean flag : task.join()) {
+                shared += flag ? 1 : 0;
+            }
+        }
+        return shared;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Keys {
+        static final int KNOWN = 1 << 20;
+
+        FingerprintTable table;
+        long[] known;
+        SplittableRandom random;
+        BigInteger[] moduli;
+        int next;
+
+        @Setup
+        public void setUp() {
+            table = new FingerprintTable(2 * KNOWN);
+            random = new SplittableRandom(42);
+            known = random.longs(KNOWN).toArray();
+            for (int i = 0; i < KNOWN; i++) {
+                table.add(known[i], i);
+            }
+            moduli = randomModuli(1024, new Random(42));
+        }
+    }
+
+    @Benchmark
+    public long lookupNewKey(Keys keys) {
+        return keys.table.firstRequest(keys.random.nextLong(), -1);
+    }
+
+    @Benchmark
+    public long lookupKnownKey(Keys keys) {
+        return keys.table.firstRequest(keys.known[keys.next++ & (Keys.KNOWN - 1)], -1);
+    }
+
+    @Benchmark
+    public boolean smallFactors(Keys keys) {
+        return KeyAnalyzer.hasSmallFactor(keys.moduli[keys.next++ & 1023]);
+    }
+}
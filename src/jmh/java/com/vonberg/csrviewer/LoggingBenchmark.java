@@ -0,0 +1,129 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.JsonEncoder;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.encoder.Encoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The latency of parsing an uploaded request and logging one line about it at INFO, as the request path did before
+ * it logged at DEBUG, with the file appender of logback-spring.xml writing synchronously, through the async appender
+ * in text or JSON format, or turned off. Run with {@code ./gradlew jmh -PjmhIncludes=LoggingBenchmark}; the gc
+ * profiler shows that disabled DEBUG statements allocate nothing.
+ * <p>
+ * The async appenders neither discard nor drop events here, unlike with the never-block and discarding-threshold
+ * settings of application.properties, so that every variant writes every line and the latencies are comparable.
+ */
+@Threads(4)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoggingBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoggingBenchmark.class);
+
+    @State(Scope.Benchmark)
+    public static class Logging {
+        @Param({"NONE", "FILE", "ASYNC_FILE", "ASYNC_JSON_FILE"})
+        String appender;
+
+        byte[] pem;
+        Path file;
+
+        @Setup
+        public void setUp() throws Exception {
+            pem = BenchmarkCsrCorpus.toPem(BenchmarkCsrCorpus.buildCSR(BenchmarkCsrCorpus.KeyType.RSA_2048));
+            file = Files.createTempFile("csrviewer-logging-benchmark", ".log");
+            var context = (LoggerContext) LoggerFactory.getILoggerFactory();
+            var root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+            root.detachAndStopAllAppenders();
+            root.setLevel(Level.INFO);
+            switch (appender) {
+                case "FILE" -> root.addAppender(fileAppender(context, textEncoder(context)));
+                case "ASYNC_FILE" -> root.addAppender(async(context, fileAppender(context, textEncoder(context))));
+                case "ASYNC_JSON_FILE" -> root.addAppender(async(context, fileAppender(context, jsonEncoder(context))));
+                default -> root.setLevel(Level.OFF);
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            var context = (LoggerContext) LoggerFactory.getILoggerFactory();
+            context.getLogger(Logger.ROOT_LOGGER_NAME).detachAndStopAllAppenders();
+            Files.deleteIfExists(file);
+        }
+
+        private Appender<ILoggingEvent> fileAppender(LoggerContext context, Encoder<ILoggingEvent> encoder) {
+            var fileAppender = new FileAppender<ILoggingEvent>();
+            fileAppender.setContext(context);
+            fileAppender.setFile(file.toString());
+            fileAppender.setEncoder(encoder);
+            fileAppender.start();
+            return fileAppender;
+        }
+
+        private static Encoder<ILoggingEvent> textEncoder(LoggerContext context) {
+            var encoder = new PatternLayoutEncoder();
+            encoder.setContext(context);
+            encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss} [%thread] %-5level %logger{36} - %msg%n");
+            encoder.start();
+            return encoder;
+        }
+
+        private static Encoder<ILoggingEvent> jsonEncoder(LoggerContext context) {
+            var encoder = new JsonEncoder();
+            encoder.setContext(context);
+            encoder.start();
+            return encoder;
+        }
+
+        /**
+         * @return an async appender with the queue size of application.properties that blocks instead of losing events
+         */
+        private static Appender<ILoggingEvent> async(LoggerContext context, Appender<ILoggingEvent> delegate) {
+            var async = new AsyncAppender();
+            async.setContext(context);
+            async.setQueueSize(8192);
+            async.setDiscardingThreshold(0);
+            async.setNeverBlock(false);
+            async.addAppender(delegate);
+            async.start();
+            return async;
+        }
+    }
+
+    @Benchmark
+    public CsrParsingResult parseAndLog(Logging logging) {
+        var result = PKCS10Parser.parseCSRFromByteArray(logging.pem);
+        logger.info("Parsed request, state {}.", result.state);
+        return result;
+    }
+
+    @Benchmark
+    public CsrParsingResult parseAndLogDisabledDebug(Logging logging) {
+        var result = PKCS10Parser.parseCSRFromByteArray(logging.pem);
+        logger.debug("Parsed request, state {}.", result.state);
+        return result;
+    }
+}
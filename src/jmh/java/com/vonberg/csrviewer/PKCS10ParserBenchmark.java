@@ -0,0 +1,143 @@
+package com.vonberg.csrviewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the hot paths of PKCS10Parser. Run with {@code ./gradlew jmh}, the gc profiler adds the allocation
+ * rate per operation to the results. The validateSignature results give the verification latency per signature
+ * algorithm; the key cache of the SignatureVerificationEngine is warm after the first invocation. The
+ * parsePemWithPEMParser and parseDerWithPEMParser baselines parse the same encodings the way parseCSRFromByteArray
+ * did before it recognized the format from the first bytes. decodeExtensions decodes requests with a growing number
+ * of extensions, most of them of unknown types.
+ */
+public class PKCS10ParserBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Encodings {
+        byte[] pem;
+        byte[] der;
+
+        @Setup
+        public void setUp() throws Exception {
+            var request = BenchmarkCsrCorpus.buildCSR(BenchmarkCsrCorpus.KeyType.RSA_2048);
+            pem = BenchmarkCsrCorpus.toPem(request);
+            der = request.getEncoded();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SignedRequests {
+        @Param({"RSA_2048", "RSA_3072", "RSA_4096", "RSA_PSS_2048", "EC_P256", "EC_P384", "ED25519"})
+        BenchmarkCsrCorpus.KeyType keyType;
+
+        PKCS10CertificationRequest request;
+
+        @Setup
+        public void setUp() throws Exception {
+            request = BenchmarkCsrCorpus.buildCSR(keyType);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Subjects {
+        @Param({"4", "16", "128"})
+        int rdnCount;
+
+        X500Name subject;
+
+        @Setup
+        public void setUp() {
+            subject = BenchmarkCsrCorpus.subject(rdnCount);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class AltNames {
+        @Param({"1", "100", "500"})
+        int altNameCount;
+
+        PKCS10CertificationRequest request;
+
+        @Setup
+        public void setUp() throws Exception {
+            request = BenchmarkCsrCorpus.buildCSR(BenchmarkCsrCorpus.KeyType.EC_P256, BenchmarkCsrCorpus.subject(6),
+                    altNameCount, BenchmarkCsrCorpus.SEED);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RequestedExtensions {
+        @Param({"8", "64", "512"})
+        int extensionCount;
+
+        PKCS10CertificationRequest request;
+
+        @Setup
+        public void setUp() throws Exception {
+            request = BenchmarkCsrCorpus.buildCSR(BenchmarkCsrCorpus.KeyType.EC_P256, BenchmarkCsrCorpus.subject(6),
+                    BenchmarkCsrCorpus.extensions(extensionCount), BenchmarkCsrCorpus.SEED);
+        }
+    }
+
+    @Benchmark
+    public CsrParsingResult parsePem(Encodings encodings) {
+        return PKCS10Parser.parseCSRFromByteArray(encodings.pem);
+    }
+
+    @Benchmark
+    public CsrParsingResult parseDer(Encodings encodings) {
+        return PKCS10Parser.parseCSRFromByteArray(encodings.der);
+    }
+
+    @Benchmark
+    public PKCS10CertificationRequest parsePemWithPEMParser(Encodings encodings) throws IOException {
+        return parseWithPEMParser(encodings.pem);
+    }
+
+    @Benchmark
+    public PKCS10CertificationRequest parseDerWithPEMParser(Encodings encodings) throws IOException {
+        return parseWithPEMParser(encodings.der);
+    }
+
+    private static PKCS10CertificationRequest parseWithPEMParser(byte[] bytes) throws IOException {
+        var parser = new PEMParser(new InputStreamReader(new ByteArrayInputStream(bytes)));
+        if (parser.readObject() instanceof PKCS10CertificationRequest request) {
+            return request;
+        }
+        return new PKCS10CertificationRequest(bytes);
+    }
+
+    @Benchmark
+    public PKCS10Parser.ValidationResultState validateSignature(SignedRequests requests) {
+        return PKCS10Parser.tryValidateSignature(requests.request);
+    }
+
+    @Benchmark
+    public Iterable<LinkedHashMap<String, String>> mapSubject(Subjects subjects) {
+        return PKCS10Parser.getMappingOfX500NameComponents(subjects.subject);
+    }
+
+    @Benchmark
+    public GeneralName[] getAltNames(AltNames altNames) {
+        return PKCS10Parser.getAltNames(altNames.request);
+    }
+
+    @Benchmark
+    public List<CsrExtensions.Decoded> decodeExtensions(RequestedExtensions extensions) {
+        return CsrExtensions.decode(extensions.request);
+    }
+}
@@ -0,0 +1,291 @@
+package com.vonberg.csrviewer;
+
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * The in-memory indexes of the audit log. Records are numbered in the order they were appended, which is also the
+ * order of their timestamps, and the index keeps the timestamp and the location in the segments of each record.
+ * <p>
+ * DNS names in the subject alternative names and the common name are indexed as they are and under each of their
+ * parent domains, so that both www.example.com and *.example.com are answered by a single lookup. The keys are
+ * indexed by their SPKI hash. Each index maps the 64-bit hash of a key to the chain of entries for that key, from
+ * the newest record to the oldest, so a lookup reads the most recent matches first and can stop as soon as it has
+ * enough or reached the start of the requested time range. An index costs 8 bytes per entry and no objects per
+ * record, which keeps millions of records in a modest heap. Hashes may collide, so every candidate has to be checked
+ * against the query once it is read.
+ * <p>
+ * Not thread-safe: the {@link AuditStore} adds records on its writer thread and guards the index with a lock.
+ */
+final class AuditIndex {
+
+    private long[] timestamps = new long[1024];
+    private long[] locations = new long[1024];
+    private int size;
+
+    private final HashChains sanNames = new HashChains();
+    private final HashChains sanDomains = new HashChains();
+    private final HashChains commonNames = new HashChains();
+    private final HashChains commonNameDomains = new HashChains();
+    private final HashChains keys = new HashChains();
+
+    /**
+     * @param record the record to index, which must not be older than the records indexed before
+     * @param location where the record is stored, see {@link AuditStore}
+     * @return the id of the record
+     */
+    int add(AuditRecord record, long location) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            locations = Arrays.copyOf(locations, size * 2);
+        }
+        int id = size;
+        timestamps[id] = record.inspectedAt().toEpochMilli();
+        locations[id] = location;
+        for (var altName : record.subjectAltNames()) {
+            if (isDnsName(altName)) {
+                addName(sanNames, sanDomains, normalize(altName.value()), id);
+            }
+        }
+        if (record.commonName() != null) {
+            addName(commonNames, commonNameDomains, normalize(record.commonName()), id);
+        }
+        keys.add(keyHash(record.spkiSha256()), id);
+        size++;
+        return id;
+    }
+
+    private static void addName(HashChains names, HashChains domains, String name, int id) {
+        names.add(nameHash(name, 0), id);
+        for (int dot = name.indexOf('.'); dot >= 0 && dot < name.length() - 1; dot = name.indexOf('.', dot + 1)) {
+            domains.add(nameHash(name, dot + 1), id);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long timestamp(int id) {
+        return timestamps[id];
+    }
+
+    long location(int id) {
+        return locations[id];
+    }
+
+    /**
+     * Start iterating over the candidates for a query, using the index of its most selective criterion, or all
+     * records in its time range if it has no indexed criterion. The cursor must only be used while the index is
+     * locked, but it stays valid across locks, as records are only ever appended.
+     */
+    Cursor cursor(AuditStore.Query query) {
+        long since = query.since() == null ? Long.MIN_VALUE : query.since().toEpochMilli();
+        long until = query.until() == null ? Long.MAX_VALUE : query.until().toEpochMilli();
+        HashChains chains = null;
+        long key = 0;
+        int count = Integer.MAX_VALUE;
+        if (query.san() != null) {
+            var domain = wildcardDomain(query.san());
+            var candidates = domain == null ? sanNames : sanDomains;
+            long hash = nameHash(domain == null ? query.san() : domain, 0);
+            if (candidates.count(hash) < count) {
+                chains = candidates;
+                key = hash;
+                count = candidates.count(hash);
+            }
+        }
+        if (query.commonName() != null) {
+            var domain = wildcardDomain(query.commonName());
+            var candidates = domain == null ? commonNames : commonNameDomains;
+            long hash = nameHash(domain == null ? query.commonName() : domain, 0);
+            if (candidates.count(hash) < count) {
+                chains = candidates;
+                key = hash;
+                count = candidates.count(hash);
+            }
+        }
+        if (query.spkiSha256() != null && keys.count(keyHash(query.spkiSha256())) < count) {
+            chains = keys;
+            key = keyHash(query.spkiSha256());
+        }
+        return chains == null
+                ? new Cursor(null, lastAtOrBefore(until), since, until)
+                : new Cursor(chains, chains.head(key), since, until);
+    }
+
+    private int lastAtOrBefore(long until) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] <= until) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Iterates over the ids of candidate records from the newest to the oldest, skipping those after the end of the
+     * time range and stopping at the first one before its start.
+     */
+    final class Cursor {
+        private final HashChains chains;
+        private final long since;
+        private final long until;
+        // the next entry of the chain, or the next record if there is no chain; -1 at the end
+        private int next;
+
+        private Cursor(HashChains chains, int next, long since, long until) {
+            this.chains = chains;
+            this.next = next;
+            this.since = since;
+            this.until = until;
+        }
+
+        /**
+         * @return the id of the next candidate, or -1 if there are no more
+         */
+        int nextRecord() {
+            while (next >= 0) {
+                int id;
+                if (chains == null) {
+                    id = next--;
+                } else {
+                    id = chains.record(next);
+                    next = chains.previous(next);
+                }
+                if (timestamps[id] < since) {
+                    next = -1;
+                } else if (timestamps[id] <= until) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+    }
+
+    static boolean isDnsName(CsrReport.AltName altName) {
+        return "dNSName".equals(altName.type());
+    }
+
+    /**
+     * @return the name in lower case and without a trailing dot, the form names are indexed and compared in
+     */
+    static String normalize(String name) {
+        var lowerCase = name.toLowerCase(Locale.ROOT);
+        return lowerCase.endsWith(".") ? lowerCase.substring(0, lowerCase.length() - 1) : lowerCase;
+    }
+
+    /**
+     * @param pattern a normalized name, or *. followed by a domain to match every name below the domain
+     * @return the domain of a pattern that starts with *., null for a plain name
+     */
+    static String wildcardDomain(String pattern) {
+        return pattern.startsWith("*.") ? pattern.substring(2) : null;
+    }
+
+    /**
+     * @return the 64-bit FNV-1a hash of the name from the given index on, never 0
+     */
+    private static long nameHash(String name, int from) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = from; i < name.length(); i++) {
+            hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * @return the first 8 bytes of the SPKI hash, which is already uniformly distributed, never 0
+     */
+    private static long keyHash(String spkiSha256) {
+        long hash = HexFormat.fromHexDigitsToLong(spkiSha256, 0, 16);
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * A multimap from 64-bit keys to record ids: an open addressing table from each key to the newest of its
+     * entries, each entry linking to the previous one with the same key.
+     */
+    private static final class HashChains {
+        private long[] keys = new long[64];
+        private int[] heads = new int[64];
+        private int[] counts = new int[64];
+        private int size;
+        private int[] entryRecords = new int[1024];
+        private int[] entryPrevious = new int[1024];
+        private int entries;
+
+        void add(long key, int record) {
+            int slot = slot(key);
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                heads[slot] = -1;
+                size++;
+            } else if (entryRecords[heads[slot]] == record) {
+                // the record has another name under the same domain
+                return;
+            }
+            if (entries == entryRecords.length) {
+                entryRecords = Arrays.copyOf(entryRecords, entries * 2);
+                entryPrevious = Arrays.copyOf(entryPrevious, entries * 2);
+            }
+            entryRecords[entries] = record;
+            entryPrevious[entries] = heads[slot];
+            heads[slot] = entries++;
+            counts[slot]++;
+            if (size * 2 > keys.length) {
+                rehash();
+            }
+        }
+
+        int head(long key) {
+            int slot = slot(key);
+            return keys[slot] == 0 ? -1 : heads[slot];
+        }
+
+        int count(long key) {
+            int slot = slot(key);
+            return keys[slot] == 0 ? 0 : counts[slot];
+        }
+
+        int record(int entry) {
+            return entryRecords[entry];
+        }
+
+        int previous(int entry) {
+            return entryPrevious[entry];
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = Long.hashCode(key * 0x9e3779b97f4a7c15L) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash() {
+            var oldKeys = keys;
+            var oldHeads = heads;
+            var oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            heads = new int[keys.length];
+            counts = new int[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    heads[slot] = oldHeads[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+}
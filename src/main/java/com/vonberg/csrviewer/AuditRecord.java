@@ -0,0 +1,127 @@
+package com.vonberg.csrviewer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x500.style.IETFUtils;
+
+/**
+ * The entry of the audit log for one inspected certificate signing request, see {@link CsrAuditLog}.
+ *
+ * @param inspectedAt when the request was submitted
+ * @param sha256 the hex encoded SHA-256 hash of the DER encoding of the request
+ * @param subject the subject name of the request
+ * @param commonName the value of the first common name of the subject, null if it has none
+ * @param subjectAltNames the subject alternative names of the request
+ * @param keyAlgorithm the name of the algorithm of the public key
+ * @param keySize the size of the public key in bits, -1 if it cannot be determined
+ * @param validationState the result of validating the signature, null if the signature was not verified because the
+ *                        client did not ask for it
+ * @param spkiSha256 the hex encoded SHA-256 hash of the DER encoding of the SubjectPublicKeyInfo
+ */
+public record AuditRecord(Instant inspectedAt,
+                          String sha256,
+                          String subject,
+                          String commonName,
+                          List<CsrReport.AltName> subjectAltNames,
+                          String keyAlgorithm,
+                          int keySize,
+                          PKCS10Parser.ValidationResultState validationState,
+                          String spkiSha256) {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    /**
+     * Describe a successfully parsed request. Sections of the inspection that were not computed yet are computed,
+     * except for the signature, which is only verified if the client asked for it.
+     *
+     * @param verified whether the signature section was computed when the request was inspected
+     */
+    static AuditRecord of(Instant inspectedAt, String sha256, CsrInspection inspection, boolean verified) {
+        var commonNames = inspection.subject().getRDNs(BCStyle.CN);
+        return new AuditRecord(inspectedAt,
+                sha256,
+                inspection.subject().toString(),
+                commonNames.length == 0 ? null : IETFUtils.valueToString(commonNames[0].getFirst().getValue()),
+                Arrays.stream(inspection.subjectAltNames()).map(CsrReport.AltName::of).toList(),
+                inspection.keyAlgorithm(),
+                inspection.keySize(),
+                verified ? inspection.validationState() : null,
+                inspection.spkiSha256());
+    }
+
+    /**
+     * Write the record in the binary format of the segments of the audit log. The hashes are written as raw bytes
+     * and strings are prefixed with their length in UTF-8, -1 for null.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(inspectedAt.toEpochMilli());
+        out.write(HEX.parseHex(sha256));
+        writeString(out, subject);
+        writeString(out, commonName);
+        out.writeInt(subjectAltNames.size());
+        for (var name : subjectAltNames) {
+            writeString(out, name.type());
+            writeString(out, name.value());
+        }
+        writeString(out, keyAlgorithm);
+        out.writeInt(keySize);
+        writeString(out, validationState == null ? null : validationState.name());
+        out.write(HEX.parseHex(spkiSha256));
+    }
+
+    /**
+     * Read a record written by {@link #writeTo(DataOutput)}.
+     */
+    static AuditRecord readFrom(DataInput in) throws IOException {
+        var inspectedAt = Instant.ofEpochMilli(in.readLong());
+        var sha256 = readHash(in);
+        var subject = readString(in);
+        var commonName = readString(in);
+        int altNameCount = in.readInt();
+        var subjectAltNames = new ArrayList<CsrReport.AltName>(altNameCount);
+        for (int i = 0; i < altNameCount; i++) {
+            subjectAltNames.add(new CsrReport.AltName(readString(in), readString(in)));
+        }
+        var keyAlgorithm = readString(in);
+        int keySize = in.readInt();
+        var validationState = readString(in);
+        return new AuditRecord(inspectedAt, sha256, subject, commonName, List.copyOf(subjectAltNames), keyAlgorithm,
+                keySize, validationState == null ? null : PKCS10Parser.ValidationResultState.valueOf(validationState),
+                readHash(in));
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readHash(DataInput in) throws IOException {
+        var bytes = new byte[32];
+        in.readFully(bytes);
+        return HEX.formatHex(bytes);
+    }
+}
@@ -0,0 +1,414 @@
+package com.vonberg.csrviewer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only store of {@link AuditRecord audit records} in segment files, with the in-memory {@link AuditIndex}
+ * for searching them.
+ * <p>
+ * Segments are named segment-00000000.log, segment-00000001.log and so on and start with a magic number and the
+ * version of the format. Each record is prefixed with the length and the CRC32C checksum of its encoding. A new
+ * segment is started once the current one exceeds the segment size; segments are never modified after that, and
+ * removing old segments while the application is stopped is how records are expired. The index is not persisted but
+ * rebuilt from the segments when the store is opened. A record that was only partially written when the
+ * application stopped is cut off the end of the last segment.
+ * <p>
+ * Records are appended by a single thread, see {@link CsrAuditLog}; searches may run on any number of threads and
+ * only hold the lock of the index while they look up candidates, not while they read records.
+ */
+final class AuditStore implements Closeable {
+
+    static final Logger logger = LoggerFactory.getLogger(AuditStore.class);
+
+    private static final int MAGIC = 0x43535241;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    // locations are the number of the segment in the upper and the offset in the segment in the lower bits
+    private static final int OFFSET_BITS = 40;
+    private static final int CANDIDATES_PER_LOCK = 256;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-\\d{8}\\.log");
+
+    /**
+     * A search of the audit log. All criteria that are set must match.
+     *
+     * @param san a DNS name in the subject alternative names, or *.domain for every name below the domain
+     * @param commonName the common name of the subject, or *.domain for every name below the domain
+     * @param spkiSha256 the hex encoded SHA-256 hash of the DER encoding of the SubjectPublicKeyInfo
+     * @param since the start of the time range, inclusive
+     * @param until the end of the time range, inclusive
+     * @param limit the maximum number of records to return
+     */
+    record Query(String san, String commonName, String spkiSha256, Instant since, Instant until, int limit) {
+        static final int MAX_LIMIT = 1000;
+
+        /**
+         * @throws IllegalArgumentException if the SPKI hash is not a SHA-256 hash or the limit is out of range
+         */
+        Query {
+            san = san == null || san.isBlank() ? null : AuditIndex.normalize(san.trim());
+            commonName = commonName == null || commonName.isBlank() ? null : AuditIndex.normalize(commonName.trim());
+            spkiSha256 = spkiSha256 == null || spkiSha256.isBlank() ? null : AuditIndex.normalize(spkiSha256.trim());
+            if (spkiSha256 != null && !spkiSha256.matches("[0-9a-f]{64}")) {
+                throw new IllegalArgumentException("The SPKI hash must be a hex encoded SHA-256 hash.");
+            }
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new IllegalArgumentException("The limit must be between 1 and " + MAX_LIMIT + ".");
+            }
+        }
+
+        boolean matches(AuditRecord record) {
+            if (since != null && record.inspectedAt().isBefore(since)
+                    || until != null && record.inspectedAt().isAfter(until)) {
+                return false;
+            }
+            if (spkiSha256 != null && !spkiSha256.equals(record.spkiSha256())) {
+                return false;
+            }
+            if (commonName != null
+                    && (record.commonName() == null || !nameMatches(commonName, AuditIndex.normalize(record.commonName())))) {
+                return false;
+            }
+            return san == null || record.subjectAltNames().stream()
+                    .anyMatch(name -> AuditIndex.isDnsName(name) && nameMatches(san, AuditIndex.normalize(name.value())));
+        }
+
+        private static boolean nameMatches(String pattern, String name) {
+            var domain = AuditIndex.wildcardDomain(pattern);
+            return domain == null
+                    ? pattern.equals(name)
+                    : name.length() > domain.length() && name.endsWith(domain)
+                            && name.charAt(name.length() - domain.length() - 1) == '.';
+        }
+    }
+
+    /**
+     * @param records the matching records, newest first
+     * @param truncated whether more records matched than the limit of the query
+     */
+    record Result(List<AuditRecord> records, boolean truncated) {
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean sync;
+    private final AuditIndex index = new AuditIndex();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // the channels of the segments in the order of their numbers, replaced when a segment is added; locations refer
+    // to segments by their index in this array rather than their number, as the oldest segments may have been removed
+    private volatile FileChannel[] segments;
+    private int nextSegmentNumber;
+    private long position;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private final Buffer recordBuffer = new Buffer(1024);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+    private final Buffer batchBuffer = new Buffer(64 * 1024);
+    private final DataOutputStream batchOut = new DataOutputStream(batchBuffer);
+    private final CRC32C crc = new CRC32C();
+
+    private AuditStore(Path directory, long segmentSize, boolean sync) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+    }
+
+    /**
+     * Open the store in a directory, creating the directory if it does not exist, and index its records.
+     *
+     * @param segmentSize the size after which a new segment is started
+     * @param sync whether appended records are forced to the disk before {@link #append(List)} returns
+     */
+    static AuditStore open(Path directory, long segmentSize, boolean sync) throws IOException {
+        Files.createDirectories(directory);
+        var store = new AuditStore(directory, segmentSize, sync);
+        long start = System.nanoTime();
+        store.load();
+        logger.info("Opened the audit log in {} with {} records in {} segments in {} ms.", directory,
+                store.index.size(), store.segments.length, (System.nanoTime() - start) / 1_000_000);
+        return store;
+    }
+
+    private void load() throws IOException {
+        List<Path> paths;
+        try (var files = Files.list(directory)) {
+            paths = files.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .toList();
+        }
+        var channels = new ArrayList<FileChannel>();
+        try {
+            for (var path : paths) {
+                boolean last = channels.size() == paths.size() - 1;
+                var channel = last
+                        ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                        : FileChannel.open(path, StandardOpenOption.READ);
+                channels.add(channel);
+                long end = indexSegment(path, channels.size() - 1, channel);
+                if (end < channel.size() && last) {
+                    logger.warn("Truncating {} bytes of an incomplete record at the end of {}.", channel.size() - end,
+                            path);
+                    channel.truncate(end);
+                } else if (end < channel.size()) {
+                    logger.warn("Skipping the last {} bytes of {}, which are not intact records.", channel.size() - end,
+                            path);
+                }
+                position = end;
+            }
+            if (paths.isEmpty()) {
+                nextSegmentNumber = 0;
+                channels.add(createSegment());
+                position = SEGMENT_HEADER_SIZE;
+            } else {
+                var name = paths.get(paths.size() - 1).getFileName().toString();
+                nextSegmentNumber = Integer.parseInt(name.substring("segment-".length(), name.indexOf('.'))) + 1;
+            }
+        } catch (IOException | RuntimeException e) {
+            for (var channel : channels) {
+                channel.close();
+            }
+            throw e;
+        }
+        segments = channels.toArray(FileChannel[]::new);
+    }
+
+    /**
+     * @return the offset after the last intact record of the segment
+     */
+    private long indexSegment(Path path, int segment, FileChannel channel) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+        if (channel.size() < SEGMENT_HEADER_SIZE) {
+            // created, but the header was never written
+            writeHeader(channel);
+            return SEGMENT_HEADER_SIZE;
+        }
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException(path + " is not a segment of the audit log.");
+        }
+        long offset = SEGMENT_HEADER_SIZE;
+        long size = channel.size();
+        while (size - offset >= RECORD_HEADER_SIZE) {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length < 0 || length > size - offset - RECORD_HEADER_SIZE) {
+                break;
+            }
+            var payload = new byte[length];
+            in.readFully(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            var record = AuditRecord.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+            lastTimestamp = Math.max(lastTimestamp, record.inspectedAt().toEpochMilli());
+            index.add(record, ((long) segment << OFFSET_BITS) | offset);
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    private FileChannel createSegment() throws IOException {
+        var path = directory.resolve("segment-%08d.log".formatted(nextSegmentNumber++));
+        var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        writeHeader(channel);
+        return channel;
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        var header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, channel.size());
+        }
+    }
+
+    /**
+     * Append records with a single write and index them. Timestamps are raised to the latest timestamp in the store
+     * if necessary, so that they never decrease, which keeps the order of the records and of their timestamps the
+     * same even if the clock is set back. Must only be called by one thread at a time.
+     *
+     * @param records the records to append, oldest first
+     * @throws IOException if writing fails, in which case none of the records are indexed
+     */
+    void append(List<AuditRecord> records) throws IOException {
+        var segments = this.segments;
+        if (position >= segmentSize) {
+            if (sync) {
+                segments[segments.length - 1].force(false);
+            }
+            segments = Arrays.copyOf(segments, segments.length + 1);
+            segments[segments.length - 1] = createSegment();
+            this.segments = segments;
+            position = SEGMENT_HEADER_SIZE;
+        }
+        var stamped = new ArrayList<AuditRecord>(records.size());
+        var offsets = new long[records.size()];
+        batchBuffer.reset();
+        for (var record : records) {
+            long timestamp = Math.max(lastTimestamp, record.inspectedAt().toEpochMilli());
+            if (timestamp != record.inspectedAt().toEpochMilli()) {
+                record = new AuditRecord(Instant.ofEpochMilli(timestamp), record.sha256(), record.subject(),
+                        record.commonName(), record.subjectAltNames(), record.keyAlgorithm(), record.keySize(),
+                        record.validationState(), record.spkiSha256());
+            }
+            recordBuffer.reset();
+            record.writeTo(recordOut);
+            crc.reset();
+            crc.update(recordBuffer.bytes());
+            offsets[stamped.size()] = position + batchBuffer.size();
+            batchOut.writeInt(recordBuffer.size());
+            batchOut.writeInt((int) crc.getValue());
+            recordBuffer.writeTo(batchOut);
+            stamped.add(record);
+            lastTimestamp = timestamp;
+        }
+        var channel = segments[segments.length - 1];
+        var bytes = batchBuffer.bytes();
+        long writePosition = position;
+        while (bytes.hasRemaining()) {
+            writePosition += channel.write(bytes, writePosition);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+        long segment = (long) (segments.length - 1) << OFFSET_BITS;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < stamped.size(); i++) {
+                index.add(stamped.get(i), segment | offsets[i]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        position = writePosition;
+    }
+
+    /**
+     * @return the records matching the query, newest first
+     */
+    Result search(Query query) throws IOException {
+        var records = new ArrayList<AuditRecord>();
+        var candidates = new long[CANDIDATES_PER_LOCK];
+        AuditIndex.Cursor cursor;
+        lock.readLock().lock();
+        try {
+            cursor = index.cursor(query);
+        } finally {
+            lock.readLock().unlock();
+        }
+        while (true) {
+            int count = 0;
+            lock.readLock().lock();
+            try {
+                for (int id; count < candidates.length && (id = cursor.nextRecord()) >= 0; count++) {
+                    candidates[count] = index.location(id);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (int i = 0; i < count; i++) {
+                var record = read(candidates[i]);
+                if (query.matches(record)) {
+                    if (records.size() == query.limit()) {
+                        return new Result(records, true);
+                    }
+                    records.add(record);
+                }
+            }
+            if (count < candidates.length) {
+                return new Result(records, false);
+            }
+        }
+    }
+
+    private AuditRecord read(long location) throws IOException {
+        var channel = segments[(int) (location >>> OFFSET_BITS)];
+        long offset = location & ((1L << OFFSET_BITS) - 1);
+        // most records are smaller than this, so a single read usually gets the header and the whole record
+        var buffer = ByteBuffer.allocate(1024);
+        readFully(channel, buffer, offset, RECORD_HEADER_SIZE);
+        int length = buffer.getInt(0);
+        if (RECORD_HEADER_SIZE + length > buffer.capacity()) {
+            var larger = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+            larger.put(buffer.flip());
+            buffer = larger;
+        }
+        readFully(channel, buffer, offset, RECORD_HEADER_SIZE + length);
+        return AuditRecord.readFrom(new DataInputStream(
+                new ByteArrayInputStream(buffer.array(), RECORD_HEADER_SIZE, length)));
+    }
+
+    /**
+     * Read from the channel at the offset until the buffer holds at least the given number of bytes.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset, int bytes) throws IOException {
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("The audit log ends within a record.");
+            }
+        }
+    }
+
+    /**
+     * @return the number of records in the store
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A byte array output stream whose contents can be written without copying them.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        ByteBuffer bytes() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (var channel : segments) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
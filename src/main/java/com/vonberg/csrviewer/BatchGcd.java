@@ -0,0 +1,158 @@
+package com.vonberg.csrviewer;
+
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Bernstein's batch GCD: which of many RSA moduli share a prime factor with another, in quasilinear time instead of
+ * computing the GCD of every pair. The product of all moduli is computed as a binary tree of products, and the
+ * product is reduced modulo the square of each node on the way back down; at the leaves, N shares a factor with
+ * another modulus exactly if gcd(N, (P mod N²) / N) is not 1.
+ * <p>
+ * The same remainder tree finds the moduli that share a factor with any modulus of another set, by reducing the
+ * product of the other set modulo each node instead of its square.
+ * <p>
+ * The trees are built and descended as fork/join tasks, so the independent subtrees of large sets are computed on
+ * all workers of the pool they are invoked in.
+ */
+final class BatchGcd {
+
+    /**
+     * Subtrees with at most this many moduli are computed without forking.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 16;
+
+    private BatchGcd() {
+    }
+
+    /**
+     * A node of a product tree: the product of the moduli from lo inclusive to hi exclusive, and the two halves of
+     * the range it was multiplied from, which are null for a leaf.
+     */
+    record Node(BigInteger product, int lo, int hi, Node left, Node right) {
+        boolean leaf() {
+            return left == null;
+        }
+    }
+
+    /**
+     * @param moduli at least one modulus
+     * @return the task that builds the product tree of the moduli
+     */
+    static ForkJoinTask<Node> productTree(BigInteger[] moduli) {
+        return new ProductTask(moduli, 0, moduli.length);
+    }
+
+    /**
+     * @param tree the product tree of the moduli
+     * @return the task that determines which of the moduli share a factor with another modulus of the tree
+     */
+    static ForkJoinTask<boolean[]> sharedFactors(Node tree, BigInteger[] moduli) {
+        return factors(tree, moduli, tree.product(), true);
+    }
+
+    /**
+     * @param tree the product tree of the moduli
+     * @param product the product of the moduli of another set
+     * @return the task that determines which of the moduli share a factor with a modulus of the other set
+     */
+    static ForkJoinTask<boolean[]> factorsIn(Node tree, BigInteger[] moduli, BigInteger product) {
+        return factors(tree, moduli, product, false);
+    }
+
+    private static ForkJoinTask<boolean[]> factors(Node tree, BigInteger[] moduli, BigInteger product,
+                                                   boolean squared) {
+        var shared = new boolean[moduli.length];
+        var remainders = new RemainderTask(tree, moduli, product, squared, shared);
+        return ForkJoinTask.adapt(() -> {
+            remainders.invoke();
+            return shared;
+        });
+    }
+
+    private static final class ProductTask extends RecursiveTask<Node> {
+        private final BigInteger[] moduli;
+        private final int lo;
+        private final int hi;
+
+        ProductTask(BigInteger[] moduli, int lo, int hi) {
+            this.moduli = moduli;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Node compute() {
+            if (hi - lo <= SEQUENTIAL_THRESHOLD) {
+                return build(moduli, lo, hi);
+            }
+            int mid = (lo + hi) >>> 1;
+            var left = new ProductTask(moduli, lo, mid).fork();
+            var right = new ProductTask(moduli, mid, hi).compute();
+            return join(left.join(), right);
+        }
+
+        private static Node build(BigInteger[] moduli, int lo, int hi) {
+            if (hi - lo == 1) {
+                return new Node(moduli[lo], lo, hi, null, null);
+            }
+            int mid = (lo + hi) >>> 1;
+            return join(build(moduli, lo, mid), build(moduli, mid, hi));
+        }
+
+        private static Node join(Node left, Node right) {
+            return new Node(left.product().multiply(right.product()), left.lo(), right.hi(), left, right);
+        }
+    }
+
+    private static final class RemainderTask extends RecursiveAction {
+        private final Node node;
+        private final BigInteger[] moduli;
+        /**
+         * The product, already reduced modulo the parent of the node.
+         */
+        private final BigInteger value;
+        private final boolean squared;
+        private final boolean[] shared;
+
+        RemainderTask(Node node, BigInteger[] moduli, BigInteger value, boolean squared, boolean[] shared) {
+            this.node = node;
+            this.moduli = moduli;
+            this.value = value;
+            this.squared = squared;
+            this.shared = shared;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.hi() - node.lo() <= SEQUENTIAL_THRESHOLD) {
+                descend(node, value);
+                return;
+            }
+            var reduced = reduce(node, value);
+            invokeAll(new RemainderTask(node.left(), moduli, reduced, squared, shared),
+                    new RemainderTask(node.right(), moduli, reduced, squared, shared));
+        }
+
+        private void descend(Node node, BigInteger value) {
+            var reduced = reduce(node, value);
+            if (!node.leaf()) {
+                descend(node.left(), reduced);
+                descend(node.right(), reduced);
+                return;
+            }
+            var modulus = moduli[node.lo()];
+            var gcd = modulus.gcd(squared ? reduced.divide(modulus) : reduced);
+            if (!gcd.equals(BigInteger.ONE)) {
+                shared[node.lo()] = true;
+            }
+        }
+
+        private BigInteger reduce(Node node, BigInteger value) {
+            var divisor = squared ? node.product().multiply(node.product()) : node.product();
+            return value.compareTo(divisor) < 0 ? value : value.mod(divisor);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.vonberg.csrviewer;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.task.TaskExecutorBuilder;
+import org.springframework.boot.web.servlet.MultipartConfigFactory;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class BulkInspectionConfiguration {
+
+    /**
+     * @param threads the number of worker threads, defaults to the number of available processors
+     * @param queueCapacity the number of requests that may wait for a free worker
+     * @return the executor used by the bulk inspection endpoint
+     */
+    @Bean(destroyMethod = "shutdown")
+    BulkInspectionExecutor bulkInspectionExecutor(@Value("${csrviewer.bulk.threads:0}") int threads,
+                                                  @Value("${csrviewer.bulk.queue-capacity:1024}") int queueCapacity) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return new BulkInspectionExecutor(poolSize, queueCapacity);
+    }
+
+    /**
+     * Serves the bulk endpoint with a dispatcher servlet of its own, so that uploads may only be as large as
+     * {@code csrviewer.bulk.max-file-size} and {@code csrviewer.bulk.max-request-size} there. Every other endpoint
+     * takes a single request and keeps the small limits of {@code spring.servlet.multipart}.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    ServletRegistrationBean<DispatcherServlet> bulkInspectionServlet(
+            WebApplicationContext context,
+            @Value("${csrviewer.bulk.max-file-size:32MB}") DataSize maxFileSize,
+            @Value("${csrviewer.bulk.max-request-size:64MB}") DataSize maxRequestSize) {
+        var registration = new ServletRegistrationBean<>(new DispatcherServlet(context),
+                CsrBulkInspectionController.BULK_PATH);
+        registration.setName("bulkInspectionDispatcherServlet");
+        var multipart = new MultipartConfigFactory();
+        multipart.setMaxFileSize(maxFileSize);
+        multipart.setMaxRequestSize(maxRequestSize);
+        registration.setMultipartConfig(multipart.createMultipartConfig());
+        return registration;
+    }
+
+    /**
+     * Streamed bulk results are written on the applicationTaskExecutor, which is bounded by the
+     * {@code spring.task.execution.pool} properties, instead of a new thread per response. Spring Boot does not create
+     * the applicationTaskExecutor once the context defines an Executor of its own; a pool built from the same
+     * properties is used then.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    AsyncSupport asyncSupportConfigurer(
+            @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+            ObjectProvider<AsyncTaskExecutor> applicationTaskExecutor,
+            TaskExecutorBuilder taskExecutorBuilder) {
+        return new AsyncSupport(applicationTaskExecutor.getIfAvailable(), taskExecutorBuilder);
+    }
+
+    static class AsyncSupport implements WebMvcConfigurer, DisposableBean {
+        private final AsyncTaskExecutor executor;
+        private final ThreadPoolTaskExecutor ownExecutor;
+
+        AsyncSupport(AsyncTaskExecutor applicationTaskExecutor, TaskExecutorBuilder taskExecutorBuilder) {
+            if (applicationTaskExecutor != null) {
+                this.executor = applicationTaskExecutor;
+                this.ownExecutor = null;
+            } else {
+                this.ownExecutor = taskExecutorBuilder.threadNamePrefix("csr-bulk-async-").build();
+                this.ownExecutor.initialize();
+                this.executor = ownExecutor;
+            }
+        }
+
+        AsyncTaskExecutor executor() {
+            return executor;
+        }
+
+        @Override
+        public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+            configurer.setTaskExecutor(executor);
+        }
+
+        @Override
+        public void destroy() {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.vonberg.csrviewer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * The worker pool that parses and verifies the requests of bulk uploads. Both the number of threads and the number of
+ * queued requests are bounded; once the queue is full the submitting request thread does the work itself, which
+ * throttles a single large upload instead of rejecting it.
+ * <p>
+ * The pool is wrapped instead of being a bean itself, because Spring Boot does not create its applicationTaskExecutor,
+ * which serves asynchronous MVC requests, once the context contains an Executor bean.
+ */
+class BulkInspectionExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    BulkInspectionExecutor(int threads, int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("csr-bulk-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * @return a completion service that runs its tasks on the pool
+     */
+    <T> CompletionService<T> completionService() {
+        return new ExecutorCompletionService<>(executor);
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,71 @@
+package com.vonberg.csrviewer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The result of inspecting one of the requests of a bulk upload, as serialized in the response.
+ *
+ * @param source the name of the uploaded file the request was taken from
+ * @param index the position of the request within its file, starting at 0
+ * @param parseState the result of parsing the request
+ * @param validationState the result of validating the signature, null if the request could not be parsed or the
+ *                        signature section was not requested
+ * @param keyFindings what the {@link KeyAnalyzer} found wrong with the public key, null if the request could not be
+ *                    parsed, the key info section was not requested or the analyzer is disabled
+ * @param policyViolations the rules of the {@link CsrPolicy} the request breaks, empty if none; null if the request
+ *                         could not be parsed or no policy is configured
+ * @param signatureAlgorithm the name of the signature algorithm, null if the request could not be parsed or the
+ *                           signature section was not requested
+ * @param subject the subject name of the request, null if the request could not be parsed or the subject section
+ *                was not requested
+ * @param subjectAltNames the subject alternative names of the request, empty if there are none or the section was
+ *                        not requested
+ * @param error a description of the error that prevented inspecting the request, null if there was none
+ */
+public record BulkInspectionResult(String source,
+                                   int index,
+                                   PKCS10Parser.ParseResultState parseState,
+                                   PKCS10Parser.ValidationResultState validationState,
+                                   Set<KeyAnalyzer.Finding> keyFindings,
+                                   List<CsrPolicy.Violation> policyViolations,
+                                   String signatureAlgorithm,
+                                   String subject,
+                                   List<String> subjectAltNames,
+                                   String error) {
+
+    static BulkInspectionResult of(String source, int index, CsrInspection inspection) {
+        return of(source, index, inspection, CsrInspection.Section.ALL);
+    }
+
+    /**
+     * @param sections the sections of the inspection to include, other sections are neither computed nor included
+     */
+    static BulkInspectionResult of(String source, int index, CsrInspection inspection,
+                                   Set<CsrInspection.Section> sections) {
+        if (!inspection.parsed()) {
+            return rejected(source, index, inspection.parseResult().state);
+        }
+        boolean signature = sections.contains(CsrInspection.Section.SIGNATURE);
+        return new BulkInspectionResult(source, index, inspection.parseResult().state,
+                signature ? inspection.validationState() : null,
+                sections.contains(CsrInspection.Section.KEY_INFO) ? inspection.keyFindings() : null,
+                inspection.policyEvaluation() == null ? null : inspection.policyEvaluation().violations(),
+                signature ? inspection.signatureAlgorithm() : null,
+                sections.contains(CsrInspection.Section.SUBJECT) ? inspection.subject().toString() : null,
+                sections.contains(CsrInspection.Section.SUBJECT_ALT_NAMES)
+                        ? Arrays.stream(inspection.subjectAltNames()).map(name -> name.getName().toString()).toList()
+                        : List.of(),
+                null);
+    }
+
+    static BulkInspectionResult rejected(String source, int index, PKCS10Parser.ParseResultState parseState) {
+        return new BulkInspectionResult(source, index, parseState, null, null, null, null, null, List.of(), null);
+    }
+
+    static BulkInspectionResult failure(String source, int index, Exception e) {
+        return new BulkInspectionResult(source, index, PKCS10Parser.ParseResultState.ERROR, null, null, null, null,
+                null, List.of(), e.getClass().getSimpleName() + ": " + e.getMessage());
+    }
+}
@@ -0,0 +1,230 @@
+package com.vonberg.csrviewer;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Admission control in front of the controllers: a token bucket per client and budget, and a global cap on the
+ * number of expensive requests, those that parse and verify uploaded requests, in flight at the same time.
+ * <p>
+ * Each bucket is a single atomic long holding the time at which the bucket will be full again, so taking a token is
+ * one compare-and-set and clients never wait for each other. Buckets are kept in a bounded cache that forgets a client
+ * once its buckets would have refilled completely, so forgetting a client never grants it more tokens than waiting.
+ * Clients are keyed by one of the configured API keys, or by their IP address if they don't send a known key; keys
+ * that are not configured are ignored, since anyone could otherwise get a fresh bucket with every request.
+ */
+class ClientRateLimiter {
+
+    static final String REJECTION_COUNTER = "csrviewer.ratelimit.rejections";
+    static final String CLIENTS_GAUGE = "csrviewer.ratelimit.clients";
+    static final String IN_FLIGHT_GAUGE = "csrviewer.ratelimit.in_flight";
+
+    /**
+     * The budgets a request is charged to: CHEAP for the form, static resources and lookups, EXPENSIVE for uploads,
+     * which are parsed and whose signatures are verified, and for searches of the audit log, which may scan all of it.
+     */
+    enum Budget {
+        CHEAP, EXPENSIVE;
+
+        /**
+         * @param method the HTTP method of a request
+         * @param path the path of the request within the application
+         * @return EXPENSIVE for POST requests, which are the only requests that upload CSRs, and for searches of the
+         * audit log, CHEAP otherwise
+         */
+        static Budget of(String method, String path) {
+            return "POST".equals(method) || path.startsWith(CsrAuditController.SEARCH_PATH) ? EXPENSIVE : CHEAP;
+        }
+    }
+
+    /**
+     * The sustained rate and the burst size of a budget.
+     *
+     * @param ratePerSecond the number of tokens added to the bucket per second
+     * @param burst the capacity of the bucket
+     */
+    record Limit(double ratePerSecond, int burst) {
+        Limit {
+            if (ratePerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("The rate and the burst of a rate limit must be positive.");
+            }
+        }
+
+        long intervalNanos() {
+            return (long) Math.ceil(1e9 / ratePerSecond);
+        }
+    }
+
+    /**
+     * The outcome of admitting a request.
+     *
+     * @param admitted whether the request may proceed; an admitted expensive request holds an in-flight permit until
+     *                 {@link #release()} is called
+     * @param retryAfterNanos how long a rejected client should wait before trying again, 0 if admitted
+     */
+    record Admission(boolean admitted, long retryAfterNanos) {
+        static final Admission ADMITTED = new Admission(true, 0);
+
+        /**
+         * @return the value of the Retry-After header, the wait rounded up to whole seconds
+         */
+        long retryAfterSeconds() {
+            return Math.max(1, (retryAfterNanos + 999_999_999) / 1_000_000_000);
+        }
+    }
+
+    private static final long IN_FLIGHT_RETRY_AFTER_NANOS = 1_000_000_000;
+
+    private final Map<Budget, Limit> limits = new EnumMap<>(Budget.class);
+    private final Set<String> apiKeys;
+    private final int maxInFlight;
+    private final LongSupplier nanoTime;
+    private final Cache<String, Bucket[]> buckets;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<Budget, Counter> budgetRejections = new EnumMap<>(Budget.class);
+    private final Counter inFlightRejections;
+
+    /**
+     * @param cheap the limit of cheap requests per client
+     * @param expensive the limit of expensive requests per client
+     * @param maxInFlight the number of expensive requests of all clients that may be in flight at the same time
+     * @param maxClients the number of clients whose buckets are kept; the least recently seen are forgotten first
+     * @param apiKeys the API keys that identify clients instead of their IP address
+     * @param registry the registry to publish the number of clients, the in-flight requests and the rejections in
+     * @param nanoTime the clock, System::nanoTime outside of tests
+     */
+    ClientRateLimiter(Limit cheap, Limit expensive, int maxInFlight, int maxClients, Set<String> apiKeys,
+                      MeterRegistry registry, LongSupplier nanoTime) {
+        limits.put(Budget.CHEAP, cheap);
+        limits.put(Budget.EXPENSIVE, expensive);
+        this.apiKeys = Set.copyOf(apiKeys);
+        this.maxInFlight = maxInFlight;
+        this.nanoTime = nanoTime;
+        long refillNanos = Math.max(cheap.intervalNanos() * cheap.burst(), expensive.intervalNanos() * expensive.burst());
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess(Duration.ofNanos(refillNanos))
+                .build();
+        for (Budget budget : Budget.values()) {
+            budgetRejections.put(budget, rejectionCounter(registry, budget.name().toLowerCase()));
+        }
+        this.inFlightRejections = rejectionCounter(registry, "in_flight");
+        Gauge.builder(CLIENTS_GAUGE, buckets, Cache::estimatedSize)
+                .description("Clients whose token buckets are tracked")
+                .register(registry);
+        Gauge.builder(IN_FLIGHT_GAUGE, inFlight, AtomicInteger::get)
+                .description("Expensive requests currently in flight")
+                .register(registry);
+    }
+
+    private static Counter rejectionCounter(MeterRegistry registry, String reason) {
+        return Counter.builder(REJECTION_COUNTER)
+                .description("Requests rejected with 429 by the exhausted budget or the in-flight cap")
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    /**
+     * @param apiKey the API key sent by the client, null if none was sent
+     * @param remoteAddress the IP address of the client
+     * @return the key of the buckets of the client
+     */
+    String clientKey(String apiKey, String remoteAddress) {
+        return apiKey != null && apiKeys.contains(apiKey) ? "key:" + apiKey : "ip:" + remoteAddress;
+    }
+
+    /**
+     * Take a token from the bucket of the client for the given budget, and for expensive requests an in-flight
+     * permit. A request rejected by the in-flight cap has still spent its token, so that clients that retry
+     * immediately do not get ahead of those that wait.
+     *
+     * @param client the key of the client, see {@link #clientKey(String, String)}
+     * @param budget the budget the request is charged to
+     * @return whether the request is admitted, and if not, when to retry
+     */
+    Admission admit(String client, Budget budget) {
+        long now = nanoTime.getAsLong();
+        var limit = limits.get(budget);
+        var bucket = buckets.get(client, key -> newBuckets(now))[budget.ordinal()];
+        long wait = bucket.take(now, limit.intervalNanos(), limit.intervalNanos() * limit.burst());
+        if (wait > 0) {
+            budgetRejections.get(budget).increment();
+            return new Admission(false, wait);
+        }
+        if (budget == Budget.EXPENSIVE && !acquireInFlight()) {
+            inFlightRejections.increment();
+            return new Admission(false, IN_FLIGHT_RETRY_AFTER_NANOS);
+        }
+        return Admission.ADMITTED;
+    }
+
+    /**
+     * Return the in-flight permit of an admitted expensive request once it completed.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    private boolean acquireInFlight() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= maxInFlight) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private static Bucket[] newBuckets(long now) {
+        var perBudget = new Bucket[Budget.values().length];
+        for (int i = 0; i < perBudget.length; i++) {
+            perBudget[i] = new Bucket(now);
+        }
+        return perBudget;
+    }
+
+    /**
+     * A token bucket stored as the time at which it will be full again. Taking a token moves that time one refill
+     * interval further into the future; the bucket is empty once the time is more than its capacity ahead of now.
+     */
+    private static final class Bucket {
+        private final AtomicLong fullAt;
+
+        Bucket(long now) {
+            this.fullAt = new AtomicLong(now);
+        }
+
+        /**
+         * @return 0 if a token was taken, otherwise how long until the next token is available
+         */
+        long take(long now, long intervalNanos, long capacityNanos) {
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current, now) + intervalNanos;
+                long wait = next - now - capacityNanos;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
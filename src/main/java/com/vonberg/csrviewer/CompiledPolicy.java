@@ -0,0 +1,222 @@
+package com.vonberg.csrviewer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x9.ECNamedCurveTable;
+
+/**
+ * The rules of a {@link CsrPolicy}, compiled once when they are loaded: names of RDN types, extensions and curves are
+ * resolved to object identifiers, domain patterns are stored in a {@link DomainTrie} and the name patterns are joined
+ * into a single regular expression. Checking a request then takes a few hash lookups per rule, one trie walk per DNS
+ * name, whose length depends on the number of labels of the name and not on the number of domain patterns, and at
+ * most one match of the joined expression per subject alternative name. The joined expression is an alternation that
+ * tries the name patterns one after another, so its cost grows with their number; large sets of allowed names belong
+ * in the domain patterns. A compiled policy is immutable.
+ */
+final class CompiledPolicy {
+
+    private record KeyConstraint(int minSize, int maxSize, Set<ASN1ObjectIdentifier> curves) {
+    }
+
+    /**
+     * The key constraints by key algorithm, null if any key is allowed.
+     */
+    private final Map<String, KeyConstraint> keys;
+    private final List<ASN1ObjectIdentifier> requiredRdns;
+    private final Set<ASN1ObjectIdentifier> forbiddenExtensions;
+    private final int maxSubjectAltNames;
+    private final boolean allowWildcards;
+    /**
+     * Null if neither domains nor name patterns are given, in which case every subject alternative name is allowed.
+     */
+    private final DomainTrie allowedDomains;
+    private final Pattern allowedNames;
+    private final boolean requireValidSignature;
+
+    private CompiledPolicy(CsrPolicy.Rules rules) {
+        if (rules.keys() == null) {
+            this.keys = null;
+        } else {
+            this.keys = new HashMap<>();
+            rules.keys().forEach((algorithm, rule) -> keys.put(algorithm, compile(algorithm, rule)));
+        }
+        this.requiredRdns = new ArrayList<>();
+        for (var name : orEmpty(rules.requiredRdns())) {
+            requiredRdns.add(BCStyle.INSTANCE.attrNameToOID(name));
+        }
+        this.forbiddenExtensions = new HashSet<>();
+        for (var name : orEmpty(rules.forbiddenExtensions())) {
+            forbiddenExtensions.add(CsrExtensions.extensionType(name));
+        }
+        this.maxSubjectAltNames = rules.maxSubjectAltNames() == null ? Integer.MAX_VALUE : rules.maxSubjectAltNames();
+        this.allowWildcards = rules.allowWildcards() == null || rules.allowWildcards();
+        if (rules.allowedDomains() == null && rules.allowedNamePatterns() == null) {
+            this.allowedDomains = null;
+            this.allowedNames = null;
+        } else {
+            this.allowedDomains = new DomainTrie();
+            orEmpty(rules.allowedDomains()).forEach(allowedDomains::add);
+            this.allowedNames = join(orEmpty(rules.allowedNamePatterns()));
+        }
+        this.requireValidSignature = rules.requireValidSignature() == null || rules.requireValidSignature();
+    }
+
+    /**
+     * @throws IllegalArgumentException if a rule names an unknown RDN type, extension or curve, or has an invalid
+     *                                  domain or name pattern
+     */
+    static CompiledPolicy compile(CsrPolicy.Rules rules) {
+        return new CompiledPolicy(rules);
+    }
+
+    private static KeyConstraint compile(String algorithm, CsrPolicy.KeyRule rule) {
+        if (rule == null) {
+            return new KeyConstraint(0, Integer.MAX_VALUE, null);
+        }
+        Set<ASN1ObjectIdentifier> curves = null;
+        if (rule.curves() != null) {
+            curves = new HashSet<>();
+            for (var curve : rule.curves()) {
+                var oid = ECNamedCurveTable.getOID(curve);
+                if (oid == null) {
+                    throw new IllegalArgumentException("Unknown curve " + curve + " for " + algorithm + " keys");
+                }
+                curves.add(oid);
+            }
+        }
+        return new KeyConstraint(rule.minSize() == null ? 0 : rule.minSize(),
+                rule.maxSize() == null ? Integer.MAX_VALUE : rule.maxSize(), curves);
+    }
+
+    /**
+     * Each pattern is compiled on its own first, so that an invalid one is reported by itself.
+     */
+    private static Pattern join(List<String> patterns) {
+        if (patterns.isEmpty()) {
+            return null;
+        }
+        var joined = new StringBuilder();
+        for (var pattern : patterns) {
+            try {
+                Pattern.compile(pattern);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid name pattern " + pattern + ": " + e.getDescription(), e);
+            }
+            joined.append(joined.isEmpty() ? "" : "|").append("(?:").append(pattern).append(')');
+        }
+        return Pattern.compile(joined.toString());
+    }
+
+    private static <T> List<T> orEmpty(List<T> list) {
+        return list == null ? List.of() : list;
+    }
+
+    boolean requireValidSignature() {
+        return requireValidSignature;
+    }
+
+    /**
+     * Check the rules that don't need the signature, cheapest first: the requested extensions, the subject, the
+     * subject alternative names and finally the key, whose size is only known once the key is decoded.
+     *
+     * @param inspection the inspection of a successfully parsed request
+     * @return the violated rules, empty if there are none
+     */
+    List<CsrPolicy.Violation> check(CsrInspection inspection) {
+        var violations = new ArrayList<CsrPolicy.Violation>(0);
+        var request = inspection.parseResult().request;
+        if (!forbiddenExtensions.isEmpty()) {
+            Extensions extensions;
+            try {
+                extensions = request.getRequestedExtensions();
+            } catch (IllegalArgumentException e) {
+                extensions = null;
+            }
+            if (extensions != null) {
+                for (var oid : extensions.getExtensionOIDs()) {
+                    if (forbiddenExtensions.contains(oid)) {
+                        violations.add(new CsrPolicy.Violation(CsrPolicy.Rule.FORBIDDEN_EXTENSION, oid.getId()));
+                    }
+                }
+            }
+        }
+        var subject = inspection.subject();
+        for (var type : requiredRdns) {
+            if (subject.getRDNs(type).length == 0) {
+                var name = BCStyle.INSTANCE.oidToDisplayName(type);
+                violations.add(new CsrPolicy.Violation(CsrPolicy.Rule.REQUIRED_RDN,
+                        name == null ? type.getId() : name));
+            }
+        }
+        if (maxSubjectAltNames < Integer.MAX_VALUE || !allowWildcards || allowedDomains != null) {
+            checkSubjectAltNames(inspection.subjectAltNames(), violations);
+        }
+        if (keys != null) {
+            checkKey(inspection, violations);
+        }
+        return violations;
+    }
+
+    private void checkSubjectAltNames(GeneralName[] names, List<CsrPolicy.Violation> violations) {
+        if (names.length > maxSubjectAltNames) {
+            violations.add(new CsrPolicy.Violation(CsrPolicy.Rule.SAN_COUNT,
+                    names.length + " names, at most " + maxSubjectAltNames + " allowed"));
+        }
+        for (var name : names) {
+            boolean dns = name.getTagNo() == GeneralName.dNSName;
+            var value = CsrExtensions.generalNameValue(name);
+            if (dns && !allowWildcards && value.contains("*")) {
+                violations.add(new CsrPolicy.Violation(CsrPolicy.Rule.WILDCARD_SAN, value));
+                continue;
+            }
+            if (allowedDomains != null && !(dns && allowedDomains.matches(value))
+                    && (allowedNames == null || !allowedNames.matcher(value).matches())) {
+                violations.add(new CsrPolicy.Violation(CsrPolicy.Rule.SAN_NOT_ALLOWED,
+                        CsrExtensions.generalNameType(name) + " " + value));
+            }
+        }
+    }
+
+    private void checkKey(CsrInspection inspection, List<CsrPolicy.Violation> violations) {
+        var algorithm = inspection.keyAlgorithm();
+        var constraint = keys.get(algorithm);
+        if (constraint == null) {
+            violations.add(new CsrPolicy.Violation(CsrPolicy.Rule.KEY_ALGORITHM, algorithm));
+            return;
+        }
+        if (constraint.curves() != null) {
+            var parameters = inspection.parseResult().request.getSubjectPublicKeyInfo().getAlgorithm().getParameters();
+            if (!(parameters instanceof ASN1ObjectIdentifier curve && constraint.curves().contains(curve))) {
+                violations.add(new CsrPolicy.Violation(CsrPolicy.Rule.CURVE, curveName(parameters)));
+                return;
+            }
+        }
+        if (constraint.minSize() > 0 || constraint.maxSize() < Integer.MAX_VALUE) {
+            int size = inspection.keySize();
+            if (size < constraint.minSize() || size > constraint.maxSize()) {
+                violations.add(new CsrPolicy.Violation(CsrPolicy.Rule.KEY_SIZE,
+                        size < 0 ? "unknown" : algorithm + " " + size + " bits"));
+            }
+        }
+    }
+
+    private static String curveName(ASN1Encodable parameters) {
+        if (!(parameters instanceof ASN1ObjectIdentifier oid)) {
+            return "explicit or missing parameters";
+        }
+        var name = ECNamedCurveTable.getName(oid);
+        return name == null ? oid.getId() : name;
+    }
+}
@@ -0,0 +1,153 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Inspect a certificate signing request and describe it as a {@link CsrReport}, serialized as JSON or CBOR
+ * depending on the Accept header, for clients that would otherwise scrape the HTML fragments of the frontend.
+ * <p>
+ * Every report carries a weak ETag made from the SHA-256 hash of the DER encoding of the request, which changes when
+ * the key is found to share a factor with another key later or when the policy rules change. Reports of recently
+ * inspected requests can be fetched again by that hash from {@code /api/csr/{sha256}}, which answers conditional
+ * requests with 304 Not Modified.
+ * <p>
+ * The optional sections parameter, e.g. {@code ?sections=subject,subject-alt-names}, limits the report to the named
+ * {@link CsrInspection.Section sections}; sections that are left out are not computed, so a report without the
+ * signature section does not verify the signature.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class CsrApiController {
+    final static String API_PATH = "/api/csr";
+    final static String APPLICATION_PKCS10_VALUE = "application/pkcs10";
+
+    static final Logger logger = LoggerFactory.getLogger(CsrApiController.class);
+
+    private final CsrInspectionService inspectionService;
+
+    public CsrApiController(CsrInspectionService inspectionService) {
+        this.inspectionService = inspectionService;
+    }
+
+    /**
+     * Inspect a request uploaded as a file of a multipart form, like the one of the frontend.
+     */
+    @PostMapping(path = API_PATH, consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public ResponseEntity<CsrReport> inspectFile(@RequestParam("csr-file") MultipartFile csrFile,
+                                                 @RequestParam(name = "sections", required = false) List<String> sections)
+            throws IOException {
+        return report(inspectionService.read(csrFile.getInputStream(), csrFile.getSize()), parseSections(sections));
+    }
+
+    /**
+     * Inspect a PEM or binary encoded request sent as the request body.
+     */
+    @PostMapping(path = API_PATH,
+            consumes = {APPLICATION_PKCS10_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.TEXT_PLAIN_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public ResponseEntity<CsrReport> inspectBody(HttpServletRequest request,
+                                                 @RequestParam(name = "sections", required = false) List<String> sections)
+            throws IOException {
+        return report(inspectionService.read(request.getInputStream(), request.getContentLengthLong()),
+                parseSections(sections));
+    }
+
+    /**
+     * Multipart forms are resolved lazily, so a form beyond the limits of {@code spring.servlet.multipart} fails while
+     * the handler arguments are resolved, and is answered like any other upload that is too large.
+     */
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public ResponseEntity<CsrReport> uploadTooLarge() {
+        var inspection = CsrInspection.inspect(new CsrParsingResult(PKCS10Parser.ParseResultState.TOO_LARGE));
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(CsrReport.of(null, inspection, CsrInspection.Section.ALL));
+    }
+
+    /**
+     * Get the report of a request that was inspected recently.
+     *
+     * @param hash the hex encoded SHA-256 hash of the DER encoding of the request
+     * @return the report, or 404 if the request was not inspected recently
+     */
+    @GetMapping(path = API_PATH + "/{sha256}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public ResponseEntity<CsrReport> getReport(@PathVariable("sha256") String hash,
+                                               @RequestParam(name = "sections", required = false) List<String> sections) {
+        var sha256 = hash.toLowerCase(Locale.ROOT);
+        var selected = parseSections(sections);
+        return inspectionService.cached(sha256)
+                .map(inspection -> withETag(ResponseEntity.ok(), CsrReport.of(sha256, inspection, selected), selected))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    private ResponseEntity<CsrReport> report(CsrInspectionService.Upload upload, Set<CsrInspection.Section> sections) {
+        var inspection = inspectionService.inspect(upload, sections);
+        var report = CsrReport.of(upload.sha256(), inspection, sections);
+        if (upload.state() == PKCS10Parser.ParseResultState.TOO_LARGE) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(report);
+        }
+        if (!inspection.parsed()) {
+            logger.debug("Rejected request submitted to the API as {}.", report.parseState());
+            return withETag(ResponseEntity.unprocessableEntity(), report, sections);
+        }
+        return withETag(ResponseEntity.ok(), report, sections);
+    }
+
+    /**
+     * @return the sections named by a sections request parameter, all sections if there is none
+     * @throws ResponseStatusException with status 400 if a name is not the name of a section
+     */
+    static Set<CsrInspection.Section> parseSections(List<String> names) {
+        try {
+            return CsrInspection.Section.parse(names);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown section in " + names, e);
+        }
+    }
+
+    /**
+     * The ETag is weak because the JSON and the CBOR representation of a report share it. A report of the same request
+     * differs by the sections it includes, which are added to the tag as a bit mask of their ordinals unless all
+     * are included. The only parts that change over time are the shared factor finding and the policy evaluation, so
+     * the finding and the version of the policy rules are added as well.
+     */
+    private static ResponseEntity<CsrReport> withETag(ResponseEntity.BodyBuilder builder, CsrReport report,
+                                                      Set<CsrInspection.Section> sections) {
+        builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (report.sha256() != null) {
+            int mask = 0;
+            for (var section : sections) {
+                mask |= 1 << section.ordinal();
+            }
+            boolean allSections = sections.size() == CsrInspection.Section.ALL.size();
+            boolean sharedFactor = report.keyFindings() != null
+                    && report.keyFindings().contains(KeyAnalyzer.Finding.SHARED_FACTOR);
+            builder.eTag("W/\"" + report.sha256()
+                    + (allSections ? "" : "-sections-" + Integer.toHexString(mask))
+                    + (sharedFactor ? "-shared-factor" : "")
+                    + (report.policy() != null ? "-policy-" + report.policy().ruleSet() : "") + "\"");
+        }
+        return builder.body(report);
+    }
+}
@@ -0,0 +1,79 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Search the {@link CsrAuditLog audit log} of inspected requests, for example all requests for names below
+ * example.com in the last 30 days with {@code /api/audit/search?san=*.example.com&since=P30D}, or all requests for
+ * the same key with {@code /api/audit/search?spki=<spkiSha256 of a report>}. Records are returned newest first, as
+ * JSON or CBOR depending on the Accept header. Searches are charged to the expensive budget of the rate limiter,
+ * since a query without an indexed field scans the whole log.
+ */
+@RestController
+@ConditionalOnProperty(name = "csrviewer.audit.enabled", havingValue = "true")
+public class CsrAuditController {
+    final static String SEARCH_PATH = "/api/audit/search";
+
+    private final CsrAuditLog auditLog;
+    private final Clock clock;
+
+    @Autowired
+    CsrAuditController(CsrAuditLog auditLog) {
+        this(auditLog, Clock.systemUTC());
+    }
+
+    CsrAuditController(CsrAuditLog auditLog, Clock clock) {
+        this.auditLog = auditLog;
+        this.clock = clock;
+    }
+
+    /**
+     * @param san a DNS name in the subject alternative names, or *.domain for every name below the domain
+     * @param cn the common name of the subject, or *.domain for every name below the domain
+     * @param spki the hex encoded SHA-256 hash of the DER encoding of the SubjectPublicKeyInfo
+     * @param since the start of the time range as an ISO-8601 instant, or as an ISO-8601 duration before now
+     * @param until the end of the time range as an ISO-8601 instant, or as an ISO-8601 duration before now
+     * @param limit the maximum number of records to return, at most 1000
+     * @return the matching records, and whether there are more than the limit
+     */
+    @GetMapping(path = SEARCH_PATH, produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public AuditStore.Result search(@RequestParam(name = "san", required = false) String san,
+                                    @RequestParam(name = "cn", required = false) String cn,
+                                    @RequestParam(name = "spki", required = false) String spki,
+                                    @RequestParam(name = "since", required = false) String since,
+                                    @RequestParam(name = "until", required = false) String until,
+                                    @RequestParam(name = "limit", defaultValue = "100") int limit) throws IOException {
+        AuditStore.Query query;
+        try {
+            var now = clock.instant();
+            query = new AuditStore.Query(san, cn, spki, parseTime(since, now), parseTime(until, now), limit);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+        return auditLog.search(query);
+    }
+
+    /**
+     * @return the instant, now minus the duration if the value is a duration such as P30D or PT1H, null if there is
+     * no value
+     */
+    static Instant parseTime(String value, Instant now) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return value.startsWith("P") || value.startsWith("p") ? now.minus(Duration.parse(value)) : Instant.parse(value);
+    }
+}
@@ -0,0 +1,209 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * The record of every successfully parsed certificate signing request that was inspected, kept in an
+ * {@link AuditStore} and searchable at {@code /api/audit/search}, see {@link CsrAuditController}.
+ * <p>
+ * Requests never wait for the disk: inspections are handed to a bounded queue, and a single writer thread takes
+ * everything that has accumulated in the queue, describes the requests and appends them with a single write. Under
+ * load the batches grow, so the writer keeps up with far more requests than there are writes per second. If the
+ * queue is full, records are dropped and counted rather than slowing down requests.
+ * <p>
+ * Enable with {@code csrviewer.audit.enabled=true}. The log is off by default, because it keeps the subject, the
+ * names and the key of every submission, and anyone who can reach the application can search it.
+ */
+@Component
+@ConditionalOnProperty(name = "csrviewer.audit.enabled", havingValue = "true")
+class CsrAuditLog implements DisposableBean {
+
+    static final Logger logger = LoggerFactory.getLogger(CsrAuditLog.class);
+
+    static final String RECORD_COUNTER = "csrviewer.audit.records";
+    static final String QUEUE_GAUGE = "csrviewer.audit.queue";
+
+    /**
+     * An inspection waiting to be written, with what is only known on the request thread.
+     */
+    private record Pending(Instant inspectedAt, String sha256, CsrInspection inspection, boolean verified) {
+    }
+
+    private static final Pending STOP = new Pending(null, null, null, false);
+
+    private final AuditStore store;
+    private final BlockingQueue<Pending> queue;
+    private final int batchSize;
+    private final Thread writer;
+    private final AtomicLong submitted = new AtomicLong();
+    private volatile long processed;
+    private final Counter written;
+    private final Counter dropped;
+    private final Counter failed;
+
+    /**
+     * @param directory the directory of the segments, created if it does not exist
+     * @param segmentSize the size after which a new segment is started
+     * @param sync whether each batch is forced to the disk before the next one is written
+     * @param queueCapacity the number of inspections that may wait to be written before further ones are dropped
+     * @param batchSize the maximum number of records appended with a single write
+     */
+    @Autowired
+    CsrAuditLog(MeterRegistry registry,
+                @Value("${csrviewer.audit.dir:audit}") Path directory,
+                @Value("${csrviewer.audit.segment-size:256MB}") DataSize segmentSize,
+                @Value("${csrviewer.audit.sync:false}") boolean sync,
+                @Value("${csrviewer.audit.queue-capacity:65536}") int queueCapacity,
+                @Value("${csrviewer.audit.batch-size:4096}") int batchSize) throws IOException {
+        this(AuditStore.open(directory, segmentSize.toBytes(), sync), registry, queueCapacity, batchSize);
+    }
+
+    CsrAuditLog(AuditStore store, MeterRegistry registry, int queueCapacity, int batchSize) {
+        this.store = store;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.written = recordCounter(registry, "written");
+        this.dropped = recordCounter(registry, "dropped");
+        this.failed = recordCounter(registry, "failed");
+        Gauge.builder(QUEUE_GAUGE, queue, BlockingQueue::size)
+                .description("Inspections waiting to be written to the audit log")
+                .register(registry);
+        this.writer = new Thread(this::write, "csr-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static Counter recordCounter(MeterRegistry registry, String outcome) {
+        return Counter.builder(RECORD_COUNTER)
+                .description("Records of inspected CSRs written to, dropped from or failed to write to the audit log")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * Hand an inspection to the writer without waiting. Only the sections the client asked for have been computed
+     * at this point; the writer computes the others it needs, except for the signature, which it does not verify.
+     *
+     * @param sha256 the hex encoded SHA-256 hash of the DER encoding of the request
+     * @param inspection the inspection of a successfully parsed request
+     */
+    void record(String sha256, CsrInspection inspection) {
+        var pending = new Pending(Instant.now(), sha256, inspection,
+                inspection.computed(CsrInspection.Section.SIGNATURE));
+        if (queue.offer(pending)) {
+            submitted.incrementAndGet();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * @return the records matching the query, newest first
+     */
+    AuditStore.Result search(AuditStore.Query query) throws IOException {
+        return store.search(query);
+    }
+
+    /**
+     * Wait until everything recorded so far has been written.
+     *
+     * @return whether it was written within the timeout
+     */
+    boolean flush(Duration timeout) throws InterruptedException {
+        long target = submitted.get();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (processed < target) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return true;
+    }
+
+    private void write() {
+        var batch = new ArrayList<Pending>(batchSize);
+        var records = new ArrayList<AuditRecord>(batchSize);
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // only the writer itself is interrupted, when the application is stopped without destroying the bean
+                break;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            for (var pending : batch) {
+                if (pending == STOP) {
+                    stopped = true;
+                } else {
+                    describe(pending, records);
+                }
+            }
+            append(records);
+            processed += batch.size() - (stopped ? 1 : 0);
+            batch.clear();
+            records.clear();
+        }
+        try {
+            store.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the audit log.", e);
+        }
+    }
+
+    private void describe(Pending pending, List<AuditRecord> records) {
+        try {
+            records.add(AuditRecord.of(pending.inspectedAt(), pending.sha256(), pending.inspection(), pending.verified()));
+        } catch (RuntimeException e) {
+            logger.warn("Failed to describe request {} for the audit log.", pending.sha256(), e);
+            failed.increment();
+        }
+    }
+
+    private void append(List<AuditRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            store.append(records);
+            written.increment(records.size());
+        } catch (IOException e) {
+            logger.error("Failed to write {} records to the audit log.", records.size(), e);
+            failed.increment(records.size());
+        }
+    }
+
+    /**
+     * Write what is still queued and close the store.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (!queue.offer(STOP, 10, TimeUnit.SECONDS)) {
+            logger.warn("Timed out waiting to stop the audit log writer.");
+            return;
+        }
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+    }
+}
@@ -0,0 +1,153 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+
+/**
+ * Inspect many certificate signing requests with a single upload, either as many files or as PEM bundles containing
+ * several requests each. Every request is parsed and verified on the bounded bulk inspection executor and errors are
+ * reported per request, so one broken entry does not fail the whole batch. The signature verification is the
+ * dominant cost of a bulk upload, see the validateSignature results of PKCS10ParserBenchmark for its cost per key type.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class CsrBulkInspectionController {
+    final static String BULK_PATH = "/api/csr/bulk";
+
+    static final Logger logger = LoggerFactory.getLogger(CsrBulkInspectionController.class);
+
+    private final CsrInspectionService inspectionService;
+    private final BulkInspectionExecutor bulkInspectionExecutor;
+    private final ObjectMapper objectMapper;
+
+    public CsrBulkInspectionController(CsrInspectionService inspectionService,
+                                       BulkInspectionExecutor bulkInspectionExecutor,
+                                       ObjectMapper objectMapper) {
+        this.inspectionService = inspectionService;
+        this.bulkInspectionExecutor = bulkInspectionExecutor;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Inspect all requests contained in the uploaded files and respond once all of them have been inspected.
+     *
+     * @param csrFiles the uploaded files, each containing a binary request or one or more PEM encoded requests
+     * @param sections the sections of each inspection to compute and include, all if empty; leaving out the
+     *                 signature section skips the signature verification
+     * @return one result per request, in the order of the uploaded files and of the requests within them
+     */
+    @PostMapping(path = BULK_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<BulkInspectionResult> bulkInspect(@RequestParam("csr-files") List<MultipartFile> csrFiles,
+                                                  @RequestParam(name = "sections", required = false) List<String> sections)
+            throws InterruptedException {
+        var futures = submitAll(csrFiles, CsrApiController.parseSections(sections), bulkInspectionExecutor::submit);
+        List<BulkInspectionResult> results = new ArrayList<>(futures.size());
+        for (var future : futures) {
+            results.add(getResult(future));
+        }
+        return results;
+    }
+
+    /**
+     * Inspect all requests contained in the uploaded files, writing each result as a line of JSON as soon as it is
+     * available. Results are therefore written in order of completion, not in the order of the upload.
+     *
+     * @param csrFiles the uploaded files, each containing a binary request or one or more PEM encoded requests
+     * @param sections the sections of each inspection to compute and include, all if empty
+     * @return a body streaming one JSON document per line and request
+     */
+    @PostMapping(path = BULK_PATH, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody bulkInspectStreaming(@RequestParam("csr-files") List<MultipartFile> csrFiles,
+                                                      @RequestParam(name = "sections", required = false) List<String> sections) {
+        CompletionService<BulkInspectionResult> completionService = bulkInspectionExecutor.completionService();
+        // the uploaded files are read before the response starts, they may be cleaned up once this method returns
+        int count = submitAll(csrFiles, CsrApiController.parseSections(sections), completionService::submit).size();
+        return outputStream -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    outputStream.write(objectMapper.writeValueAsBytes(getResult(completionService.take())));
+                    outputStream.write('\n');
+                    outputStream.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for bulk inspection results.", e);
+            }
+        };
+    }
+
+    /**
+     * Bulk uploads beyond {@code csrviewer.bulk.max-file-size} or {@code csrviewer.bulk.max-request-size} are
+     * rejected as a whole.
+     */
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public ResponseEntity<Void> uploadTooLarge() {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+    }
+
+    private List<Future<BulkInspectionResult>> submitAll(List<MultipartFile> csrFiles, Set<CsrInspection.Section> sections,
+                                                         TaskSubmitter submitter) {
+        List<Future<BulkInspectionResult>> futures = new ArrayList<>();
+        for (var csrFile : csrFiles) {
+            final String source = csrFile.getOriginalFilename();
+            List<byte[]> blocks;
+            try {
+                blocks = PKCS10Parser.splitPemBundle(csrFile.getBytes());
+            } catch (IOException e) {
+                logger.info("Failed to get content of file {}.", source);
+                futures.add(submitter.submit(() -> BulkInspectionResult.failure(source, 0, e)));
+                continue;
+            }
+            for (int i = 0; i < blocks.size(); i++) {
+                final int index = i;
+                final byte[] block = blocks.get(i);
+                futures.add(submitter.submit(() -> {
+                    try {
+                        return BulkInspectionResult.of(source, index, inspectionService.inspect(block, sections), sections);
+                    } catch (RuntimeException e) {
+                        logger.warn("Failed to inspect request {} of file {}.", index, source, e);
+                        return BulkInspectionResult.failure(source, index, e);
+                    }
+                }));
+            }
+        }
+        logger.info("Submitted {} requests for bulk inspection.", futures.size());
+        return futures;
+    }
+
+    private static BulkInspectionResult getResult(Future<BulkInspectionResult> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // tasks catch their own exceptions, so this only happens for errors such as OutOfMemoryError
+            throw new IllegalStateException("Bulk inspection task failed.", e.getCause());
+        }
+    }
+
+    @FunctionalInterface
+    private interface TaskSubmitter {
+        Future<BulkInspectionResult> submit(Callable<BulkInspectionResult> task);
+    }
+}
@@ -0,0 +1,167 @@
+package com.vonberg.csrviewer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.vonberg.csrviewer.PKCS10Parser.ParseResultState.MALFORMED;
+import static com.vonberg.csrviewer.PKCS10Parser.ParseResultState.SUCCESS;
+import static com.vonberg.csrviewer.PKCS10Parser.ParseResultState.UNRECOGNIZED_FORMAT;
+
+/**
+ * Recognizes the encoding of an uploaded certificate signing request from its first bytes and extracts the DER
+ * encoding of the request without going through a PEMParser: binary uploads starting with a SEQUENCE tag are taken
+ * as they are, PEM armour is stripped and the base64 in between is decoded by hand.
+ */
+final class CsrEncoding {
+
+    private static final byte[][] CSR_LABELS = {
+            "CERTIFICATE REQUEST-----".getBytes(StandardCharsets.US_ASCII),
+            "NEW CERTIFICATE REQUEST-----".getBytes(StandardCharsets.US_ASCII)
+    };
+    private static final byte DER_SEQUENCE = 0x30;
+
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        var alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < alphabet.length; i++) {
+            BASE64_VALUES[alphabet[i]] = (byte) i;
+        }
+    }
+
+    private CsrEncoding() {
+    }
+
+    /**
+     * The result of decoding an upload: SUCCESS and the DER encoding of the request, or the reason it was rejected.
+     */
+    record Decoded(PKCS10Parser.ParseResultState state, byte[] der) {
+        static Decoded rejected(PKCS10Parser.ParseResultState state) {
+            return new Decoded(state, null);
+        }
+    }
+
+    /**
+     * Extract the DER encoding of a certificate signing request from the first length bytes of raw.
+     *
+     * @param raw the upload, which may be a pooled buffer that is longer than the upload
+     * @param length the length of the upload
+     * @param decodeBuffer a buffer to decode base64 into, at least 3/4 of length plus 3 bytes long, or null if raw
+     *                     belongs to the caller, in which case a buffer is only allocated for PEM input and binary
+     *                     input is returned without copying
+     * @return SUCCESS and the DER encoding of the request, MALFORMED if the upload is PEM armoured as a certificate
+     * signing request or starts with a SEQUENCE tag but does not contain a complete DER encoded SEQUENCE, and
+     * UNRECOGNIZED_FORMAT otherwise
+     */
+    static Decoded decode(byte[] raw, int length, byte[] decodeBuffer) {
+        int begin = indexOfCsrBlock(raw, length);
+        if (begin >= 0) {
+            int end = PKCS10Parser.indexOf(raw, PKCS10Parser.PEM_END, begin, length);
+            if (end < 0) {
+                return Decoded.rejected(MALFORMED);
+            }
+            byte[] decoded = decodeBuffer != null ? decodeBuffer : new byte[(end - begin) * 3 / 4 + 3];
+            int decodedLength = decodeBase64(raw, begin, end, decoded);
+            return copyDer(decoded, 0, decodedLength, decodeBuffer == null);
+        }
+        int start = skipWhitespace(raw, 0, length);
+        if (start == length || raw[start] != DER_SEQUENCE) {
+            return Decoded.rejected(UNRECOGNIZED_FORMAT);
+        }
+        return copyDer(raw, start, length, decodeBuffer == null);
+    }
+
+    /**
+     * @return the index of the first byte after the header line of the first PEM block labelled as a certificate
+     * signing request, or -1 if there is none
+     */
+    private static int indexOfCsrBlock(byte[] raw, int length) {
+        int begin = PKCS10Parser.indexOf(raw, PKCS10Parser.PEM_BEGIN, 0, length);
+        while (begin >= 0) {
+            int labelStart = begin + PKCS10Parser.PEM_BEGIN.length;
+            for (byte[] label : CSR_LABELS) {
+                if (PKCS10Parser.indexOf(raw, label, labelStart, Math.min(length, labelStart + label.length)) == labelStart) {
+                    return labelStart + label.length;
+                }
+            }
+            begin = PKCS10Parser.indexOf(raw, PKCS10Parser.PEM_BEGIN, labelStart, length);
+        }
+        return -1;
+    }
+
+    /**
+     * Copy a DER encoded SEQUENCE out of a buffer, accepting only trailing whitespace after the end of the SEQUENCE.
+     * If the buffer may be shared and the SEQUENCE fills it entirely, the buffer itself is returned.
+     */
+    private static Decoded copyDer(byte[] buffer, int start, int end, boolean mayShare) {
+        int derLength = derLength(buffer, start, end);
+        if (derLength < 0 || skipWhitespace(buffer, start + derLength, end) != end) {
+            return Decoded.rejected(MALFORMED);
+        }
+        if (mayShare && start == 0 && derLength == buffer.length) {
+            return new Decoded(SUCCESS, buffer);
+        }
+        return new Decoded(SUCCESS, Arrays.copyOfRange(buffer, start, start + derLength));
+    }
+
+    /**
+     * @return the length of the DER encoded SEQUENCE starting at start including its header, or -1 if the bytes do
+     * not start with a SEQUENCE tag and a definite length that fits in the buffer
+     */
+    private static int derLength(byte[] buffer, int start, int end) {
+        if (end - start < 2 || buffer[start] != DER_SEQUENCE) {
+            return -1;
+        }
+        int first = buffer[start + 1] & 0xff;
+        if (first < 0x80) {
+            return start + 2 + first <= end ? 2 + first : -1;
+        }
+        int lengthOctets = first & 0x7f;
+        if (lengthOctets == 0 || lengthOctets > 3 || end - start < 2 + lengthOctets) {
+            return -1;
+        }
+        int contentLength = 0;
+        for (int i = 0; i < lengthOctets; i++) {
+            contentLength = (contentLength << 8) | (buffer[start + 2 + i] & 0xff);
+        }
+        int total = 2 + lengthOctets + contentLength;
+        return start + total <= end ? total : -1;
+    }
+
+    /**
+     * Decode the base64 between from and to into out, skipping whitespace and stopping at the first padding
+     * character or at anything that is not part of the base64 alphabet.
+     *
+     * @return the number of decoded bytes
+     */
+    private static int decodeBase64(byte[] in, int from, int to, byte[] out) {
+        int accumulator = 0;
+        int bits = 0;
+        int written = 0;
+        for (int i = from; i < to; i++) {
+            int c = in[i];
+            if (c == '\n' || c == '\r' || c == ' ' || c == '\t') {
+                continue;
+            }
+            if (c < 0 || BASE64_VALUES[c] < 0) {
+                break;
+            }
+            accumulator = (accumulator << 6) | BASE64_VALUES[c];
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[written++] = (byte) (accumulator >> bits);
+            }
+        }
+        return written;
+    }
+
+    private static int skipWhitespace(byte[] buffer, int from, int end) {
+        int i = from;
+        while (i < end && (buffer[i] == '\n' || buffer[i] == '\r' || buffer[i] == ' ' || buffer[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,260 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1String;
+import org.bouncycastle.asn1.pkcs.Attribute;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.bouncycastle.util.encoders.Hex;
+
+import static java.util.Map.entry;
+
+/**
+ * Decodes the attributes of a certificate signing request and the extensions in its extensionRequest attribute into
+ * names and displayable values. The names and decoders are looked up by object identifier in immutable tables that
+ * are built once, when the class is loaded. Attributes and extensions of unknown types are kept with their object
+ * identifier as the name and the hex encoding of the value.
+ */
+public final class CsrExtensions {
+
+    /**
+     * Replaces the value of the challengePassword attribute, which is a shared secret and is not displayed.
+     */
+    static final String HIDDEN = "(hidden)";
+
+    /**
+     * Prefixes the hex encoding of a value that does not match the structure of its type.
+     */
+    static final String MALFORMED = "malformed: ";
+
+    private static final String[] GENERAL_NAME_TYPES = {
+            "otherName", "rfc822Name", "dNSName", "x400Address", "directoryName", "ediPartyName",
+            "uniformResourceIdentifier", "iPAddress", "registeredID"
+    };
+
+    private static final int[] KEY_USAGE_BITS = {
+            KeyUsage.digitalSignature, KeyUsage.nonRepudiation, KeyUsage.keyEncipherment, KeyUsage.dataEncipherment,
+            KeyUsage.keyAgreement, KeyUsage.keyCertSign, KeyUsage.cRLSign, KeyUsage.encipherOnly, KeyUsage.decipherOnly
+    };
+
+    private static final String[] KEY_USAGE_NAMES = {
+            "digitalSignature", "nonRepudiation", "keyEncipherment", "dataEncipherment",
+            "keyAgreement", "keyCertSign", "cRLSign", "encipherOnly", "decipherOnly"
+    };
+
+    private static final Map<ASN1ObjectIdentifier, String> KEY_PURPOSE_NAMES = Map.of(
+            KeyPurposeId.anyExtendedKeyUsage.toOID(), "anyExtendedKeyUsage",
+            KeyPurposeId.id_kp_serverAuth.toOID(), "serverAuth",
+            KeyPurposeId.id_kp_clientAuth.toOID(), "clientAuth",
+            KeyPurposeId.id_kp_codeSigning.toOID(), "codeSigning",
+            KeyPurposeId.id_kp_emailProtection.toOID(), "emailProtection",
+            KeyPurposeId.id_kp_timeStamping.toOID(), "timeStamping",
+            KeyPurposeId.id_kp_OCSPSigning.toOID(), "OCSPSigning"
+    );
+
+    private static final Map<ASN1ObjectIdentifier, Type> EXTENSION_TYPES = Map.ofEntries(
+            entry(Extension.keyUsage, new Type("keyUsage", CsrExtensions::keyUsages)),
+            entry(Extension.extendedKeyUsage, new Type("extendedKeyUsage", CsrExtensions::keyPurposes)),
+            entry(Extension.basicConstraints, new Type("basicConstraints", CsrExtensions::basicConstraints)),
+            entry(Extension.subjectAlternativeName, new Type("subjectAltName", CsrExtensions::generalNames)),
+            entry(Extension.subjectKeyIdentifier, new Type("subjectKeyIdentifier", CsrExtensions::keyIdentifier))
+    );
+
+    private static final Map<ASN1ObjectIdentifier, Type> ATTRIBUTE_TYPES = Map.of(
+            PKCSObjectIdentifiers.pkcs_9_at_challengePassword, new Type("challengePassword", value -> List.of(HIDDEN)),
+            PKCSObjectIdentifiers.pkcs_9_at_unstructuredName, new Type("unstructuredName", CsrExtensions::string),
+            PKCSObjectIdentifiers.pkcs_9_at_unstructuredAddress, new Type("unstructuredAddress", CsrExtensions::string)
+    );
+
+    private CsrExtensions() {
+    }
+
+    /**
+     * An attribute or extension of a request.
+     *
+     * @param oid the object identifier of the type
+     * @param name the name of the type, or the object identifier if the type is unknown
+     * @param critical whether an extension is marked critical, false for attributes
+     * @param values the decoded values, for example one entry per key usage; the hex encoding for unknown types
+     */
+    public record Decoded(String oid, String name, boolean critical, List<String> values) {
+    }
+
+    /**
+     * The name of an attribute or extension type and how to decode its value.
+     */
+    private record Type(String name, Function<ASN1Encodable, List<String>> decoder) {
+    }
+
+    /**
+     * Decode the attributes of a request. The extensionRequest attribute is replaced by the extensions it contains.
+     *
+     * @param request the request whose attributes to decode
+     * @return the attributes and requested extensions in the order they appear in the request
+     */
+    static List<Decoded> decode(PKCS10CertificationRequest request) {
+        var decoded = new ArrayList<Decoded>();
+        for (Attribute attribute : request.getAttributes()) {
+            var oid = attribute.getAttrType();
+            var values = attribute.getAttributeValues();
+            if (oid.equals(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest) && values.length > 0) {
+                try {
+                    decoded.addAll(decode(Extensions.getInstance(values[0])));
+                    continue;
+                } catch (IllegalArgumentException e) {
+                    // not a sequence of extensions, kept as a malformed attribute below
+                }
+            }
+            var type = ATTRIBUTE_TYPES.get(oid);
+            var strings = new ArrayList<String>(values.length);
+            for (ASN1Encodable value : values) {
+                strings.addAll(type == null ? List.of(hex(value)) : decode(type, value));
+            }
+            decoded.add(new Decoded(oid.getId(), type == null ? oid.getId() : type.name(), false, strings));
+        }
+        return decoded;
+    }
+
+    /**
+     * @param extensions the extensions to decode
+     * @return the extensions in the order they appear in the sequence
+     */
+    static List<Decoded> decode(Extensions extensions) {
+        var oids = extensions.getExtensionOIDs();
+        var decoded = new ArrayList<Decoded>(oids.length);
+        for (ASN1ObjectIdentifier oid : oids) {
+            var extension = extensions.getExtension(oid);
+            var type = EXTENSION_TYPES.get(oid);
+            var octets = extension.getExtnValue().getOctets();
+            decoded.add(type == null
+                    ? new Decoded(oid.getId(), oid.getId(), extension.isCritical(), List.of(Hex.toHexString(octets)))
+                    : new Decoded(oid.getId(), type.name(), extension.isCritical(), decode(type, octets)));
+        }
+        return decoded;
+    }
+
+    private static List<String> decode(Type type, ASN1Encodable value) {
+        try {
+            return type.decoder().apply(value);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return List.of(MALFORMED + hex(value));
+        }
+    }
+
+    private static List<String> decode(Type type, byte[] octets) {
+        try {
+            return type.decoder().apply(ASN1Primitive.fromByteArray(octets));
+        } catch (IllegalArgumentException | ClassCastException | IOException e) {
+            return List.of(MALFORMED + Hex.toHexString(octets));
+        }
+    }
+
+    private static List<String> keyUsages(ASN1Encodable value) {
+        var keyUsage = KeyUsage.getInstance(value);
+        var names = new ArrayList<String>(KEY_USAGE_NAMES.length);
+        for (int i = 0; i < KEY_USAGE_BITS.length; i++) {
+            if (keyUsage.hasUsages(KEY_USAGE_BITS[i])) {
+                names.add(KEY_USAGE_NAMES[i]);
+            }
+        }
+        return names;
+    }
+
+    private static List<String> keyPurposes(ASN1Encodable value) {
+        var purposes = ExtendedKeyUsage.getInstance(value).getUsages();
+        var names = new ArrayList<String>(purposes.length);
+        for (KeyPurposeId purpose : purposes) {
+            names.add(KEY_PURPOSE_NAMES.getOrDefault(purpose.toOID(), purpose.getId()));
+        }
+        return names;
+    }
+
+    private static List<String> basicConstraints(ASN1Encodable value) {
+        var constraints = BasicConstraints.getInstance(value);
+        var pathLength = constraints.getPathLenConstraint();
+        return pathLength == null
+                ? List.of(constraints.isCA() ? "CA:TRUE" : "CA:FALSE")
+                : List.of(constraints.isCA() ? "CA:TRUE" : "CA:FALSE", "pathlen:" + pathLength);
+    }
+
+    private static List<String> generalNames(ASN1Encodable value) {
+        var generalNames = GeneralNames.getInstance(value).getNames();
+        var names = new ArrayList<String>(generalNames.length);
+        for (GeneralName name : generalNames) {
+            names.add(generalNameType(name) + ":" + generalNameValue(name));
+        }
+        return names;
+    }
+
+    private static List<String> keyIdentifier(ASN1Encodable value) {
+        return List.of(Hex.toHexString(SubjectKeyIdentifier.getInstance(value).getKeyIdentifier()));
+    }
+
+    private static List<String> string(ASN1Encodable value) {
+        return List.of(value instanceof ASN1String string ? string.getString() : hex(value));
+    }
+
+    /**
+     * @param nameOrOid the name of an extension type as in the decoded extensions, such as basicConstraints, or the
+     *                  object identifier of any extension type
+     * @return the object identifier of the extension type
+     * @throws IllegalArgumentException if nameOrOid is neither the name of a known type nor an object identifier
+     */
+    static ASN1ObjectIdentifier extensionType(String nameOrOid) {
+        for (var entry : EXTENSION_TYPES.entrySet()) {
+            if (entry.getValue().name().equals(nameOrOid)) {
+                return entry.getKey();
+            }
+        }
+        return new ASN1ObjectIdentifier(nameOrOid);
+    }
+
+    /**
+     * @return the type of the name as in RFC 5280, for example dNSName or iPAddress
+     */
+    static String generalNameType(GeneralName name) {
+        return GENERAL_NAME_TYPES[name.getTagNo()];
+    }
+
+    /**
+     * @return the name; IP addresses are written in their usual textual form
+     */
+    static String generalNameValue(GeneralName name) {
+        if (name.getTagNo() == GeneralName.iPAddress) {
+            try {
+                return InetAddress.getByAddress(ASN1OctetString.getInstance(name.getName()).getOctets()).getHostAddress();
+            } catch (UnknownHostException e) {
+                // not 4 or 16 octets, fall back to the hex encoding
+            }
+        }
+        return name.getName().toString();
+    }
+
+    private static String hex(ASN1Encodable value) {
+        try {
+            return Hex.toHexString(value.toASN1Primitive().getEncoded());
+        } catch (IOException e) {
+            return value.toString();
+        }
+    }
+}
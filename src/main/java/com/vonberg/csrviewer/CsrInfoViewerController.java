@@ -2,42 +2,55 @@ package com.vonberg.csrviewer;
 
 import java.io.IOException;
 
-import org.bouncycastle.operator.DefaultAlgorithmNameFinder;
-import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import jakarta.servlet.http.HttpServletRequest;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.view.RedirectView;
 
 
 
 @Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class CsrInfoViewerController {
-    final static String FORM_PATH = "/form";
-    final static String CSR_POST_PATH = "/submit-csr";
 
-    final static String CSR_FORM_FRAGMENT = "csr-form/fragments/form";
-    final static String CSR_SUCCESS_RESPONSE_FRAGMENT = "csr-form/fragments/csr-info-response";
-    final static String CSR_FAILURE_RESPONSE_FRAGMENT = "csr-form/fragments/failure-response";
+    static final Logger logger = LoggerFactory.getLogger(CsrInfoViewerController.class);
+
+    private final CsrInspectionService inspectionService;
+    private final PrerenderedPages prerenderedPages;
 
-    Logger logger = LoggerFactory.getLogger(CsrInfoViewerController.class);
+    public CsrInfoViewerController(CsrInspectionService inspectionService, PrerenderedPages prerenderedPages) {
+        this.inspectionService = inspectionService;
+        this.prerenderedPages = prerenderedPages;
+    }
 
 
     @GetMapping("/")
     public RedirectView index() {
-        logger.info("served index");
-        return new RedirectView(FORM_PATH);
+        logger.debug("served index");
+        return new RedirectView(CsrViews.FORM_PATH);
     }
 
-    @GetMapping(FORM_PATH)
-    public String form() {
-        logger.info("served form");
-        return CSR_FORM_FRAGMENT;
+    /**
+     * @param acceptEncoding the Accept-Encoding header, the form is sent gzip compressed if it includes gzip
+     * @return the form, which is rendered once at startup
+     */
+    @GetMapping(CsrViews.FORM_PATH)
+    public ResponseEntity<byte[]> form(@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        logger.debug("served form");
+        return prerenderedPages.form(acceptEncoding);
     }
 
 
@@ -46,37 +59,34 @@ public class CsrInfoViewerController {
      * contents to the model used by the templater. Note that the response gets added to the page contents directly
      * via HTMX.
      *
-     * @param csrFile a MultiPartFile uploaded from the input form
+     * @param csrFile a MultiPartFile uploaded from the input form, which is read as a stream and rejected without
+     *                being read entirely if it is larger than the configured maximum CSR size
      * @param model the model that passes data to the templater.
      * @return path to the thymeleaf template of the information contained in the CSR if csrFile is a valid PEM or
      * binary PKCS10 Certificate Signing Request, the path to a failure message fragment otherwise.
      */
-    @PostMapping(CSR_POST_PATH)
-    public String csrResponse(@RequestParam("csr-file") MultipartFile csrFile, Model model) {
-        byte[] bytes;
+    @PostMapping(CsrViews.CSR_POST_PATH)
+    public String csrResponse(@RequestParam("csr-file") MultipartFile csrFile, Model model,
+                              HttpServletRequest request) {
         try {
-            bytes = csrFile.getBytes();
-            final var result = PKCS10Parser.parseCSRFromByteArray(bytes);
-            model.addAttribute("fileReadSuccess", true)
-                    .addAttribute("parseResult", result);
-            if (result.state == PKCS10Parser.ParseResultState.SUCCESS) {
-                var algorithmNameFinder = new DefaultAlgorithmNameFinder();
-                PKCS10CertificationRequest request = result.request;
-                model.addAttribute("signatureAlgorithm", algorithmNameFinder.getAlgorithmName(request.getSignatureAlgorithm()))
-                        .addAttribute("validationState", PKCS10Parser.tryValidateSignature(request))
-                        .addAttribute("subject", request.getSubject())
-                        .addAttribute("rDNs", PKCS10Parser.getMappingOfX500NameComponents(request.getSubject()))
-                        .addAttribute("subjectAltNames", PKCS10Parser.getAltNames(request));
-                // because it's not part of the spec, info about other extensions isn't added
-            } else {
-                return CSR_FAILURE_RESPONSE_FRAGMENT;
-            }
+            final var upload = inspectionService.read(csrFile.getInputStream(), csrFile.getSize());
+            request.setAttribute(CsrMetricsConfiguration.RenderTimingInterceptor.SAMPLED_ATTRIBUTE, upload.sampled());
+            final var inspection = inspectionService.inspect(upload, CsrViews.SECTIONS);
+            return CsrViews.render(inspection, model);
         } catch (IOException e) {
-            logger.info("Failed to get content of file {}.", csrFile.getResource().getFilename());
-            model.addAttribute("fileReadSuccess", false);
-            return CSR_FAILURE_RESPONSE_FRAGMENT;
+            logger.info("Failed to get content of file {}.", csrFile.getOriginalFilename());
+            return CsrViews.renderReadFailure(model);
         }
-        return CSR_SUCCESS_RESPONSE_FRAGMENT;
+    }
+
+    /**
+     * An upload beyond the limits of {@code spring.servlet.multipart} is rendered like any other upload that is too
+     * large; multipart forms are resolved lazily, so the limit is exceeded while the handler arguments are resolved.
+     */
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public String uploadTooLarge(Model model) {
+        return CsrViews.render(CsrInspection.inspect(new CsrParsingResult(PKCS10Parser.ParseResultState.TOO_LARGE)),
+                model);
     }
 
 
@@ -0,0 +1,303 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.operator.DefaultAlgorithmNameFinder;
+
+/**
+ * Everything the frontend and the API endpoints display about a single certificate signing request: the parsing
+ * result and, if parsing succeeded, the signature algorithm, the result of validating the signature, the components
+ * of the subject name, the subject alternative names, the requested extensions and the public key.
+ * <p>
+ * Apart from the parsing result, every section is computed on first access and memoized, so a caller that only needs
+ * the subject never pays for verifying the signature. Inspections are shared through the inspection cache, so
+ * sections are computed at most once even if several threads access them at the same time. Use
+ * {@link #compute(Set)} to compute the sections a caller needs in advance, for example on the thread pool that
+ * signatures are verified on.
+ */
+public final class CsrInspection {
+
+    /**
+     * The sections of an inspection that are computed on demand.
+     */
+    public enum Section {
+        /** The subject name and its RDNs. */
+        SUBJECT,
+        /** The subject alternative names. */
+        SUBJECT_ALT_NAMES,
+        /** The signature algorithm and the result of validating the signature. */
+        SIGNATURE,
+        /** The attributes and the requested extensions, decoded by {@link CsrExtensions}. */
+        EXTENSIONS,
+        /** The algorithm, size and hash of the public key. */
+        KEY_INFO;
+
+        static final Set<Section> ALL = EnumSet.allOf(Section.class);
+
+        /**
+         * @param names section names, case-insensitive and with either dashes or underscores, e.g. subject-alt-names
+         * @return the named sections, or all sections if names is null or empty
+         * @throws IllegalArgumentException if a name is not the name of a section
+         */
+        static Set<Section> parse(Collection<String> names) {
+            if (names == null || names.isEmpty()) {
+                return ALL;
+            }
+            var sections = EnumSet.noneOf(Section.class);
+            for (String name : names) {
+                sections.add(valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT)));
+            }
+            return sections;
+        }
+    }
+
+    private static final DefaultAlgorithmNameFinder algorithmNameFinder = new DefaultAlgorithmNameFinder();
+
+    private final CsrParsingResult parseResult;
+    private final Memo<String> signatureAlgorithm;
+    private final Memo<PKCS10Parser.ValidationResultState> validationState;
+    private final Memo<Iterable<LinkedHashMap<String, String>>> rDNs;
+    private final Memo<GeneralName[]> subjectAltNames;
+    private final Memo<List<CsrExtensions.Decoded>> extensions;
+    private final Memo<Integer> keySize;
+    private final Memo<String> spkiSha256;
+    private volatile KeyAnalyzer.Analysis keyAnalysis;
+    private volatile CsrPolicy.Evaluation policyEvaluation;
+
+    private CsrInspection(CsrParsingResult result, CsrMetrics metrics, boolean sampled) {
+        this.parseResult = result;
+        var request = result.request;
+        this.signatureAlgorithm = new Memo<>(() -> algorithmNameFinder.getAlgorithmName(request.getSignatureAlgorithm()));
+        this.validationState = new Memo<>(() -> {
+            long start = metrics.startTiming(sampled);
+            var state = PKCS10Parser.tryValidateSignature(request);
+            metrics.record(CsrMetrics.Stage.VERIFY, start);
+            return state;
+        });
+        this.rDNs = new Memo<>(() -> PKCS10Parser.getMappingOfX500NameComponents(request.getSubject()));
+        this.subjectAltNames = new Memo<>(() -> PKCS10Parser.getAltNames(request));
+        this.extensions = new Memo<>(() -> CsrExtensions.decode(request));
+        this.keySize = new Memo<>(() -> PKCS10Parser.getKeySize(request));
+        this.spkiSha256 = new Memo<>(() -> {
+            try {
+                return CsrInspectionService.sha256Hex(request.getSubjectPublicKeyInfo().getEncoded());
+            } catch (IOException e) {
+                // re-encoding a parsed structure does not fail
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Parse the bytes of an uploaded file and extract the information about the request.
+     *
+     * @param bytes the PEM or binary encoded certificate signing request
+     * @return the inspection of the request; only parseResult is set if parsing was not successful
+     */
+    static CsrInspection inspect(byte[] bytes) {
+        return inspect(PKCS10Parser.parseCSRFromByteArray(bytes));
+    }
+
+    static CsrInspection inspect(CsrParsingResult result) {
+        return inspect(result, CsrMetrics.noop(), false);
+    }
+
+    /**
+     * Inspect a parsed request. No section is computed yet.
+     *
+     * @param result the result of parsing the request
+     * @param metrics the metrics to record the time spent verifying the signature in
+     * @param sampled whether the request that inspects the request first is timed, see {@link CsrMetrics#sample()}
+     * @return the inspection of the request; only parseResult is set if parsing was not successful
+     */
+    static CsrInspection inspect(CsrParsingResult result, CsrMetrics metrics, boolean sampled) {
+        return new CsrInspection(result, metrics, sampled);
+    }
+
+    /**
+     * Compute the given sections now if they have not been computed yet.
+     *
+     * @return this inspection
+     */
+    CsrInspection compute(Set<Section> sections) {
+        if (!parsed()) {
+            return this;
+        }
+        for (Section section : sections) {
+            switch (section) {
+                case SUBJECT -> rDNs.get();
+                case SUBJECT_ALT_NAMES -> subjectAltNames.get();
+                case SIGNATURE -> {
+                    signatureAlgorithm.get();
+                    validationState.get();
+                }
+                case EXTENSIONS -> extensions.get();
+                case KEY_INFO -> {
+                    keySize.get();
+                    spkiSha256.get();
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return whether all of the given sections have been computed, which is trivially true if parsing failed
+     */
+    boolean computed(Set<Section> sections) {
+        if (!parsed()) {
+            return true;
+        }
+        for (Section section : sections) {
+            boolean computed = switch (section) {
+                case SUBJECT -> rDNs.isDone();
+                case SUBJECT_ALT_NAMES -> subjectAltNames.isDone();
+                case SIGNATURE -> validationState.isDone();
+                case EXTENSIONS -> extensions.isDone();
+                case KEY_INFO -> keySize.isDone();
+            };
+            if (!computed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean computed(Section section) {
+        return computed(EnumSet.of(section));
+    }
+
+    public CsrParsingResult parseResult() {
+        return parseResult;
+    }
+
+    boolean parsed() {
+        return parseResult.state == PKCS10Parser.ParseResultState.SUCCESS;
+    }
+
+    /**
+     * @return the name of the signature algorithm, null if parsing failed
+     */
+    public String signatureAlgorithm() {
+        return parsed() ? signatureAlgorithm.get() : null;
+    }
+
+    /**
+     * @return the result of validating the signature, which is verified on the first call; null if parsing failed
+     */
+    public PKCS10Parser.ValidationResultState validationState() {
+        return parsed() ? validationState.get() : null;
+    }
+
+    public X500Name subject() {
+        return parsed() ? parseResult.request.getSubject() : null;
+    }
+
+    public Iterable<LinkedHashMap<String, String>> rDNs() {
+        return parsed() ? rDNs.get() : null;
+    }
+
+    public GeneralName[] subjectAltNames() {
+        return parsed() ? subjectAltNames.get() : null;
+    }
+
+    /**
+     * @return the attributes of the request, with the extensionRequest attribute replaced by the requested extensions;
+     * null if parsing failed
+     */
+    public List<CsrExtensions.Decoded> extensions() {
+        return parsed() ? extensions.get() : null;
+    }
+
+    /**
+     * @return the name of the algorithm of the public key, null if parsing failed
+     */
+    public String keyAlgorithm() {
+        return parsed() ? PKCS10Parser.getKeyAlgorithm(parseResult.request) : null;
+    }
+
+    /**
+     * @return the size of the public key in bits, -1 if it cannot be determined or parsing failed
+     */
+    public int keySize() {
+        return parsed() ? keySize.get() : -1;
+    }
+
+    /**
+     * @return the hex encoded SHA-256 hash of the DER encoding of the SubjectPublicKeyInfo, which identifies the key
+     * across requests; null if parsing failed
+     */
+    public String spkiSha256() {
+        return parsed() ? spkiSha256.get() : null;
+    }
+
+    /**
+     * @return what the {@link KeyAnalyzer} found wrong with the public key, empty if nothing; null if the key was
+     * not analyzed because parsing failed or the analyzer is disabled
+     */
+    public Set<KeyAnalyzer.Finding> keyFindings() {
+        var analysis = keyAnalysis;
+        return analysis == null ? null : analysis.findings();
+    }
+
+    KeyAnalyzer.Analysis keyAnalysis() {
+        return keyAnalysis;
+    }
+
+    void keyAnalysis(KeyAnalyzer.Analysis analysis) {
+        this.keyAnalysis = analysis;
+    }
+
+    /**
+     * @return the result of checking the request against the {@link CsrPolicy}; null if it was not checked because
+     * parsing failed or no policy is configured
+     */
+    public CsrPolicy.Evaluation policyEvaluation() {
+        return policyEvaluation;
+    }
+
+    void policyEvaluation(CsrPolicy.Evaluation evaluation) {
+        this.policyEvaluation = evaluation;
+    }
+
+    /**
+     * A value that is computed once, on the first call to get, by the first thread to call it.
+     */
+    private static final class Memo<T> implements Supplier<T> {
+        private Supplier<T> supplier;
+        private T value;
+        private volatile boolean done;
+
+        Memo(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public T get() {
+            if (!done) {
+                synchronized (this) {
+                    if (!done) {
+                        value = supplier.get();
+                        supplier = null;
+                        done = true;
+                    }
+                }
+            }
+            return value;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Inspects certificate signing requests, caching the results of successful inspections by the SHA-256 hash of the
+ * DER encoding of the request. Resubmitting a request that is still cached skips parsing, key decoding and signature
+ * verification entirely. Every successful inspection, cached or not, is recorded in the {@link CsrAuditLog} if it is
+ * enabled, the key of every newly inspected request is analyzed by the {@link KeyAnalyzer} if it is enabled, and
+ * every inspection is checked against the {@link CsrPolicy} if one is configured, before its sections are computed.
+ */
+@Service
+public class CsrInspectionService {
+
+    static final Logger logger = LoggerFactory.getLogger(CsrInspectionService.class);
+
+    private final CsrUploadReader uploadReader;
+    private final CsrMetrics metrics;
+    private final VerificationExecutor verificationExecutor;
+    private final CsrAuditLog auditLog;
+    private final KeyAnalyzer keyAnalyzer;
+    private final CsrPolicy policy;
+    private final Cache<String, CsrInspection> cache;
+
+    CsrInspectionService(CsrUploadReader uploadReader, CsrMetrics metrics, boolean cacheEnabled, long maximumSize,
+                         Duration expireAfterWrite) {
+        this(uploadReader, metrics, (VerificationExecutor) null, null, null, null, cacheEnabled, maximumSize,
+                expireAfterWrite);
+    }
+
+    /**
+     * @param verificationExecutor the pool to parse and verify requests on, which only exists in the virtual thread
+     *                             mode; requests are parsed and verified on the calling thread otherwise
+     * @param auditLog the log to record inspections in, which only exists if it is enabled
+     * @param keyAnalyzer the analyzer of the keys of inspected requests, which only exists if it is enabled
+     * @param policy the issuance policy to check inspected requests against, which only exists if it is configured
+     */
+    @Autowired
+    public CsrInspectionService(CsrUploadReader uploadReader,
+                                CsrMetrics metrics,
+                                ObjectProvider<VerificationExecutor> verificationExecutor,
+                                ObjectProvider<CsrAuditLog> auditLog,
+                                ObjectProvider<KeyAnalyzer> keyAnalyzer,
+                                ObjectProvider<CsrPolicy> policy,
+                                @Value("${csrviewer.cache.enabled:true}") boolean cacheEnabled,
+                                @Value("${csrviewer.cache.maximum-size:10000}") long maximumSize,
+                                @Value("${csrviewer.cache.expire-after-write:1h}") Duration expireAfterWrite) {
+        this(uploadReader, metrics, verificationExecutor.getIfAvailable(), auditLog.getIfAvailable(),
+                keyAnalyzer.getIfAvailable(), policy.getIfAvailable(), cacheEnabled, maximumSize, expireAfterWrite);
+    }
+
+    CsrInspectionService(CsrUploadReader uploadReader, CsrMetrics metrics, VerificationExecutor verificationExecutor,
+                         CsrAuditLog auditLog, KeyAnalyzer keyAnalyzer, CsrPolicy policy, boolean cacheEnabled,
+                         long maximumSize, Duration expireAfterWrite) {
+        this.uploadReader = uploadReader;
+        this.metrics = metrics;
+        this.verificationExecutor = verificationExecutor;
+        this.auditLog = auditLog;
+        this.keyAnalyzer = keyAnalyzer;
+        this.policy = policy;
+        this.cache = cacheEnabled
+                ? Caffeine.newBuilder()
+                        .maximumSize(maximumSize)
+                        .expireAfterWrite(expireAfterWrite)
+                        .recordStats()
+                        .build()
+                : null;
+        if (cache != null) {
+            metrics.monitorCache(cache, "csr-inspections");
+        }
+    }
+
+    /**
+     * An upload read into memory: SUCCESS, the DER encoding of the request and the hex encoded SHA-256 hash of the
+     * encoding, which identifies the request in the cache and in ETags; or the reason the upload was rejected. Sampled
+     * tells whether the stages of handling the upload are timed, see {@link CsrMetrics#sample()}.
+     */
+    record Upload(PKCS10Parser.ParseResultState state, byte[] der, String sha256, boolean sampled) {
+        boolean rejected() {
+            return state != PKCS10Parser.ParseResultState.SUCCESS;
+        }
+    }
+
+    /**
+     * Read an uploaded file as a stream without inspecting it. Uploads that are too large or that are not a
+     * certificate signing request are rejected without reading more than the maximum CSR size.
+     *
+     * @param in the contents of the uploaded file
+     * @param declaredSize the size of the file as declared by the client, or a negative value if it is unknown
+     * @return the upload, to pass to {@link #inspect(Upload)}
+     * @throws IOException if reading the file fails
+     */
+    Upload read(InputStream in, long declaredSize) throws IOException {
+        boolean sampled = metrics.sample();
+        long start = metrics.startTiming(sampled);
+        var upload = digest(uploadReader.read(in, declaredSize), sampled);
+        metrics.record(CsrMetrics.Stage.READ, start);
+        return upload;
+    }
+
+    /**
+     * Read the contents of an uploaded file without inspecting it.
+     *
+     * @param bytes the PEM or binary encoded certificate signing request
+     * @return the upload, to pass to {@link #inspect(Upload)}
+     */
+    Upload read(byte[] bytes) {
+        boolean sampled = metrics.sample();
+        long start = metrics.startTiming(sampled);
+        var upload = digest(uploadReader.read(bytes), sampled);
+        metrics.record(CsrMetrics.Stage.READ, start);
+        return upload;
+    }
+
+    private static Upload digest(CsrEncoding.Decoded decoded, boolean sampled) {
+        return new Upload(decoded.state(), decoded.der(), decoded.der() == null ? null : sha256Hex(decoded.der()),
+                sampled);
+    }
+
+    /**
+     * Inspect an uploaded file, reading it as a stream.
+     *
+     * @param in the contents of the uploaded file
+     * @param declaredSize the size of the file as declared by the client, or a negative value if it is unknown
+     * @param sections the sections of the inspection to compute
+     * @return the inspection of the request
+     * @throws IOException if reading the file fails
+     * @see #read(InputStream, long)
+     */
+    CsrInspection inspect(InputStream in, long declaredSize, Set<CsrInspection.Section> sections) throws IOException {
+        return inspect(read(in, declaredSize), sections);
+    }
+
+    CsrInspection inspect(InputStream in, long declaredSize) throws IOException {
+        return inspect(in, declaredSize, CsrInspection.Section.ALL);
+    }
+
+    /**
+     * Inspect the contents of an uploaded file.
+     *
+     * @param bytes the PEM or binary encoded certificate signing request
+     * @param sections the sections of the inspection to compute
+     * @return the inspection of the request
+     */
+    CsrInspection inspect(byte[] bytes, Set<CsrInspection.Section> sections) {
+        return inspect(read(bytes), sections);
+    }
+
+    CsrInspection inspect(byte[] bytes) {
+        return inspect(bytes, CsrInspection.Section.ALL);
+    }
+
+    /**
+     * Inspect an upload, returning the cached inspection if the same request was inspected before. Requests that
+     * cannot be parsed are neither cached nor recorded in the audit log, and their keys are not analyzed. The key of
+     * a request that can be parsed is analyzed before this method returns. A request that can be parsed is checked
+     * against the policy, if it was not checked against the rules in force before, and then the given sections are
+     * computed, both before this method returns and on the verification executor if there is one; other sections are
+     * only computed if they are accessed later.
+     *
+     * @param upload the upload as returned by one of the read methods
+     * @param sections the sections of the inspection to compute
+     * @return the inspection of the request
+     */
+    CsrInspection inspect(Upload upload, Set<CsrInspection.Section> sections) {
+        var inspection = inspectUncounted(upload, sections);
+        metrics.countInspection(inspection);
+        if (keyAnalyzer != null && inspection.parsed()) {
+            keyAnalyzer.analyze(upload.sha256(), inspection);
+        }
+        if (auditLog != null && inspection.parsed()) {
+            auditLog.record(upload.sha256(), inspection);
+        }
+        return inspection;
+    }
+
+    /**
+     * Look up the inspection of a request that was inspected before.
+     *
+     * @param sha256 the lower case hex encoded SHA-256 hash of the DER encoding of the request
+     * @return the cached inspection, or empty if the request was not inspected recently or caching is disabled
+     */
+    Optional<CsrInspection> cached(String sha256) {
+        if (cache == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.getIfPresent(sha256))
+                .map(inspection -> policy == null || policy.evaluated(inspection)
+                        ? inspection
+                        : onVerificationExecutor(() -> policy.evaluate(inspection)));
+    }
+
+    private CsrInspection inspectUncounted(Upload upload, Set<CsrInspection.Section> sections) {
+        if (upload.rejected()) {
+            return CsrInspection.inspect(new CsrParsingResult(upload.state()));
+        }
+        if (cache == null) {
+            return parseAndInspect(upload.der(), sections, upload.sampled());
+        }
+        var key = upload.sha256();
+        var cached = cache.getIfPresent(key);
+        if (cached != null) {
+            logger.debug("Serving inspection of request {} from cache.", key);
+            return cached.computed(sections) && (policy == null || policy.evaluated(cached))
+                    ? cached
+                    : onVerificationExecutor(() -> evaluate(cached).compute(sections));
+        }
+        var inspection = parseAndInspect(upload.der(), sections, upload.sampled());
+        if (inspection.parsed()) {
+            cache.put(key, inspection);
+        }
+        return inspection;
+    }
+
+    private CsrInspection parseAndInspect(byte[] der, Set<CsrInspection.Section> sections, boolean sampled) {
+        return onVerificationExecutor(() -> {
+            long start = metrics.startTiming(sampled);
+            var result = PKCS10Parser.parseCSRFromDer(der);
+            metrics.record(CsrMetrics.Stage.PARSE, start);
+            return evaluate(CsrInspection.inspect(result, metrics, sampled)).compute(sections);
+        });
+    }
+
+    /**
+     * Check a request against the policy before its sections are computed, so that the signature of a request that
+     * breaks one of the cheap rules is only verified if the sections include it.
+     */
+    private CsrInspection evaluate(CsrInspection inspection) {
+        return policy != null && inspection.parsed() ? policy.evaluate(inspection) : inspection;
+    }
+
+    private CsrInspection onVerificationExecutor(Supplier<CsrInspection> task) {
+        return verificationExecutor != null ? verificationExecutor.call(task) : task.get();
+    }
+
+    /**
+     * @return the hit, miss and eviction counts of the cache, or empty statistics if caching is disabled
+     */
+    CacheStats cacheStats() {
+        return cache == null ? CacheStats.empty() : cache.stats();
+    }
+
+    boolean cacheEnabled() {
+        return cache != null;
+    }
+
+    static String sha256Hex(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
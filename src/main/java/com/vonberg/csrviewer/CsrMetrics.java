@@ -0,0 +1,154 @@
+package com.vonberg.csrviewer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Timers for the stages of handling a submitted certificate signing request and counters of the inspection results.
+ * Only a configurable fraction of requests is timed, so that the instrumentation stays cheap under load; whether a
+ * request is timed is decided once, when its upload is read, and either all or none of its stages are timed. The
+ * counters count every request.
+ * <p>
+ * The signature algorithm and the key size are chosen by whoever uploads a request, so only the supported signature
+ * algorithms and common key sizes are published as tags, and any other value as {@value #OTHER}. Otherwise every
+ * request with a new value would add a meter.
+ */
+@Component
+public class CsrMetrics {
+
+    static final String STAGE_TIMER = "csrviewer.csr.stage";
+    static final String INSPECTION_COUNTER = "csrviewer.csr.inspections";
+    static final String OTHER = "other";
+
+    private static final Set<Integer> KEY_SIZES = Set.of(
+            192, 224, 255, 256, 320, 384, 448, 512, 521, 1024, 1536, 2048, 3072, 4096, 6144, 7680, 8192);
+
+    /**
+     * The stages of handling a submitted request: reading the upload, parsing the request, verifying its
+     * signature and rendering the response.
+     */
+    enum Stage {
+        READ, PARSE, VERIFY, RENDER
+    }
+
+    private record InspectionTags(PKCS10Parser.ParseResultState parseState,
+                                  PKCS10Parser.ValidationResultState validationState,
+                                  String signatureAlgorithm,
+                                  String keySize) {
+    }
+
+    private static final CsrMetrics NOOP = new CsrMetrics(new CompositeMeterRegistry(), 0);
+
+    private final MeterRegistry registry;
+    private final double sampleRate;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Map<InspectionTags, Counter> inspectionCounters = new ConcurrentHashMap<>();
+
+    public CsrMetrics(MeterRegistry registry, @Value("${csrviewer.metrics.sample-rate:1.0}") double sampleRate) {
+        this.registry = registry;
+        this.sampleRate = sampleRate;
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder(STAGE_TIMER)
+                    .description("Time spent in each stage of handling a submitted CSR")
+                    .tag("stage", stage.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    /**
+     * @return metrics that are not published anywhere, for use outside the application context
+     */
+    static CsrMetrics noop() {
+        return NOOP;
+    }
+
+    /**
+     * Decide whether a request is timed. Called once per request, the decision is passed to every stage.
+     */
+    boolean sample() {
+        return sampleRate >= 1 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * Start timing a stage if the current request is sampled.
+     *
+     * @param sampled the decision of {@link #sample()} for the current request
+     * @return the start time to pass to {@link #record(Stage, long)}, or -1 if the request is not sampled
+     */
+    long startTiming(boolean sampled) {
+        return sampled ? System.nanoTime() : -1;
+    }
+
+    /**
+     * Record the time spent in a stage since start, unless the request was not sampled.
+     */
+    void record(Stage stage, long start) {
+        if (start >= 0) {
+            stageTimers.get(stage).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Count an inspection by its parse and validation state and by the signature algorithm and key size of the
+     * request. The validation state and the key size are only known if those sections of the inspection were
+     * computed; counting never verifies a signature or decodes a key.
+     */
+    void countInspection(CsrInspection inspection) {
+        var tags = inspection.parsed()
+                ? new InspectionTags(inspection.parseResult().state,
+                        inspection.computed(CsrInspection.Section.SIGNATURE) ? inspection.validationState() : null,
+                        signatureAlgorithmTag(inspection),
+                        inspection.computed(CsrInspection.Section.KEY_INFO) ? keySizeTag(inspection.keySize()) : null)
+                : new InspectionTags(inspection.parseResult().state, null, null, null);
+        inspectionCounters.computeIfAbsent(tags, this::registerInspectionCounter).increment();
+    }
+
+    /**
+     * @return the name of the signature algorithm if it is supported, {@value #OTHER} otherwise
+     */
+    static String signatureAlgorithmTag(CsrInspection inspection) {
+        var algorithm = inspection.parseResult().request.getSignatureAlgorithm();
+        return SignatureVerificationEngine.familyOf(algorithm) != null ? inspection.signatureAlgorithm() : OTHER;
+    }
+
+    /**
+     * @return the key size if it is a common one, {@value #OTHER} otherwise, or null if it is unknown
+     */
+    static String keySizeTag(int keySize) {
+        if (keySize < 0) {
+            return null;
+        }
+        return KEY_SIZES.contains(keySize) ? Integer.toString(keySize) : OTHER;
+    }
+
+    private Counter registerInspectionCounter(InspectionTags tags) {
+        return Counter.builder(INSPECTION_COUNTER)
+                .description("Inspected CSRs by parse state, validation state, signature algorithm and key size")
+                .tag("parse_state", tags.parseState().name())
+                .tag("validation_state", tags.validationState() == null ? "none" : tags.validationState().name())
+                .tag("signature_algorithm", tags.signatureAlgorithm() == null ? "none" : tags.signatureAlgorithm())
+                .tag("key_size", tags.keySize() == null ? "none" : tags.keySize())
+                .register(registry);
+    }
+
+    /**
+     * Publish the hit, miss and eviction counts of a cache.
+     */
+    void monitorCache(Cache<?, ?> cache, String name) {
+        CaffeineCacheMetrics.monitor(registry, cache, name);
+    }
+}
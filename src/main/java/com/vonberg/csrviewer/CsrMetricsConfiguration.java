@@ -0,0 +1,58 @@
+package com.vonberg.csrviewer;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class CsrMetricsConfiguration implements WebMvcConfigurer {
+
+    private final CsrMetrics metrics;
+
+    public CsrMetricsConfiguration(CsrMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new RenderTimingInterceptor(metrics)).addPathPatterns(CsrViews.CSR_POST_PATH);
+    }
+
+    /**
+     * Times the rendering of the response fragment, which happens between postHandle and afterCompletion, if the
+     * handler marked the request as sampled with the {@link #SAMPLED_ATTRIBUTE}.
+     */
+    static class RenderTimingInterceptor implements HandlerInterceptor {
+        static final String SAMPLED_ATTRIBUTE = RenderTimingInterceptor.class.getName() + ".sampled";
+        private static final String RENDER_START_ATTRIBUTE = RenderTimingInterceptor.class.getName() + ".start";
+
+        private final CsrMetrics metrics;
+
+        RenderTimingInterceptor(CsrMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                               ModelAndView modelAndView) {
+            long start = metrics.startTiming(Boolean.TRUE.equals(request.getAttribute(SAMPLED_ATTRIBUTE)));
+            if (start >= 0) {
+                request.setAttribute(RENDER_START_ATTRIBUTE, start);
+            }
+        }
+
+        @Override
+        public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                    Exception ex) {
+            if (request.getAttribute(RENDER_START_ATTRIBUTE) instanceof Long start) {
+                metrics.record(CsrMetrics.Stage.RENDER, start);
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks inspected requests against an issuance policy: the allowed key algorithms, sizes and curves, the RDNs the
+ * subject must have, the allowed subject alternative names, their maximum number and whether wildcards are allowed,
+ * the extensions that must not be requested and a valid signature. The rules are read from the JSON file set with
+ * {@code csrviewer.policy.file}, for example
+ * <pre>
+ * {
+ *   "keys": {"RSA": {"minSize": 2048, "maxSize": 4096}, "EC": {"curves": ["P-256", "P-384"]}, "Ed25519": {}},
+ *   "requiredRdns": ["CN", "O", "C"],
+ *   "forbiddenExtensions": ["basicConstraints", "1.3.6.1.5.5.7.1.1"],
+ *   "maxSubjectAltNames": 100,
+ *   "allowWildcards": false,
+ *   "allowedDomains": ["example.com", "*.example.com", "**.internal.example.com"],
+ *   "allowedNamePatterns": ["[a-z]+@example\\.com", "10\\.1\\.\\d+\\.\\d+"],
+ *   "requireValidSignature": true
+ * }
+ * </pre>
+ * Every rule is optional, and a missing rule allows everything. Key algorithms are named as in the report; RDN types
+ * by their short name or object identifier; extensions by their name in the report or object identifier; curves by
+ * any name BouncyCastle knows, such as P-256 or secp256r1. Subject alternative names are only restricted if domains
+ * or name patterns are given: a DNS name must then match a domain, see {@link DomainTrie}, or a name pattern, and any
+ * other name a name pattern, in its textual form as in the report.
+ * <p>
+ * The rules are compiled into a {@link CompiledPolicy} when they are loaded. The cheap rules are checked before the
+ * signature is verified, and the signature is only verified for the policy if all of them are met, so a request that
+ * breaks the policy costs no verification unless the caller asks for the signature. The file is checked for changes
+ * every {@code csrviewer.policy.reload-interval}; changed rules apply to every request inspected afterwards, and to
+ * cached inspections when they are served again. Rules that cannot be loaded are logged and the previous rules stay
+ * in force, but the application does not start if the rules cannot be loaded at startup.
+ */
+@Component
+@ConditionalOnProperty("csrviewer.policy.file")
+class CsrPolicy implements DisposableBean {
+
+    static final Logger logger = LoggerFactory.getLogger(CsrPolicy.class);
+
+    static final String VIOLATION_COUNTER = "csrviewer.policy.violations";
+    static final String RELOAD_COUNTER = "csrviewer.policy.reloads";
+
+    /**
+     * The rules as read from the policy file.
+     */
+    record Rules(Map<String, KeyRule> keys,
+                 List<String> requiredRdns,
+                 List<String> forbiddenExtensions,
+                 Integer maxSubjectAltNames,
+                 Boolean allowWildcards,
+                 List<String> allowedDomains,
+                 List<String> allowedNamePatterns,
+                 Boolean requireValidSignature) {
+    }
+
+    /**
+     * The constraints on keys of one algorithm; curves only apply to EC keys.
+     */
+    record KeyRule(Integer minSize, Integer maxSize, List<String> curves) {
+    }
+
+    /**
+     * The rules a request can break.
+     */
+    public enum Rule {
+        FORBIDDEN_EXTENSION, REQUIRED_RDN, SAN_COUNT, WILDCARD_SAN, SAN_NOT_ALLOWED, KEY_ALGORITHM, CURVE, KEY_SIZE,
+        SIGNATURE
+    }
+
+    /**
+     * @param rule the broken rule
+     * @param detail what breaks it, such as the name that is not allowed or the missing RDN type
+     */
+    public record Violation(Rule rule, String detail) {
+    }
+
+    /**
+     * The result of checking a request against the policy.
+     *
+     * @param ruleSet identifies the version of the rules, the first 16 hex digits of the SHA-256 hash of the file
+     * @param violations the broken rules, empty if the request complies with the policy
+     */
+    public record Evaluation(String ruleSet, List<Violation> violations) {
+    }
+
+    private record RuleSet(String version, CompiledPolicy compiled, FileTime modified, long size) {
+    }
+
+    private final Path file;
+    private final long intervalMillis;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<Rule, Counter> violationCounters;
+    private final Counter reloaded;
+    private final Counter reloadFailed;
+    private final Thread reloader;
+    private volatile RuleSet ruleSet;
+
+    /**
+     * @param file the JSON file with the rules
+     * @param reloadInterval how often the file is checked for changes, zero to never reload it
+     * @throws UncheckedIOException if the file cannot be read
+     * @throws IllegalArgumentException if the rules are invalid
+     */
+    @Autowired
+    CsrPolicy(MeterRegistry registry,
+              @Value("${csrviewer.policy.file}") Path file,
+              @Value("${csrviewer.policy.reload-interval:5s}") Duration reloadInterval) {
+        this.file = file;
+        this.intervalMillis = reloadInterval.toMillis();
+        var counters = new EnumMap<Rule, Counter>(Rule.class);
+        for (var rule : Rule.values()) {
+            counters.put(rule, Counter.builder(VIOLATION_COUNTER)
+                    .description("Broken policy rules of newly evaluated requests, by rule")
+                    .tag("rule", rule.name())
+                    .register(registry));
+        }
+        this.violationCounters = counters;
+        this.reloaded = Counter.builder(RELOAD_COUNTER)
+                .description("Changes of the policy file, by whether the new rules were loaded")
+                .tag("result", "success")
+                .register(registry);
+        this.reloadFailed = Counter.builder(RELOAD_COUNTER)
+                .description("Changes of the policy file, by whether the new rules were loaded")
+                .tag("result", "failure")
+                .register(registry);
+        try {
+            this.ruleSet = load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the policy file " + file, e);
+        }
+        logger.info("Loaded the policy rules {} from {}.", ruleSet.version(), file);
+        if (intervalMillis > 0) {
+            this.reloader = new Thread(this::watch, "csr-policy-reloader");
+            reloader.setDaemon(true);
+            reloader.start();
+        } else {
+            this.reloader = null;
+        }
+    }
+
+    private RuleSet load() throws IOException {
+        var modified = Files.getLastModifiedTime(file);
+        var bytes = Files.readAllBytes(file);
+        var version = CsrInspectionService.sha256Hex(bytes).substring(0, 16);
+        var current = ruleSet;
+        if (current != null && current.version().equals(version)) {
+            return new RuleSet(version, current.compiled(), modified, bytes.length);
+        }
+        Rules rules;
+        try {
+            rules = objectMapper.readValue(bytes, Rules.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid policy file: " + e.getOriginalMessage(), e);
+        }
+        return new RuleSet(version, CompiledPolicy.compile(rules), modified, bytes.length);
+    }
+
+    /**
+     * Load the rules again if the file changed since they were last loaded.
+     *
+     * @return whether new rules were loaded
+     */
+    synchronized boolean reload() {
+        var current = ruleSet;
+        try {
+            if (Files.getLastModifiedTime(file).equals(current.modified()) && Files.size(file) == current.size()) {
+                return false;
+            }
+            var loaded = load();
+            ruleSet = loaded;
+            if (loaded.version().equals(current.version())) {
+                return false;
+            }
+            reloaded.increment();
+            logger.info("Loaded the policy rules {} from {}.", loaded.version(), file);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            reloadFailed.increment();
+            logger.warn("Failed to reload the policy rules from {}, keeping the rules {}: {}", file,
+                    current.version(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            reload();
+        }
+    }
+
+    /**
+     * @return the version of the rules in force
+     */
+    String ruleSet() {
+        return ruleSet.version();
+    }
+
+    /**
+     * @return whether the request has been evaluated against the rules in force
+     */
+    boolean evaluated(CsrInspection inspection) {
+        var evaluation = inspection.policyEvaluation();
+        return evaluation != null && evaluation.ruleSet().equals(ruleSet.version());
+    }
+
+    /**
+     * Evaluate an inspected request against the rules in force, unless it was evaluated against them before, and
+     * attach the evaluation to the inspection, see {@link CsrInspection#policyEvaluation()}. The signature is
+     * verified if the rules require a valid signature and the request meets all the other rules.
+     *
+     * @param inspection the inspection of a successfully parsed request
+     * @return the inspection
+     */
+    CsrInspection evaluate(CsrInspection inspection) {
+        var current = ruleSet;
+        var previous = inspection.policyEvaluation();
+        if (previous != null && previous.ruleSet().equals(current.version())) {
+            return inspection;
+        }
+        var violations = current.compiled().check(inspection);
+        if (violations.isEmpty() && current.compiled().requireValidSignature()
+                && inspection.validationState() != PKCS10Parser.ValidationResultState.VALID) {
+            violations.add(new Violation(Rule.SIGNATURE, inspection.validationState().name()));
+        }
+        for (var violation : violations) {
+            violationCounters.get(violation.rule()).increment();
+        }
+        inspection.policyEvaluation(new Evaluation(current.version(), List.copyOf(violations)));
+        return inspection;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (reloader != null) {
+            reloader.interrupt();
+            reloader.join(1000);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.vonberg.csrviewer;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.bouncycastle.asn1.x509.GeneralName;
+
+/**
+ * The structured description of a certificate signing request returned by the API, as JSON or CBOR. Fields that
+ * do not apply, such as everything but the parse state of a request that could not be parsed, and fields of
+ * sections that were not requested are left out.
+ *
+ * @param sha256 the hex encoded SHA-256 hash of the DER encoding of the request, null if it could not be decoded
+ * @param parseState the result of parsing the request
+ * @param validationState the result of validating the signature
+ * @param keyFindings what the {@link KeyAnalyzer} found wrong with the public key, empty if nothing; included with the
+ *                    key info, left out if the analyzer is disabled
+ * @param policy the result of checking the request against the {@link CsrPolicy}, left out if no policy is configured
+ * @param signatureAlgorithm the name of the signature algorithm
+ * @param keyAlgorithm the name of the algorithm of the public key
+ * @param keySize the size of the public key in bits, null if it cannot be determined
+ * @param spkiSha256 the hex encoded SHA-256 hash of the DER encoding of the SubjectPublicKeyInfo, to look up other
+ *                   requests for the same key in the audit log
+ * @param subject the subject name of the request
+ * @param subjectRDNs the attribute types and values of each RDN of the subject name
+ * @param subjectAltNames the subject alternative names of the request, empty if there are none
+ * @param extensions the attributes and requested extensions of the request, see {@link CsrExtensions}
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record CsrReport(String sha256,
+                        PKCS10Parser.ParseResultState parseState,
+                        PKCS10Parser.ValidationResultState validationState,
+                        Set<KeyAnalyzer.Finding> keyFindings,
+                        CsrPolicy.Evaluation policy,
+                        String signatureAlgorithm,
+                        String keyAlgorithm,
+                        Integer keySize,
+                        String spkiSha256,
+                        String subject,
+                        Iterable<LinkedHashMap<String, String>> subjectRDNs,
+                        List<AltName> subjectAltNames,
+                        List<CsrExtensions.Decoded> extensions) {
+
+    /**
+     * A subject alternative name.
+     *
+     * @param type the type of the name as in RFC 5280, for example dNSName or iPAddress
+     * @param value the name; IP addresses are written in their usual textual form
+     */
+    public record AltName(String type, String value) {
+        static AltName of(GeneralName name) {
+            return new AltName(CsrExtensions.generalNameType(name), CsrExtensions.generalNameValue(name));
+        }
+    }
+
+    /**
+     * @param sections the sections of the inspection to include, other sections are neither computed nor included
+     */
+    static CsrReport of(String sha256, CsrInspection inspection, Set<CsrInspection.Section> sections) {
+        if (!inspection.parsed()) {
+            return new CsrReport(sha256, inspection.parseResult().state, null, null, null, null, null, null, null, null, null,
+                    null, null);
+        }
+        boolean signature = sections.contains(CsrInspection.Section.SIGNATURE);
+        boolean keyInfo = sections.contains(CsrInspection.Section.KEY_INFO);
+        boolean subject = sections.contains(CsrInspection.Section.SUBJECT);
+        return new CsrReport(sha256,
+                inspection.parseResult().state,
+                signature ? inspection.validationState() : null,
+                keyInfo ? inspection.keyFindings() : null,
+                inspection.policyEvaluation(),
+                signature ? inspection.signatureAlgorithm() : null,
+                keyInfo ? inspection.keyAlgorithm() : null,
+                keyInfo && inspection.keySize() >= 0 ? inspection.keySize() : null,
+                keyInfo ? inspection.spkiSha256() : null,
+                subject ? inspection.subject().toString() : null,
+                subject ? inspection.rDNs() : null,
+                sections.contains(CsrInspection.Section.SUBJECT_ALT_NAMES)
+                        ? Arrays.stream(inspection.subjectAltNames()).map(AltName::of).toList()
+                        : null,
+                sections.contains(CsrInspection.Section.EXTENSIONS) ? inspection.extensions() : null);
+    }
+}
@@ -0,0 +1,619 @@
+package com.vonberg.csrviewer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipFile;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The command line mode of the application, which inspects every certificate signing request in directory trees and
+ * in ZIP and TAR archives without starting the web application:
+ * <pre>
+ * java -jar csrviewer-fat.jar scan [--format csv|ndjson] [--output file] [--threads n] [--max-csr-size bytes] path...
+ * </pre>
+ * Files and archive entries are read through NIO channels and inspected on a fork-join pool with one thread per core
+ * by default; PEM bundles are split and their requests inspected as subtasks. Results are written as CSV or as one
+ * JSON document per line in order of completion, and a summary of the throughput and of the failures is printed to
+ * standard error once all requests are inspected.
+ * <p>
+ * Inside directories only files ending in .csr, .pem, .der, .p10 or .req are inspected, and archives ending in .zip,
+ * .tar, .tar.gz or .tgz are opened. Paths given on the command line are always inspected.
+ */
+class CsrScanner {
+
+    static final String COMMAND = "scan";
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILURES = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = "usage: scan [--format csv|ndjson] [--output file] [--threads n] "
+            + "[--max-csr-size bytes] path...";
+    private static final List<String> CSR_EXTENSIONS = List.of(".csr", ".pem", ".der", ".p10", ".req");
+    private static final int TAR_BLOCK_SIZE = 512;
+    /**
+     * The largest GNU long name or pax extended header that is read, which is far more than any path needs.
+     */
+    private static final int MAX_TAR_HEADER_SIZE = 64 * 1024;
+    private static final byte[] PAX_PATH = "path".getBytes(StandardCharsets.US_ASCII);
+
+    static final Logger logger = LoggerFactory.getLogger(CsrScanner.class);
+
+    enum Format {
+        CSV, NDJSON
+    }
+
+    record Options(Format format, Path output, int threads, int maxCsrSize, List<Path> paths) {
+        static Options parse(String[] args) {
+            Format format = Format.NDJSON;
+            Path output = null;
+            int threads = Runtime.getRuntime().availableProcessors();
+            int maxCsrSize = 64 * 1024;
+            List<Path> paths = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format" -> format = Format.valueOf(value(args, ++i).toUpperCase(Locale.ROOT));
+                    case "--output" -> output = Path.of(value(args, ++i));
+                    case "--threads" -> threads = Integer.parseInt(value(args, ++i));
+                    case "--max-csr-size" -> maxCsrSize = Integer.parseInt(value(args, ++i));
+                    default -> {
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("unknown option " + args[i]);
+                        }
+                        paths.add(Path.of(args[i]));
+                    }
+                }
+            }
+            if (paths.isEmpty()) {
+                throw new IllegalArgumentException("no paths to scan");
+            }
+            if (threads < 1 || maxCsrSize < 1) {
+                throw new IllegalArgumentException("--threads and --max-csr-size must be positive");
+            }
+            return new Options(format, output, threads, maxCsrSize, paths);
+        }
+
+        private static String value(String[] args, int index) {
+            if (index >= args.length) {
+                throw new IllegalArgumentException(args[index - 1] + " requires a value");
+            }
+            return args[index];
+        }
+    }
+
+    /**
+     * Counts of the inspected files and requests, by parse state and by validation state.
+     */
+    record Summary(long sources, long requests, Map<PKCS10Parser.ParseResultState, Long> parseStates,
+                   Map<PKCS10Parser.ValidationResultState, Long> validationStates, double seconds) {
+
+        long failures() {
+            return requests - validationStates.getOrDefault(PKCS10Parser.ValidationResultState.VALID, 0L);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "scanned %d requests from %d files in %.2f s, %.1f requests/s%n"
+                            + "parse states: %s%nvalidation states: %s%n%d requests failed to parse or validate",
+                    requests, sources, seconds, seconds > 0 ? requests / seconds : 0, parseStates, validationStates,
+                    failures());
+        }
+    }
+
+    /**
+     * Run the command line mode.
+     *
+     * @param args the arguments following the scan command
+     * @param out the stream to write the results to unless --output is given
+     * @param err the stream to write usage errors and the summary to
+     * @return the exit code: 0 if every request was parsed and has a valid signature, 1 if not, and 2 for usage
+     * errors
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        OutputStream output = out;
+        try {
+            if (options.output() != null) {
+                output = Files.newOutputStream(options.output());
+            }
+            var scanner = new CsrScanner(options, new BufferedOutputStream(output, 64 * 1024));
+            var summary = scanner.scan(options.paths());
+            err.println(summary);
+            return summary.failures() == 0 ? EXIT_OK : EXIT_FAILURES;
+        } catch (IOException | UncheckedIOException e) {
+            err.println("Scan failed: " + e.getMessage());
+            return EXIT_FAILURES;
+        } finally {
+            if (output != out) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    err.println("Failed to close " + options.output() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private final Options options;
+    private final ResultWriter writer;
+    private final ForkJoinPool pool;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final AtomicLong sources = new AtomicLong();
+    private final Map<PKCS10Parser.ParseResultState, LongAdder> parseStates = new EnumMap<>(PKCS10Parser.ParseResultState.class);
+    private final Map<PKCS10Parser.ValidationResultState, LongAdder> validationStates = new EnumMap<>(PKCS10Parser.ValidationResultState.class);
+
+    CsrScanner(Options options, OutputStream output) {
+        this.options = options;
+        this.writer = options.format() == Format.CSV ? new CsvWriter(output) : new NdjsonWriter(output);
+        this.pool = new ForkJoinPool(options.threads());
+        // bounds the number of archive entries held in memory while they wait to be inspected
+        this.maxInFlight = options.threads() * 64;
+        this.inFlight = new Semaphore(maxInFlight);
+        for (var state : PKCS10Parser.ParseResultState.values()) {
+            parseStates.put(state, new LongAdder());
+        }
+        for (var state : PKCS10Parser.ValidationResultState.values()) {
+            validationStates.put(state, new LongAdder());
+        }
+    }
+
+    /**
+     * Inspect every request found in the given paths and wait for all inspections to complete.
+     *
+     * @return the summary of the scan
+     * @throws IOException if walking a directory or reading an archive fails; failures to read single files are
+     *                     reported as results instead
+     */
+    Summary scan(List<Path> paths) throws IOException {
+        long start = System.nanoTime();
+        try {
+            for (Path path : paths) {
+                if (Files.isDirectory(path)) {
+                    walk(path);
+                } else {
+                    scanFile(path);
+                }
+            }
+        } finally {
+            inFlight.acquireUninterruptibly(maxInFlight);
+            pool.shutdown();
+            writer.flush();
+        }
+        return new Summary(sources.get(), parseStates.values().stream().mapToLong(LongAdder::sum).sum(),
+                counts(parseStates), counts(validationStates), (System.nanoTime() - start) / 1e9);
+    }
+
+    private void walk(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && (isArchive(file.toString()) || isCsr(file.toString()))) {
+                    scanFile(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                sources.incrementAndGet();
+                record(BulkInspectionResult.failure(file.toString(), 0, e));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Inspect a single file or all requests in an archive. Archives that cannot be read are reported as a failed
+     * result, after the results of the entries read before the failure.
+     */
+    private void scanFile(Path file) {
+        var name = file.toString().toLowerCase(Locale.ROOT);
+        if (isArchive(name)) {
+            try {
+                scanArchive(file, name);
+            } catch (IOException e) {
+                logger.debug("Failed to read archive {}.", file, e);
+                sources.incrementAndGet();
+                record(BulkInspectionResult.failure(file.toString(), 0, e));
+            }
+        } else {
+            // regular files are read on the pool, so that reading them is spread across all threads
+            submit(file.toString(), () -> readFile(file));
+        }
+    }
+
+    private void scanArchive(Path file, String name) throws IOException {
+        if (name.endsWith(".zip")) {
+            scanZip(file);
+        } else if (name.endsWith(".tar")) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                scanTar(file.toString(), channel);
+            }
+        } else {
+            try (var channel = Channels.newChannel(new GZIPInputStream(Files.newInputStream(file), 64 * 1024))) {
+                scanTar(file.toString(), channel);
+            }
+        }
+    }
+
+    private void scanZip(Path file) throws IOException {
+        try (var zip = new ZipFile(file.toFile())) {
+            var entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                var entry = entries.nextElement();
+                var source = file + "!" + entry.getName();
+                if (entry.isDirectory() || !isCsr(entry.getName())) {
+                    continue;
+                }
+                if (entry.getSize() > options.maxCsrSize()) {
+                    submit(source, () -> null);
+                    continue;
+                }
+                byte[] bytes;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    bytes = in.readNBytes(options.maxCsrSize() + 1);
+                }
+                submit(source, () -> bytes);
+            }
+        }
+    }
+
+    /**
+     * Read the regular files of a TAR archive in the ustar, GNU or pax format. Long names are taken from GNU long
+     * name entries and from the path of pax extended headers.
+     */
+    private void scanTar(String archive, ReadableByteChannel channel) throws IOException {
+        var header = ByteBuffer.allocate(TAR_BLOCK_SIZE);
+        String longName = null;
+        while (readFully(channel, header.clear()) && header.get(0) != 0) {
+            var block = header.array();
+            long size = parseOctal(block, 124, 12);
+            byte type = block[156];
+            long padding = (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+            if (type == 'L' || type == 'x') {
+                if (size > MAX_TAR_HEADER_SIZE) {
+                    throw new IOException("Extended header of " + size + " bytes in TAR archive " + archive);
+                }
+                var data = ByteBuffer.allocate((int) size);
+                if (!readFully(channel, data)) {
+                    throw new IOException("Truncated TAR archive " + archive);
+                }
+                longName = type == 'L'
+                        ? cString(data.array(), 0, (int) size)
+                        : paxPath(archive, data.array(), longName);
+                skip(channel, padding);
+                continue;
+            }
+            String name = longName != null ? longName : entryName(block);
+            longName = null;
+            if ((type != '0' && type != 0) || !isCsr(name)) {
+                skip(channel, size + padding);
+                continue;
+            }
+            var source = archive + "!" + name;
+            if (size > options.maxCsrSize()) {
+                skip(channel, size + padding);
+                submit(source, () -> null);
+                continue;
+            }
+            var data = ByteBuffer.allocate((int) size);
+            if (!readFully(channel, data)) {
+                throw new IOException("Truncated TAR archive " + archive);
+            }
+            skip(channel, padding);
+            submit(source, data::array);
+        }
+    }
+
+    private static String entryName(byte[] block) {
+        var name = cString(block, 0, 100);
+        boolean ustar = cString(block, 257, 5).equals("ustar");
+        var prefix = ustar ? cString(block, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    /**
+     * Pax extended header records are "&lt;length&gt; &lt;key&gt;=&lt;value&gt;\n", where the length counts the bytes of the
+     * whole record, so the records are split on the bytes and only the values are decoded as UTF-8.
+     *
+     * @return the path of the last path record, or previous if there is none
+     * @throws IOException if a record is malformed
+     */
+    private static String paxPath(String archive, byte[] records, String previous) throws IOException {
+        var path = previous;
+        int position = 0;
+        while (position < records.length) {
+            int length = 0;
+            int i = position;
+            while (i < records.length && records[i] >= '0' && records[i] <= '9' && length <= records.length) {
+                length = length * 10 + (records[i++] - '0');
+            }
+            int end = position + length - 1;
+            if (i == position || i >= records.length || records[i] != ' ' || length > records.length - position
+                    || end <= i || records[end] != '\n') {
+                throw new IOException("Malformed pax extended header in TAR archive " + archive);
+            }
+            int equals = i + 1;
+            while (equals < end && records[equals] != '=') {
+                equals++;
+            }
+            if (equals == end) {
+                throw new IOException("Malformed pax extended header in TAR archive " + archive);
+            }
+            if (Arrays.equals(records, i + 1, equals, PAX_PATH, 0, PAX_PATH.length)) {
+                path = new String(records, equals + 1, end - equals - 1, StandardCharsets.UTF_8);
+            }
+            position += length;
+        }
+        return path;
+    }
+
+    private static long parseOctal(byte[] block, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = block[i];
+            if (b >= '0' && b <= '7') {
+                value = value * 8 + (b - '0');
+            } else if (b != ' ' || value != 0) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private static String cString(byte[] bytes, int offset, int maxLength) {
+        int end = offset;
+        while (end < offset + maxLength && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skip(ReadableByteChannel channel, long count) throws IOException {
+        if (channel instanceof SeekableByteChannel seekable) {
+            seekable.position(seekable.position() + count);
+            return;
+        }
+        var scratch = ByteBuffer.allocate(TAR_BLOCK_SIZE * 16);
+        while (count > 0) {
+            scratch.clear().limit((int) Math.min(scratch.capacity(), count));
+            int read = channel.read(scratch);
+            if (read < 0) {
+                throw new IOException("Truncated TAR archive");
+            }
+            count -= read;
+        }
+    }
+
+    /**
+     * @return the contents of the file, or null if it is larger than the maximum CSR size
+     */
+    private byte[] readFile(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > options.maxCsrSize()) {
+                return null;
+            }
+            var buffer = ByteBuffer.allocate((int) size);
+            readFully(channel, buffer);
+            return buffer.array();
+        }
+    }
+
+    private static boolean isCsr(String name) {
+        var lowerCase = name.toLowerCase(Locale.ROOT);
+        return CSR_EXTENSIONS.stream().anyMatch(lowerCase::endsWith);
+    }
+
+    private static boolean isArchive(String name) {
+        var lowerCase = name.toLowerCase(Locale.ROOT);
+        return lowerCase.endsWith(".zip") || lowerCase.endsWith(".tar") || lowerCase.endsWith(".tar.gz")
+                || lowerCase.endsWith(".tgz");
+    }
+
+    @FunctionalInterface
+    private interface Content {
+        /**
+         * @return the contents of a file or archive entry, or null if it is larger than the maximum CSR size
+         */
+        byte[] read() throws IOException;
+    }
+
+    private void submit(String source, Content content) {
+        sources.incrementAndGet();
+        inFlight.acquireUninterruptibly();
+        pool.execute(() -> {
+            try {
+                var bytes = content.read();
+                if (bytes == null || bytes.length > options.maxCsrSize()) {
+                    record(BulkInspectionResult.rejected(source, 0, PKCS10Parser.ParseResultState.TOO_LARGE));
+                } else {
+                    new InspectBundle(source, bytes).invoke().forEach(this::record);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Failed to inspect {}.", source, e);
+                record(BulkInspectionResult.failure(source, 0, e));
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Inspects the requests of a file, forking one subtask per request if the file is a PEM bundle.
+     */
+    private static class InspectBundle extends RecursiveTask<List<BulkInspectionResult>> {
+        private final String source;
+        private final byte[] bytes;
+
+        InspectBundle(String source, byte[] bytes) {
+            this.source = source;
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected List<BulkInspectionResult> compute() {
+            var blocks = PKCS10Parser.splitPemBundle(bytes);
+            if (blocks.size() == 1) {
+                return List.of(inspect(0, blocks.get(0)));
+            }
+            List<ForkJoinTask<BulkInspectionResult>> tasks = new ArrayList<>(blocks.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                final int index = i;
+                final byte[] block = blocks.get(i);
+                tasks.add(ForkJoinTask.adapt(() -> inspect(index, block)));
+            }
+            return ForkJoinTask.invokeAll(tasks).stream().map(ForkJoinTask::join).toList();
+        }
+
+        private BulkInspectionResult inspect(int index, byte[] block) {
+            try {
+                return BulkInspectionResult.of(source, index, CsrInspection.inspect(block));
+            } catch (RuntimeException e) {
+                return BulkInspectionResult.failure(source, index, e);
+            }
+        }
+    }
+
+    private void record(BulkInspectionResult result) {
+        parseStates.get(result.parseState()).increment();
+        if (result.validationState() != null) {
+            validationStates.get(result.validationState()).increment();
+        }
+        writer.write(result);
+    }
+
+    private static <E extends Enum<E>> Map<E, Long> counts(Map<E, LongAdder> adders) {
+        Map<E, Long> counts = new EnumMap<>(adders.keySet().iterator().next().getDeclaringClass());
+        adders.forEach((state, adder) -> {
+            if (adder.sum() > 0) {
+                counts.put(state, adder.sum());
+            }
+        });
+        return counts;
+    }
+
+    private abstract static class ResultWriter {
+        private final OutputStream output;
+
+        ResultWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        abstract byte[] format(BulkInspectionResult result) throws IOException;
+
+        synchronized void write(BulkInspectionResult result) {
+            try {
+                output.write(format(result));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            output.flush();
+        }
+    }
+
+    private static class NdjsonWriter extends ResultWriter {
+        private final ObjectMapper objectMapper = new ObjectMapper();
+
+        NdjsonWriter(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        byte[] format(BulkInspectionResult result) throws IOException {
+            return (objectMapper.writeValueAsString(result) + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class CsvWriter extends ResultWriter {
+        CsvWriter(OutputStream output) {
+            super(output);
+            write("source,index,parseState,validationState,signatureAlgorithm,subject,subjectAltNames,error\n");
+        }
+
+        private void write(String line) {
+            try {
+                super.output.write(line.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        byte[] format(BulkInspectionResult result) {
+            var line = String.join(",",
+                    quote(result.source()),
+                    Integer.toString(result.index()),
+                    quote(result.parseState()),
+                    quote(result.validationState()),
+                    quote(result.signatureAlgorithm()),
+                    quote(result.subject()),
+                    quote(String.join(";", result.subjectAltNames())),
+                    quote(result.error())) + "\n";
+            return line.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static String quote(Object value) {
+            if (value == null) {
+                return "";
+            }
+            var text = value.toString();
+            if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0) {
+                return text;
+            }
+            return '"' + text.replace("\"", "\"\"") + '"';
+        }
+    }
+}
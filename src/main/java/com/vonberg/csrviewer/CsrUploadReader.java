@@ -0,0 +1,114 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import static com.vonberg.csrviewer.PKCS10Parser.ParseResultState.TOO_LARGE;
+
+/**
+ * Reads uploaded certificate signing requests from a stream into pooled buffers, enforcing an upper bound on the
+ * size of the upload. PEM armour and base64 are decoded by {@link CsrEncoding} directly into a second pooled buffer,
+ * and anything that is too large or does not look like a DER encoded SEQUENCE is rejected before any BouncyCastle
+ * object is created. The only allocation for an accepted upload is the array holding the DER encoding of the request.
+ */
+@Component
+public class CsrUploadReader {
+
+    private final int maxCsrSize;
+    private final BlockingQueue<Buffers> pool;
+
+    public CsrUploadReader(@Value("${csrviewer.upload.max-csr-size:64KB}") DataSize maxCsrSize,
+                           @Value("${csrviewer.upload.buffer-pool-size:64}") int bufferPoolSize) {
+        this.maxCsrSize = (int) maxCsrSize.toBytes();
+        this.pool = new ArrayBlockingQueue<>(bufferPoolSize);
+    }
+
+    /**
+     * @return the maximum size of an upload in bytes
+     */
+    int maxCsrSize() {
+        return maxCsrSize;
+    }
+
+    /**
+     * Read a PEM or binary encoded certificate signing request from a stream.
+     *
+     * @param in the stream to read the upload from, which is not closed by this method
+     * @param declaredSize the size of the upload as declared by the client, or a negative value if it is unknown
+     * @return SUCCESS and the DER encoding of the request, TOO_LARGE if the upload exceeds the maximum CSR size, and
+     * otherwise the state of {@link CsrEncoding#decode(byte[], int, byte[])}
+     * @throws IOException if reading from the stream fails
+     */
+    CsrEncoding.Decoded read(InputStream in, long declaredSize) throws IOException {
+        if (declaredSize > maxCsrSize) {
+            return CsrEncoding.Decoded.rejected(TOO_LARGE);
+        }
+        var buffers = acquire();
+        try {
+            int length = readAtMost(in, buffers.raw);
+            if (length > maxCsrSize) {
+                return CsrEncoding.Decoded.rejected(TOO_LARGE);
+            }
+            return decode(buffers, length);
+        } finally {
+            release(buffers);
+        }
+    }
+
+    /**
+     * Read a PEM or binary encoded certificate signing request that is already in memory.
+     *
+     * @param bytes the upload
+     * @return see {@link #read(InputStream, long)}
+     */
+    CsrEncoding.Decoded read(byte[] bytes) {
+        if (bytes.length > maxCsrSize) {
+            return CsrEncoding.Decoded.rejected(TOO_LARGE);
+        }
+        var buffers = acquire();
+        try {
+            System.arraycopy(bytes, 0, buffers.raw, 0, bytes.length);
+            return decode(buffers, bytes.length);
+        } finally {
+            release(buffers);
+        }
+    }
+
+    private CsrEncoding.Decoded decode(Buffers buffers, int length) {
+        return CsrEncoding.decode(buffers.raw, length, buffers.decoded);
+    }
+
+    /**
+     * Fill the buffer from the stream, reading at most one byte more than the maximum CSR size so that oversized
+     * uploads are detected without consuming them entirely.
+     */
+    private int readAtMost(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private Buffers acquire() {
+        var buffers = pool.poll();
+        return buffers != null ? buffers : new Buffers(new byte[maxCsrSize + 1], new byte[maxCsrSize * 3 / 4 + 3]);
+    }
+
+    private void release(Buffers buffers) {
+        pool.offer(buffers);
+    }
+
+    private record Buffers(byte[] raw, byte[] decoded) {
+    }
+}
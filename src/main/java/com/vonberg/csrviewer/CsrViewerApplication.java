@@ -1,11 +1,26 @@
 package com.vonberg.csrviewer;
 
+import java.util.Arrays;
+
+import ch.qos.logback.classic.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
 @SpringBootApplication
 public class CsrViewerApplication {
     public static void main(String[] args) {
-        SpringApplication.run(CsrViewerApplication.class, args);
+        if (args.length > 0 && args[0].equals(CsrScanner.COMMAND)) {
+            // the scan mode does not start the application context, so the Spring logging configuration does not
+            // apply and logback would log to standard out, where the results go; failures are part of the results
+            ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.OFF);
+            System.exit(CsrScanner.run(Arrays.copyOfRange(args, 1, args.length), System.out, System.err));
+        }
+        var context = SpringApplication.run(CsrViewerApplication.class, args);
+        if (context.getEnvironment().getProperty("csrviewer.startup.exit-when-ready", Boolean.class, false)) {
+            // the training run of ./gradlew cdsArchive, the archive is written when the JVM exits
+            System.exit(SpringApplication.exit(context));
+        }
     }
 }
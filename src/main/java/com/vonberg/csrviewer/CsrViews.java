@@ -0,0 +1,64 @@
+package com.vonberg.csrviewer;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.springframework.ui.Model;
+
+/**
+ * The paths and templates of the HTMX frontend, and how an inspection is added to the model of a template. Shared by
+ * the servlet and the reactive controller.
+ */
+final class CsrViews {
+    final static String FORM_PATH = "/form";
+    final static String CSR_POST_PATH = "/submit-csr";
+
+    final static String CSR_FORM_FRAGMENT = "csr-form/fragments/form";
+    final static String CSR_SUCCESS_RESPONSE_FRAGMENT = "csr-form/fragments/csr-info-response";
+    final static String CSR_FAILURE_RESPONSE_FRAGMENT = "csr-form/fragments/failure-response";
+
+    /**
+     * The sections of an inspection shown by the response fragment; the key info is only counted in the metrics.
+     */
+    final static Set<CsrInspection.Section> SECTIONS = EnumSet.of(CsrInspection.Section.SUBJECT,
+            CsrInspection.Section.SUBJECT_ALT_NAMES, CsrInspection.Section.SIGNATURE, CsrInspection.Section.KEY_INFO);
+
+    private CsrViews() {
+    }
+
+    /**
+     * Add information about the contents of an inspected request to the model used by the templater.
+     *
+     * @param inspection the inspection of the uploaded request
+     * @param model the model that passes data to the templater
+     * @return path to the thymeleaf template of the information contained in the CSR if it was parsed successfully,
+     * the path to a failure message fragment otherwise
+     */
+    static String render(CsrInspection inspection, Model model) {
+        model.addAttribute("fileReadSuccess", true)
+                .addAttribute("parseResult", inspection.parseResult())
+                .addAttribute("parseState", inspection.parseResult().state);
+        if (!inspection.parsed()) {
+            return CSR_FAILURE_RESPONSE_FRAGMENT;
+        }
+        model.addAttribute("signatureAlgorithm", inspection.signatureAlgorithm())
+                .addAttribute("validationState", inspection.validationState())
+                .addAttribute("keyFindings", inspection.keyFindings())
+                .addAttribute("policyEvaluation", inspection.policyEvaluation())
+                .addAttribute("subject", inspection.subject())
+                .addAttribute("rDNs", inspection.rDNs())
+                .addAttribute("attributeTypeNames", PKCS10Parser.FULL_ATTRIBUTE_TYPE_NAMES)
+                .addAttribute("subjectAltNames", inspection.subjectAltNames());
+        // because it's not part of the spec, info about other extensions isn't added
+        return CSR_SUCCESS_RESPONSE_FRAGMENT;
+    }
+
+    /**
+     * @param model the model that passes data to the templater
+     * @return the path to the failure message fragment for an upload that could not be read
+     */
+    static String renderReadFailure(Model model) {
+        model.addAttribute("fileReadSuccess", false);
+        return CSR_FAILURE_RESPONSE_FRAGMENT;
+    }
+}
@@ -0,0 +1,100 @@
+package com.vonberg.csrviewer;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A set of domain name patterns, stored as a trie of labels from the top-level domain down, so that a name is
+ * matched against any number of patterns by looking up each of its labels once. The patterns are
+ * <ul>
+ *     <li>{@code www.example.com}, which matches exactly that name,</li>
+ *     <li>{@code *.example.com}, which matches the names one label below example.com, such as www.example.com, and
+ *     the wildcard name *.example.com itself,</li>
+ *     <li>{@code **.example.com}, which matches every name below example.com, at any depth.</li>
+ * </ul>
+ * Names and patterns are compared without regard to case and a trailing dot. The trie is not modified once it has
+ * been built, so it can be read by any number of threads.
+ */
+final class DomainTrie {
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        /** A pattern ends at this node. */
+        private boolean exact;
+        /** A pattern matches one more label below this node. */
+        private boolean oneLabel;
+        /** A pattern matches any number of labels below this node. */
+        private boolean anyDepth;
+    }
+
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * @param pattern a pattern as described above
+     * @throws IllegalArgumentException if the pattern has an empty label or a wildcard other than its first label
+     */
+    void add(String pattern) {
+        var labels = normalize(pattern).split("\\.", -1);
+        var node = root;
+        int first = labels[0].equals("*") || labels[0].equals("**") ? 1 : 0;
+        if (first == labels.length) {
+            throw new IllegalArgumentException("Pattern without a domain: " + pattern);
+        }
+        for (int i = labels.length - 1; i >= first; i--) {
+            var label = labels[i];
+            if (label.isEmpty() || label.contains("*")) {
+                throw new IllegalArgumentException("Empty label or wildcard below the first label: " + pattern);
+            }
+            node = node.children.computeIfAbsent(label, key -> new Node());
+        }
+        switch (labels[0]) {
+            case "*" -> node.oneLabel = true;
+            case "**" -> node.anyDepth = true;
+            default -> node.exact = true;
+        }
+        size++;
+    }
+
+    /**
+     * @param name a DNS name, which may be a wildcard name such as *.example.com
+     * @return whether a pattern matches the name
+     */
+    boolean matches(String name) {
+        var normalized = normalize(name);
+        var node = root;
+        int end = normalized.length();
+        while (end >= 0) {
+            int start = normalized.lastIndexOf('.', end - 1);
+            if (node.anyDepth) {
+                return true;
+            }
+            if (start < 0 && node.oneLabel) {
+                return true;
+            }
+            var label = normalized.substring(start + 1, end);
+            node = node.children.get(label);
+            if (node == null) {
+                return false;
+            }
+            if (start < 0) {
+                return node.exact;
+            }
+            end = start;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of patterns added
+     */
+    int size() {
+        return size;
+    }
+
+    private static String normalize(String name) {
+        var lower = name.trim().toLowerCase(Locale.ROOT);
+        return lower.endsWith(".") ? lower.substring(0, lower.length() - 1) : lower;
+    }
+}
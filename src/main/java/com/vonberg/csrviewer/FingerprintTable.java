@@ -0,0 +1,167 @@
+package com.vonberg.csrviewer;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The first request seen with each public key, as an open addressing table of 64-bit key fingerprints and request
+ * fingerprints in two long arrays, without a box or an entry object per key. Both fingerprints are prefixes of
+ * SHA-256 hashes, so they are uniformly distributed and need no further hashing.
+ * <p>
+ * A Bloom filter in front of the table answers most lookups of keys that were never seen without probing the table
+ * or taking the lock. It is sized for the maximum number of keys, while the table grows with the number of keys
+ * actually seen. Once the table holds the maximum number of keys, further keys are no longer remembered.
+ * <p>
+ * Thread-safe: lookups share a read lock, inserts take the write lock.
+ */
+final class FingerprintTable {
+
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int maximumSize;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Bits are only ever set, under the write lock and before size is incremented. They are read without the lock
+     * after reading size, so every insert that completed before a lookup started is visible to it.
+     */
+    private final long[] bloom;
+    private final int bloomMask;
+    /**
+     * Key fingerprints, 0 for an empty slot; a fingerprint that is 0 is stored as 1.
+     */
+    private long[] keys;
+    private long[] requests;
+    private volatile int size;
+
+    /**
+     * @param maximumSize the maximum number of keys to remember
+     */
+    FingerprintTable(int maximumSize) {
+        this.maximumSize = maximumSize;
+        long bloomBits = Math.min(1L << 30, Math.max(64, (long) maximumSize * BLOOM_BITS_PER_KEY));
+        this.bloom = new long[(Integer.highestOneBit((int) bloomBits - 1) << 1) >>> 6];
+        this.bloomMask = bloom.length * 64 - 1;
+        this.keys = new long[INITIAL_CAPACITY];
+        this.requests = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Remember the request as the first request with the key, unless a request with the key was seen before or the
+     * table is full.
+     *
+     * @param key the fingerprint of the public key
+     * @param request the fingerprint of the request
+     * @return whether the key was added
+     */
+    boolean add(long key, long request) {
+        key = key == 0 ? 1 : key;
+        if (mightContain(key)) {
+            lock.readLock().lock();
+            try {
+                if (keys[slot(keys, key)] == key) {
+                    return false;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            int slot = slot(keys, key);
+            if (keys[slot] == key || size >= maximumSize) {
+                return false;
+            }
+            keys[slot] = key;
+            requests[slot] = request;
+            setBloomBits(key);
+            size++;
+            if (size * 2 > keys.length) {
+                grow();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param key the fingerprint of the public key
+     * @param absent the value to return if the key is not in the table
+     * @return the fingerprint of the first request seen with the key, or absent if there is none
+     */
+    long firstRequest(long key, long absent) {
+        key = key == 0 ? 1 : key;
+        if (!mightContain(key)) {
+            return absent;
+        }
+        lock.readLock().lock();
+        try {
+            int slot = slot(keys, key);
+            return keys[slot] == key ? requests[slot] : absent;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean full() {
+        return size() >= maximumSize;
+    }
+
+    /**
+     * @return the slot of the key, or the empty slot where it would be inserted
+     */
+    private static int slot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) key & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldRequests = requests;
+        keys = new long[oldKeys.length * 2];
+        requests = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                requests[slot] = oldRequests[i];
+            }
+        }
+    }
+
+    /**
+     * The probes are derived from the two halves of the fingerprint by double hashing.
+     */
+    private boolean mightContain(long key) {
+        if (size == 0) {
+            return false;
+        }
+        int h1 = (int) (key >>> 32);
+        int h2 = (int) key | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & bloomMask;
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setBloomBits(long key) {
+        int h1 = (int) (key >>> 32);
+        int h2 = (int) key | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & bloomMask;
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+}
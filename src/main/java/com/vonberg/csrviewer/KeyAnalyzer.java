@@ -0,0 +1,445 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.RSAPublicKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Flags the public keys of inspected requests that must not be certified: keys that were already seen in a different
+ * request, and RSA keys whose modulus is too small, has a small prime factor or shares a prime factor with the
+ * modulus of another key, which makes both keys trivial to factor.
+ * <p>
+ * Every key is looked up in a {@link FingerprintTable} when a request is inspected for the first time, and the
+ * modulus of every new RSA key is checked for small factors right away. Checking moduli for shared factors is too
+ * expensive to do per request, so new moduli are queued and checked in batches on a background thread with
+ * {@link BatchGcd}, within the batch and against the moduli of all previous batches, on a fork/join pool. A key found
+ * to share a factor is flagged in every later report of a request with that key, including the report of the request
+ * that brought it in, once the batch has been checked.
+ * <p>
+ * The findings are part of the {@link CsrReport report}, next to the result of validating the signature. Disable with
+ * {@code csrviewer.keys.enabled=false}.
+ */
+@Component
+@ConditionalOnProperty(name = "csrviewer.keys.enabled", havingValue = "true", matchIfMissing = true)
+class KeyAnalyzer implements DisposableBean {
+
+    static final Logger logger = LoggerFactory.getLogger(KeyAnalyzer.class);
+
+    static final String FINDING_COUNTER = "csrviewer.keys.findings";
+    static final String DROPPED_COUNTER = "csrviewer.keys.moduli.dropped";
+    static final String KEYS_GAUGE = "csrviewer.keys.known";
+    static final String MODULI_GAUGE = "csrviewer.keys.moduli";
+    static final String SCAN_TIMER = "csrviewer.keys.scan";
+
+    /**
+     * What is wrong with the public key of a request.
+     */
+    public enum Finding {
+        /** The key was seen before, in a different request. */
+        REUSED_KEY,
+        /** The RSA modulus is smaller than the configured minimum size. */
+        SMALL_MODULUS,
+        /** The RSA modulus is divisible by a prime below 1000, which includes even moduli. */
+        SMALL_FACTOR,
+        /** The RSA modulus shares a prime factor with the modulus of another key. */
+        SHARED_FACTOR
+    }
+
+    /**
+     * The primes below 1000, multiplied into groups whose product fits into a long, so that a modulus is checked for
+     * small factors with one short division and one GCD of two longs per group. Larger primes would hardly catch more:
+     * a corrupted modulus is a random number, and 92% of those have a prime factor below 1000, 94% one below 10000.
+     */
+    private static final BigInteger[] SMALL_PRIME_PRODUCTS = smallPrimeProducts(1000);
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private record Modulus(long key, BigInteger value) {
+    }
+
+    private static final Modulus STOP = new Modulus(0, null);
+
+    /**
+     * The moduli of a checked batch, or of several small batches merged, and their product.
+     */
+    private record Chunk(long[] keys, BigInteger[] moduli, BigInteger product) {
+    }
+
+    private final int minimumModulusSize;
+    private final int maximumModuli;
+    private final int batchSize;
+    private final long intervalNanos;
+    private final FingerprintTable knownKeys;
+    private final Set<Long> sharedFactorKeys = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<Modulus> queue;
+    private final ForkJoinPool pool;
+    private final Thread scanner;
+    /**
+     * Only accessed by the scanner thread.
+     */
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private volatile int moduliCount;
+    private final AtomicLong submitted = new AtomicLong();
+    private volatile long processed;
+    private final Map<Finding, Counter> findingCounters;
+    private final Counter dropped;
+    private final Timer scanTimer;
+
+    /**
+     * @param minimumModulusSize the minimum size of an RSA modulus in bits
+     * @param maximumKeys the number of keys to remember for finding reused keys
+     * @param maximumModuli the number of RSA moduli to check new moduli against; the oldest batches are forgotten
+     *                      beyond that
+     * @param batchSize the number of new moduli that are checked together
+     * @param interval the longest time a new modulus waits for the batch to fill up before it is checked
+     * @param queueCapacity the number of new moduli that may wait to be checked before further ones are dropped
+     * @param parallelism the number of threads to check batches on, 0 for one per processor
+     */
+    @Autowired
+    KeyAnalyzer(MeterRegistry registry,
+                @Value("${csrviewer.keys.min-rsa-size:2048}") int minimumModulusSize,
+                @Value("${csrviewer.keys.max-keys:1000000}") int maximumKeys,
+                @Value("${csrviewer.keys.max-moduli:100000}") int maximumModuli,
+                @Value("${csrviewer.keys.batch-size:1024}") int batchSize,
+                @Value("${csrviewer.keys.interval:1m}") Duration interval,
+                @Value("${csrviewer.keys.queue-capacity:65536}") int queueCapacity,
+                @Value("${csrviewer.keys.parallelism:0}") int parallelism) {
+        this.minimumModulusSize = minimumModulusSize;
+        this.maximumModuli = maximumModuli;
+        this.batchSize = batchSize;
+        this.intervalNanos = interval.toNanos();
+        this.knownKeys = new FingerprintTable(maximumKeys);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        var counters = new EnumMap<Finding, Counter>(Finding.class);
+        for (var finding : Finding.values()) {
+            counters.put(finding, Counter.builder(FINDING_COUNTER)
+                    .description("Requests with a reused or weak key and keys found to share a factor, by finding")
+                    .tag("finding", finding.name())
+                    .register(registry));
+        }
+        this.findingCounters = counters;
+        this.dropped = Counter.builder(DROPPED_COUNTER)
+                .description("RSA moduli that were not checked for shared factors because too many were waiting")
+                .register(registry);
+        this.scanTimer = Timer.builder(SCAN_TIMER)
+                .description("Time spent checking a batch of RSA moduli for shared factors")
+                .register(registry);
+        Gauge.builder(KEYS_GAUGE, knownKeys, FingerprintTable::size)
+                .description("Public keys remembered for finding reused keys")
+                .register(registry);
+        Gauge.builder(MODULI_GAUGE, this, analyzer -> analyzer.moduliCount)
+                .description("RSA moduli new moduli are checked against for shared factors")
+                .register(registry);
+        this.scanner = new Thread(this::scan, "csr-key-scanner");
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
+    /**
+     * The analysis of the key of one request. The findings about the key itself are fixed when the request is first
+     * analyzed; whether it shares a factor with another key may be found out later.
+     */
+    final class Analysis {
+        private final long key;
+        private final Set<Finding> findings;
+
+        private Analysis(long key, Set<Finding> findings) {
+            this.key = key;
+            this.findings = findings;
+        }
+
+        Set<Finding> findings() {
+            if (sharedFactorKeys.isEmpty() || !sharedFactorKeys.contains(key)) {
+                return findings;
+            }
+            var all = findings.isEmpty() ? EnumSet.noneOf(Finding.class) : EnumSet.copyOf(findings);
+            all.add(Finding.SHARED_FACTOR);
+            return Collections.unmodifiableSet(all);
+        }
+    }
+
+    /**
+     * Analyze the key of an inspected request, unless it was analyzed before, and attach the analysis to the
+     * inspection, see {@link CsrInspection#keyFindings()}.
+     *
+     * @param sha256 the hex encoded SHA-256 hash of the DER encoding of the request
+     * @param inspection the inspection of a successfully parsed request
+     */
+    void analyze(String sha256, CsrInspection inspection) {
+        if (inspection.keyAnalysis() == null) {
+            // racing threads analyze the same request alike, since the first request with a key never changes
+            inspection.keyAnalysis(analyzeKey(HexFormat.fromHexDigitsToLong(sha256, 0, 16), inspection));
+        }
+    }
+
+    private Analysis analyzeKey(long request, CsrInspection inspection) {
+        long key = HexFormat.fromHexDigitsToLong(inspection.spkiSha256(), 0, 16);
+        var findings = EnumSet.noneOf(Finding.class);
+        boolean added = knownKeys.add(key, request);
+        if (!added && knownKeys.firstRequest(key, request) != request) {
+            findings.add(Finding.REUSED_KEY);
+        }
+        var modulus = modulus(inspection);
+        if (modulus != null) {
+            if (modulus.bitLength() < minimumModulusSize) {
+                findings.add(Finding.SMALL_MODULUS);
+            }
+            if (hasSmallFactor(modulus)) {
+                findings.add(Finding.SMALL_FACTOR);
+            } else if (added) {
+                submit(new Modulus(key, modulus));
+            }
+        }
+        for (var finding : findings) {
+            findingCounters.get(finding).increment();
+        }
+        return new Analysis(key, findings.isEmpty() ? Set.of() : Collections.unmodifiableSet(findings));
+    }
+
+    /**
+     * The modulus is taken from the ASN.1 structure rather than from the decoded key, since decoding rejects the even
+     * moduli and moduli with small factors that are to be flagged.
+     */
+    private static BigInteger modulus(CsrInspection inspection) {
+        var keyInfo = inspection.parseResult().request.getSubjectPublicKeyInfo();
+        var algorithm = keyInfo.getAlgorithm().getAlgorithm();
+        if (!algorithm.equals(PKCSObjectIdentifiers.rsaEncryption)
+                && !algorithm.equals(PKCSObjectIdentifiers.id_RSASSA_PSS)) {
+            return null;
+        }
+        try {
+            return RSAPublicKey.getInstance(keyInfo.parsePublicKey()).getModulus();
+        } catch (IOException | IllegalArgumentException e) {
+            logger.debug("Error while decoding the RSA key from the request.");
+            return null;
+        }
+    }
+
+    static boolean hasSmallFactor(BigInteger modulus) {
+        for (var product : SMALL_PRIME_PRODUCTS) {
+            if (gcd(modulus.mod(product).longValue(), product.longValue()) != 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static BigInteger[] smallPrimeProducts(int limit) {
+        var composite = new boolean[limit];
+        var products = new ArrayList<Long>();
+        long product = 1;
+        for (int i = 2; i < limit; i++) {
+            if (composite[i]) {
+                continue;
+            }
+            for (int j = i * i; j < limit; j += i) {
+                composite[j] = true;
+            }
+            if (product > Long.MAX_VALUE / i) {
+                products.add(product);
+                product = 1;
+            }
+            product *= i;
+        }
+        products.add(product);
+        return products.stream().map(BigInteger::valueOf).toArray(BigInteger[]::new);
+    }
+
+    private void submit(Modulus modulus) {
+        if (queue.offer(modulus)) {
+            submitted.incrementAndGet();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Wait until every modulus submitted so far has been checked for shared factors.
+     *
+     * @return whether they were checked within the timeout
+     */
+    boolean flush(Duration timeout) throws InterruptedException {
+        long target = submitted.get();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (processed < target) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return true;
+    }
+
+    private void scan() {
+        var batch = new ArrayList<Modulus>(batchSize);
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                var first = queue.take();
+                if (first == STOP) {
+                    break;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + intervalNanos;
+                while (batch.size() < batchSize) {
+                    var next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == STOP) {
+                        stopped = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // only the scanner itself is interrupted, when the application is stopped without destroying the bean
+                break;
+            }
+            try {
+                scanTimer.record(() -> check(batch));
+            } catch (RuntimeException e) {
+                logger.error("Failed to check {} RSA moduli for shared factors.", batch.size(), e);
+            }
+            processed += batch.size();
+            batch.clear();
+        }
+        pool.shutdownNow();
+    }
+
+    /**
+     * Check a batch of moduli for factors shared within the batch and with the moduli of previous batches, then
+     * keep the batch for checking the following ones.
+     */
+    private void check(List<Modulus> batch) {
+        var keys = new long[batch.size()];
+        var moduli = new BigInteger[batch.size()];
+        for (int i = 0; i < moduli.length; i++) {
+            keys[i] = batch.get(i).key();
+            moduli[i] = batch.get(i).value();
+        }
+        var tree = pool.invoke(BatchGcd.productTree(moduli));
+        var within = pool.submit(BatchGcd.sharedFactors(tree, moduli));
+        var previous = new ArrayList<Chunk>(chunks);
+        var across = new ArrayList<ForkJoinTask<boolean[]>>(previous.size());
+        for (var chunk : previous) {
+            across.add(pool.submit(BatchGcd.factorsIn(tree, moduli, chunk.product())));
+        }
+        flag(keys, within.join());
+        for (int c = 0; c < previous.size(); c++) {
+            var shared = across.get(c).join();
+            flag(keys, shared);
+            for (int i = 0; i < shared.length; i++) {
+                if (shared[i]) {
+                    flagPartners(moduli[i], previous.get(c));
+                }
+            }
+        }
+        keep(new Chunk(keys, moduli, tree.product()));
+    }
+
+    /**
+     * Find the moduli of a previous batch that share a factor with a modulus, which is rare enough to compare them
+     * one by one.
+     */
+    private void flagPartners(BigInteger modulus, Chunk chunk) {
+        for (int i = 0; i < chunk.moduli().length; i++) {
+            if (!modulus.gcd(chunk.moduli()[i]).equals(BigInteger.ONE)) {
+                flag(chunk.keys()[i]);
+            }
+        }
+    }
+
+    private void flag(long[] keys, boolean[] shared) {
+        for (int i = 0; i < keys.length; i++) {
+            if (shared[i]) {
+                flag(keys[i]);
+            }
+        }
+    }
+
+    private void flag(long key) {
+        if (sharedFactorKeys.add(key)) {
+            logger.warn("The RSA modulus of the key with fingerprint {} shares a factor with another modulus.",
+                    HEX.toHexDigits(key));
+            findingCounters.get(Finding.SHARED_FACTOR).increment();
+        }
+    }
+
+    /**
+     * Merge the batch into the newest chunk while that is smaller than a batch, so that batches cut short by the
+     * interval don't multiply the number of chunks, and forget the oldest chunks beyond the maximum number of moduli.
+     */
+    private void keep(Chunk chunk) {
+        int batch = chunk.moduli().length;
+        var last = chunks.peekLast();
+        if (last != null && last.moduli().length < batchSize) {
+            chunks.removeLast();
+            var keys = new long[last.keys().length + chunk.keys().length];
+            var moduli = new BigInteger[keys.length];
+            System.arraycopy(last.keys(), 0, keys, 0, last.keys().length);
+            System.arraycopy(chunk.keys(), 0, keys, last.keys().length, chunk.keys().length);
+            System.arraycopy(last.moduli(), 0, moduli, 0, last.moduli().length);
+            System.arraycopy(chunk.moduli(), 0, moduli, last.moduli().length, chunk.moduli().length);
+            chunk = new Chunk(keys, moduli, last.product().multiply(chunk.product()));
+        }
+        chunks.addLast(chunk);
+        int count = moduliCount + batch;
+        while (count > maximumModuli && chunks.size() > 1) {
+            count -= chunks.removeFirst().moduli().length;
+        }
+        moduliCount = count;
+    }
+
+    /**
+     * Check what is still queued and stop the scanner.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (!queue.offer(STOP, 10, TimeUnit.SECONDS)) {
+            logger.warn("Timed out waiting to stop the key scanner.");
+            return;
+        }
+        scanner.join(TimeUnit.SECONDS.toMillis(30));
+    }
+}
@@ -1,12 +1,17 @@
 package com.vonberg.csrviewer;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.edec.EdECObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.x500.AttributeTypeAndValue;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
@@ -14,67 +19,145 @@ import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.GeneralName;
 import org.bouncycastle.asn1.x509.GeneralNames;
-import org.bouncycastle.crypto.util.PublicKeyFactory;
-import org.bouncycastle.openssl.PEMParser;
-import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
-import org.bouncycastle.operator.OperatorCreationException;
-import org.bouncycastle.operator.bc.BcRSAContentVerifierProviderBuilder;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
+import org.bouncycastle.crypto.params.Ed448PublicKeyParameters;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
 import org.bouncycastle.pkcs.PKCS10CertificationRequest;
-import org.bouncycastle.pkcs.PKCSException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static com.vonberg.csrviewer.PKCS10Parser.ParseResultState.ERROR;
+import static com.vonberg.csrviewer.PKCS10Parser.ParseResultState.MALFORMED;
 import static com.vonberg.csrviewer.PKCS10Parser.ParseResultState.SUCCESS;
-import static com.vonberg.csrviewer.PKCS10Parser.ValidationResultState.*;
 
 
 class PKCS10Parser {
 
-    static Logger logger = LoggerFactory.getLogger(PKCS10Parser.class);
+    static final Logger logger = LoggerFactory.getLogger(PKCS10Parser.class);
+
+    static final byte[] PEM_BEGIN = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] PEM_END = "-----END ".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] PEM_DASHES = "-----".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Map<ASN1ObjectIdentifier, String> KEY_ALGORITHM_NAMES = Map.of(
+            PKCSObjectIdentifiers.rsaEncryption, "RSA",
+            PKCSObjectIdentifiers.id_RSASSA_PSS, "RSASSA-PSS",
+            X9ObjectIdentifiers.id_ecPublicKey, "EC",
+            EdECObjectIdentifiers.id_Ed25519, "Ed25519",
+            EdECObjectIdentifiers.id_Ed448, "Ed448"
+    );
+
+    /**
+     * The short name, as used by BCStyle, and the full name of the attribute types of X.500 names, built once instead
+     * of asking BCStyle for every attribute of every name.
+     */
+    private static final Map<ASN1ObjectIdentifier, AttributeTypeName> ATTRIBUTE_TYPE_NAMES = Map.ofEntries(
+            attributeTypeName(BCStyle.C, "countryName"),
+            attributeTypeName(BCStyle.O, "organizationName"),
+            attributeTypeName(BCStyle.OU, "organizationalUnitName"),
+            attributeTypeName(BCStyle.T, "title"),
+            attributeTypeName(BCStyle.CN, "commonName"),
+            attributeTypeName(BCStyle.SERIALNUMBER, "serialNumber"),
+            attributeTypeName(BCStyle.STREET, "streetAddress"),
+            attributeTypeName(BCStyle.L, "localityName"),
+            attributeTypeName(BCStyle.ST, "stateOrProvinceName"),
+            attributeTypeName(BCStyle.DC, "domainComponent"),
+            attributeTypeName(BCStyle.UID, "userId"),
+            attributeTypeName(BCStyle.E, "emailAddress"),
+            attributeTypeName(BCStyle.SURNAME, "surname"),
+            attributeTypeName(BCStyle.GIVENNAME, "givenName"),
+            attributeTypeName(BCStyle.INITIALS, "initials"),
+            attributeTypeName(BCStyle.GENERATION, "generationQualifier"),
+            attributeTypeName(BCStyle.DN_QUALIFIER, "dnQualifier"),
+            attributeTypeName(BCStyle.PSEUDONYM, "pseudonym"),
+            attributeTypeName(BCStyle.POSTAL_CODE, "postalCode"),
+            attributeTypeName(BCStyle.BUSINESS_CATEGORY, "businessCategory"),
+            attributeTypeName(BCStyle.DESCRIPTION, "description"),
+            attributeTypeName(BCStyle.ORGANIZATION_IDENTIFIER, "organizationIdentifier"),
+            attributeTypeName(BCStyle.NAME, "name"),
+            attributeTypeName(BCStyle.TELEPHONE_NUMBER, "telephoneNumber"),
+            attributeTypeName(BCStyle.POSTAL_ADDRESS, "postalAddress"),
+            attributeTypeName(BCStyle.UnstructuredName, "unstructuredName"),
+            attributeTypeName(BCStyle.UnstructuredAddress, "unstructuredAddress")
+    );
+
+    /**
+     * The full names of the attribute types by their short names, for the frontend.
+     */
+    static final Map<String, String> FULL_ATTRIBUTE_TYPE_NAMES = ATTRIBUTE_TYPE_NAMES.values().stream()
+            .collect(Collectors.toUnmodifiableMap(AttributeTypeName::shortName, AttributeTypeName::fullName));
+
+    private record AttributeTypeName(String shortName, String fullName) {
+    }
+
+    private static Map.Entry<ASN1ObjectIdentifier, AttributeTypeName> attributeTypeName(ASN1ObjectIdentifier oid, String fullName) {
+        return Map.entry(oid, new AttributeTypeName(BCStyle.INSTANCE.oidToDisplayName(oid), fullName));
+    }
 
     /**
      * Attempt to validate the signature of a certificate signing request, returning the ValidationResultState
-     * corresponding the result of the attempt.
+     * corresponding the result of the attempt. RSA, RSASSA-PSS, ECDSA and EdDSA signatures are supported.
      *
      * @param request the certificate signing request whose signature to verify
      * @return VALID if the signature is valid, INVALID_SIGNATURE if not, and other enum values if an error occurs
      * while attempting to validate the signature.
      */
     static ValidationResultState tryValidateSignature(PKCS10CertificationRequest request) {
+        return SignatureVerificationEngine.verify(request);
+    }
+
+    /**
+     * Get the name of the algorithm of the public key of a request.
+     *
+     * @param request the request whose key algorithm to get
+     * @return RSA, RSASSA-PSS, EC, Ed25519 or Ed448, or the object identifier of the algorithm for other keys
+     */
+    static String getKeyAlgorithm(PKCS10CertificationRequest request) {
+        var algorithm = request.getSubjectPublicKeyInfo().getAlgorithm().getAlgorithm();
+        return KEY_ALGORITHM_NAMES.getOrDefault(algorithm, algorithm.getId());
+    }
+
+    /**
+     * Get the size of the public key of a request in bits, that is the size of the modulus for RSA keys and the size
+     * of the field of the curve for EC and EdDSA keys.
+     *
+     * @param request the request whose key size to get
+     * @return the size of the key, or -1 if the key cannot be decoded or is of an unsupported type
+     */
+    static int getKeySize(PKCS10CertificationRequest request) {
         try {
-            var publicKeyParameter = PublicKeyFactory.createKey(request.getSubjectPublicKeyInfo());
-
-            var verifierProvider = new BcRSAContentVerifierProviderBuilder(
-                    new DefaultDigestAlgorithmIdentifierFinder()
-            ).build(publicKeyParameter);
-
-            return request.isSignatureValid(verifierProvider) ? VALID : INVALID_SIGNATURE;
-        } catch (OperatorCreationException e) {
-            logger.error("Unable to get verifier for the CSR.");
-            return UNKNOWN_ALGORITHM;
-        } catch (PKCSException e) {
-            logger.error("Unable to check signature validity, error while verifying.");
-            return MALFORMED_SIGNATURE;
-        } catch (IOException e) {
-            logger.error("Error while decoding the key from the request.");
-            return MALFORMED_SIGNATURE;
+            var key = SignatureVerificationEngine.decodePublicKey(request.getSubjectPublicKeyInfo());
+            if (key instanceof RSAKeyParameters rsaKey) {
+                return rsaKey.getModulus().bitLength();
+            } else if (key instanceof ECPublicKeyParameters ecKey) {
+                return ecKey.getParameters().getCurve().getFieldSize();
+            } else if (key instanceof Ed25519PublicKeyParameters) {
+                return 255;
+            } else if (key instanceof Ed448PublicKeyParameters) {
+                return 448;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.debug("Error while decoding the key from the request.");
         }
+        return -1;
     }
 
     /**
      * Create a representation of the contents of the input name for use by the frontend.
      *
      * @param name an X500Name
-     * @return a list of LinkedHashMaps mapping the attribute type of each RDN to its corresponding value.
+     * @return a list of LinkedHashMaps mapping the short name of the attribute type of each RDN, or its object
+     * identifier if the type is unknown, to its corresponding value.
      */
     static Iterable<LinkedHashMap<String, String>> getMappingOfX500NameComponents(X500Name name) {
         List<LinkedHashMap<String, String>> result = new ArrayList<>();
         for (RDN rdn : name.getRDNs()) {
             LinkedHashMap<String, String> typeDescriptorsAndValues = new LinkedHashMap<>();
             for (AttributeTypeAndValue typeAndValue : rdn.getTypesAndValues()) {
-                // this is where I would have liked to include the full human-readable name of the OID
-                typeDescriptorsAndValues.put(BCStyle.INSTANCE.oidToDisplayName(typeAndValue.getType()), typeAndValue.getValue().toString());
+                var typeName = ATTRIBUTE_TYPE_NAMES.get(typeAndValue.getType());
+                typeDescriptorsAndValues.put(typeName != null ? typeName.shortName() : typeAndValue.getType().getId(),
+                        typeAndValue.getValue().toString());
             }
             result.add(typeDescriptorsAndValues);
         }
@@ -83,47 +166,118 @@ class PKCS10Parser {
 
     /**
      * Attempt to parse a byte array as a certificate signing request in either PEM or binary format, returning a
-     * CsrParsingResult of the request state and the resulting request if parsing was successful.
+     * CsrParsingResult of the request state and the resulting request if parsing was successful. The format is
+     * recognized from the first bytes, so that binary requests go straight to ASN.1 decoding and PEM requests only
+     * pay for stripping the armour and decoding the base64.
      *
      * @param bytes, the byte array to attempt to parse to a certificate signing request
      * @return a CsrParsingResult of State SUCCESS and the request if parsing was successful, a CsrParsingResult
      * containing a different state and no request otherwise
      */
     static CsrParsingResult parseCSRFromByteArray(byte[] bytes) {
+        var decoded = CsrEncoding.decode(bytes, bytes.length, null);
+        if (decoded.state() != SUCCESS) {
+            logger.debug("Rejected upload as {}.", decoded.state());
+            return new CsrParsingResult(decoded.state());
+        }
+        return parseCSRFromDer(decoded.der());
+    }
+
+    /**
+     * Parse the DER encoding of a certificate signing request.
+     *
+     * @param der the DER encoding of the request, as produced by CsrEncoding
+     * @return a CsrParsingResult of State SUCCESS and the request if parsing was successful, a CsrParsingResult of
+     * State MALFORMED if the encoding is not a valid certificate signing request
+     */
+    static CsrParsingResult parseCSRFromDer(byte[] der) {
         try {
-            var parser = new PEMParser(new InputStreamReader(new ByteArrayInputStream(bytes)));
-            Object parsingResult = parser.readObject();
-            if (parsingResult instanceof PKCS10CertificationRequest request) {
-                return new CsrParsingResult(SUCCESS, request);
-            }
-            // TODO separately catch IOException from this block which would indicate malformed request
-            PKCS10CertificationRequest request = new PKCS10CertificationRequest(bytes);
-            logger.info("Request successfully parsed.");
+            PKCS10CertificationRequest request = new PKCS10CertificationRequest(der);
+            logger.debug("Request successfully parsed.");
             return new CsrParsingResult(SUCCESS, request);
-
         } catch (IOException e) {
-            logger.error("IO Exception while trying to parse CSR.");
-            return new CsrParsingResult(ERROR);
+            logger.debug("Malformed CSR: {}", e.getMessage());
+            return new CsrParsingResult(MALFORMED);
+        }
+    }
+
+    /**
+     * Split an upload that may contain several PEM encoded certificate signing requests into the individual PEM
+     * blocks. Input that contains no PEM armour at all is treated as a single, binary request.
+     *
+     * @param bytes the contents of an uploaded file
+     * @return a list with one entry per PEM block in the input, or the input itself if it contains no PEM armour
+     */
+    static List<byte[]> splitPemBundle(byte[] bytes) {
+        List<byte[]> blocks = new ArrayList<>();
+        int begin = indexOf(bytes, PEM_BEGIN, 0);
+        if (begin < 0) {
+            blocks.add(bytes);
+            return blocks;
+        }
+        while (begin >= 0) {
+            int end = indexOf(bytes, PEM_END, begin + PEM_BEGIN.length);
+            if (end < 0) {
+                // unterminated block, let the parser report it as an error
+                blocks.add(Arrays.copyOfRange(bytes, begin, bytes.length));
+                break;
+            }
+            int endOfLabel = indexOf(bytes, PEM_DASHES, end + PEM_END.length);
+            int blockEnd = endOfLabel < 0 ? bytes.length : endOfLabel + PEM_DASHES.length;
+            blocks.add(Arrays.copyOfRange(bytes, begin, blockEnd));
+            begin = indexOf(bytes, PEM_BEGIN, blockEnd);
         }
+        return blocks;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int fromIndex) {
+        return indexOf(haystack, needle, fromIndex, haystack.length);
+    }
+
+    /**
+     * @return the index of the first occurrence of needle in haystack between fromIndex and toIndex, or -1 if there
+     * is none
+     */
+    static int indexOf(byte[] haystack, byte[] needle, int fromIndex, int toIndex) {
+        outer:
+        for (int i = fromIndex; i <= toIndex - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
     }
 
     /**
      * Get any alt names in the provided request, if any.
      *
      * @param request the request whose alt names to extract
-     * @return an array of alt names contained in the request
+     * @return an array of alt names contained in the request, empty if there is no subjectAltName extension or if
+     * the extensions cannot be decoded; {@link CsrExtensions#decode} reports those as malformed
      */
     static GeneralName[] getAltNames(PKCS10CertificationRequest request){
-        var requestedExtensions = request.getRequestedExtensions();
-        if (requestedExtensions == null){
+        try {
+            var requestedExtensions = request.getRequestedExtensions();
+            if (requestedExtensions == null){
+                return new GeneralName[0];
+            }
+            var altNames = GeneralNames.fromExtensions(requestedExtensions, Extension.subjectAlternativeName);
+            return altNames == null ? new GeneralName[0] : altNames.getNames();
+        } catch (IllegalArgumentException | ClassCastException e) {
+            logger.debug("Malformed subjectAltName extension in the request.");
             return new GeneralName[0];
         }
-        var altNamesExtension = requestedExtensions.getExtension(Extension.subjectAlternativeName);
-        return GeneralNames.getInstance(altNamesExtension.getParsedValue()).getNames();
     }
 
+    /**
+     * SUCCESS if a request was parsed; TOO_LARGE and UNRECOGNIZED_FORMAT if the upload was rejected before parsing,
+     * MALFORMED if it looked like a request but could not be decoded and ERROR for any other failure.
+     */
     public enum ParseResultState {
-        SUCCESS, ERROR
+        SUCCESS, ERROR, TOO_LARGE, UNRECOGNIZED_FORMAT, MALFORMED
     }
 
     public enum ValidationResultState {
@@ -0,0 +1,159 @@
+package com.vonberg.csrviewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.context.IExpressionContext;
+import org.thymeleaf.dialect.IDialect;
+import org.thymeleaf.linkbuilder.StandardLinkBuilder;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templateresolver.ITemplateResolver;
+
+/**
+ * Pages whose output never changes, rendered once at startup instead of on every request: the form, which Thymeleaf
+ * would otherwise render and decorate with the layout every time it is requested. The rendered bytes are kept along
+ * with a gzip compressed copy and served with a strong ETag, so that browsers revalidate with a 304 instead of
+ * downloading the page again.
+ * <p>
+ * If the template cache is disabled, as devtools does during development, pages are rendered on every request so
+ * that changes to the templates still show up.
+ */
+@Component
+@Lazy(false)
+class PrerenderedPages {
+
+    static final Logger logger = LoggerFactory.getLogger(PrerenderedPages.class);
+
+    private static final MediaType HTML = MediaType.parseMediaType("text/html;charset=UTF-8");
+
+    /**
+     * A rendered page and its gzip compressed copy, each with its own ETag as they are different representations.
+     */
+    record Page(byte[] identity, byte[] gzip, String eTag, String gzipETag) {
+        static Page of(String html) {
+            var identity = html.getBytes(StandardCharsets.UTF_8);
+            var gzip = PrerenderedPages.gzip(identity);
+            var hash = sha256Prefix(identity);
+            return new Page(identity, gzip, "\"" + hash + "\"", "\"" + hash + "-gzip\"");
+        }
+
+        /**
+         * @param acceptEncoding the Accept-Encoding header of the request, null if it has none
+         * @return the gzip compressed page if the client accepts gzip and it is smaller, the page itself otherwise
+         */
+        ResponseEntity<byte[]> response(String acceptEncoding) {
+            var response = ResponseEntity.ok()
+                    .contentType(HTML)
+                    .cacheControl(CacheControl.noCache())
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING);
+            if (acceptsGzip(acceptEncoding) && gzip.length < identity.length) {
+                return response.eTag(gzipETag).header(HttpHeaders.CONTENT_ENCODING, "gzip").body(gzip);
+            }
+            return response.eTag(eTag).body(identity);
+        }
+    }
+
+    private final SpringTemplateEngine templateEngine;
+    private final boolean cache;
+    private final Page form;
+    private final AtomicBoolean firstPageServed = new AtomicBoolean();
+
+    /**
+     * @param templateResolvers the template resolvers of the application
+     * @param dialects the dialects of the application, including the layout dialect
+     * @param contextPath the path the application is served under, which context relative links are prefixed with
+     * @param cache whether templates are cached, in which case pages are only rendered once
+     */
+    PrerenderedPages(ObjectProvider<ITemplateResolver> templateResolvers, ObjectProvider<IDialect> dialects,
+                     @Value("${server.servlet.context-path:${spring.webflux.base-path:}}") String contextPath,
+                     @Value("${spring.thymeleaf.cache:true}") boolean cache) {
+        // the engine of the application can only build links while rendering a request, so the pages are rendered
+        // by an engine of their own that builds links with the configured context path
+        this.templateEngine = new SpringTemplateEngine();
+        templateResolvers.orderedStream().forEach(templateEngine::addTemplateResolver);
+        dialects.orderedStream().forEach(templateEngine::addDialect);
+        templateEngine.setLinkBuilder(new StandardLinkBuilder() {
+            @Override
+            protected String computeContextPath(IExpressionContext context, String base, Map<String, Object> parameters) {
+                return contextPath;
+            }
+        });
+        this.cache = cache;
+        long start = System.nanoTime();
+        this.form = render(CsrViews.CSR_FORM_FRAGMENT);
+        logger.info("Pre-rendered the form in {} ms, {} bytes, {} bytes gzip compressed.",
+                (System.nanoTime() - start) / 1_000_000, form.identity().length, form.gzip().length);
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header of the request, null if it has none
+     * @return the response with the rendered form
+     */
+    ResponseEntity<byte[]> form(String acceptEncoding) {
+        if (!firstPageServed.getAndSet(true)) {
+            logger.info("Served the first page {} ms after the JVM started.",
+                    ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+        return (cache ? form : render(CsrViews.CSR_FORM_FRAGMENT)).response(acceptEncoding);
+    }
+
+    private Page render(String template) {
+        return Page.of(templateEngine.process(template, new Context()));
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            var parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        var out = new ByteArrayOutputStream(bytes.length / 2);
+        try (var gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256Prefix(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Set;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.server.WebFilter;
+
+/**
+ * Rate limiting per client and shedding of load with 429 Too Many Requests and a Retry-After header, see
+ * {@link ClientRateLimiter}. Applied by a servlet filter on the servlet stack and by a web filter on the reactive
+ * stack, both of which run before the body of a request is read. Disable with
+ * {@code csrviewer.rate-limit.enabled=false}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "csrviewer.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitConfiguration {
+
+    /**
+     * @param maxInFlight the number of expensive requests that may be in flight at the same time, defaults to 16 per
+     *                    available processor
+     * @param maxClients the number of clients whose token buckets are kept
+     * @param apiKeys the API keys that identify clients instead of their IP address
+     * @return the limiter shared by all requests
+     */
+    @Bean
+    ClientRateLimiter clientRateLimiter(MeterRegistry registry,
+                                        @Value("${csrviewer.rate-limit.cheap.rate:50}") double cheapRate,
+                                        @Value("${csrviewer.rate-limit.cheap.burst:100}") int cheapBurst,
+                                        @Value("${csrviewer.rate-limit.expensive.rate:10}") double expensiveRate,
+                                        @Value("${csrviewer.rate-limit.expensive.burst:30}") int expensiveBurst,
+                                        @Value("${csrviewer.rate-limit.max-in-flight:0}") int maxInFlight,
+                                        @Value("${csrviewer.rate-limit.max-clients:100000}") int maxClients,
+                                        @Value("${csrviewer.rate-limit.api-keys:}") Set<String> apiKeys) {
+        return new ClientRateLimiter(new ClientRateLimiter.Limit(cheapRate, cheapBurst),
+                new ClientRateLimiter.Limit(expensiveRate, expensiveBurst),
+                maxInFlight > 0 ? maxInFlight : 16 * Runtime.getRuntime().availableProcessors(),
+                maxClients, apiKeys, registry, System::nanoTime);
+    }
+
+    // component scanning finds the nested configurations on their own, without the condition of this class
+    @Configuration
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(name = "csrviewer.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+    static class ServletRateLimitConfiguration {
+
+        /**
+         * The filter runs ahead of the dispatcher servlets, so a rejected upload is never parsed as a multipart form,
+         * and it covers the dispatcher servlet of the bulk endpoint as well.
+         */
+        @Bean
+        FilterRegistrationBean<RateLimitFilter> rateLimitFilter(
+                ClientRateLimiter limiter,
+                @Value("${csrviewer.rate-limit.api-key-header:X-API-Key}") String apiKeyHeader) {
+            var registration = new FilterRegistrationBean<>(new RateLimitFilter(limiter, apiKeyHeader));
+            registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+            return registration;
+        }
+    }
+
+    @Configuration
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    @ConditionalOnProperty(name = "csrviewer.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+    static class ReactiveRateLimitConfiguration {
+
+        @Bean
+        WebFilter rateLimitFilter(ClientRateLimiter limiter,
+                                  @Value("${csrviewer.rate-limit.api-key-header:X-API-Key}") String apiKeyHeader) {
+            return (exchange, chain) -> {
+                var request = exchange.getRequest();
+                var budget = ClientRateLimiter.Budget.of(request.getMethod().name(),
+                        request.getPath().pathWithinApplication().value());
+                var admission = limiter.admit(limiter.clientKey(request.getHeaders().getFirst(apiKeyHeader),
+                        hostAddress(request.getRemoteAddress())), budget);
+                if (!admission.admitted()) {
+                    var response = exchange.getResponse();
+                    response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+                    response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(admission.retryAfterSeconds()));
+                    return response.setComplete();
+                }
+                return budget == ClientRateLimiter.Budget.EXPENSIVE
+                        ? chain.filter(exchange).doFinally(signal -> limiter.release())
+                        : chain.filter(exchange);
+            };
+        }
+
+        private static String hostAddress(InetSocketAddress address) {
+            return address == null || address.getAddress() == null ? "unknown" : address.getAddress().getHostAddress();
+        }
+    }
+
+    /**
+     * Admits each request on its initial dispatch and returns the in-flight permit of an expensive request after it
+     * completed, which for asynchronous requests such as streamed bulk inspections is when the async context
+     * completes. Async and error dispatches belong to a request that was already admitted and are not filtered.
+     */
+    static class RateLimitFilter extends OncePerRequestFilter {
+
+        private final ClientRateLimiter limiter;
+        private final String apiKeyHeader;
+
+        RateLimitFilter(ClientRateLimiter limiter, String apiKeyHeader) {
+            this.limiter = limiter;
+            this.apiKeyHeader = apiKeyHeader;
+        }
+
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                throws ServletException, IOException {
+            var budget = ClientRateLimiter.Budget.of(request.getMethod(),
+                    request.getRequestURI().substring(request.getContextPath().length()));
+            var admission = limiter.admit(limiter.clientKey(request.getHeader(apiKeyHeader), request.getRemoteAddr()), budget);
+            if (!admission.admitted()) {
+                response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(admission.retryAfterSeconds()));
+                return;
+            }
+            if (budget != ClientRateLimiter.Budget.EXPENSIVE) {
+                chain.doFilter(request, response);
+                return;
+            }
+            boolean async = false;
+            try {
+                chain.doFilter(request, response);
+                if (request.isAsyncStarted()) {
+                    request.getAsyncContext().addListener(new ReleaseOnComplete(limiter));
+                    async = true;
+                }
+            } finally {
+                if (!async) {
+                    limiter.release();
+                }
+            }
+        }
+    }
+
+    private record ReleaseOnComplete(ClientRateLimiter limiter) implements AsyncListener {
+        @Override
+        public void onComplete(AsyncEvent event) {
+            limiter.release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
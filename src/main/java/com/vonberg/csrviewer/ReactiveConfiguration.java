@@ -0,0 +1,32 @@
+package com.vonberg.csrviewer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Configuration of the reactive stack, which is used instead of the servlet stack when the application is started
+ * with {@code spring.main.web-application-type=reactive}.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveConfiguration {
+
+    /**
+     * The scheduler that parses and verifies uploaded requests, so that the CPU-bound work never runs on the event
+     * loop. Both the number of threads and the number of waiting tasks are bounded.
+     *
+     * @param threads the number of threads, defaults to the number of available processors
+     * @param queueCapacity the number of requests that may wait for a free thread before further requests are rejected
+     * @return the scheduler used by the reactive controller
+     */
+    @Bean(destroyMethod = "dispose")
+    Scheduler inspectionScheduler(@Value("${csrviewer.verification.threads:0}") int threads,
+                                  @Value("${csrviewer.verification.queue-capacity:256}") int queueCapacity) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return Schedulers.newBoundedElastic(poolSize, queueCapacity, "csr-inspect");
+    }
+}
@@ -0,0 +1,97 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestPart;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * The non-blocking counterpart of {@link CsrInfoViewerController}, serving the same frontend on the reactive stack.
+ * Uploads are consumed as a stream of data buffers, which is cancelled as soon as it exceeds the maximum CSR size,
+ * and parsing and verification run on the bounded inspection scheduler.
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCsrInfoViewerController {
+
+    static final Logger logger = LoggerFactory.getLogger(ReactiveCsrInfoViewerController.class);
+
+    private final CsrInspectionService inspectionService;
+    private final CsrUploadReader uploadReader;
+    private final Scheduler inspectionScheduler;
+    private final PrerenderedPages prerenderedPages;
+
+    public ReactiveCsrInfoViewerController(CsrInspectionService inspectionService, CsrUploadReader uploadReader,
+                                           Scheduler inspectionScheduler, PrerenderedPages prerenderedPages) {
+        this.inspectionService = inspectionService;
+        this.uploadReader = uploadReader;
+        this.inspectionScheduler = inspectionScheduler;
+        this.prerenderedPages = prerenderedPages;
+    }
+
+    @GetMapping("/")
+    public String index() {
+        logger.debug("served index");
+        return "redirect:" + CsrViews.FORM_PATH;
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header, the form is sent gzip compressed if it includes gzip
+     * @return the form, which is rendered once at startup
+     */
+    @GetMapping(CsrViews.FORM_PATH)
+    public ResponseEntity<byte[]> form(@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        logger.debug("served form");
+        return prerenderedPages.form(acceptEncoding);
+    }
+
+    /**
+     * Respond to a post request containing a PKCS#10 Certificate Signing Request and add information about its
+     * contents to the model used by the templater.
+     *
+     * @param csrFile the file part uploaded from the input form, whose content is joined into a single buffer of at
+     *                most one byte more than the maximum CSR size
+     * @param model the model that passes data to the templater.
+     * @return path to the thymeleaf template of the information contained in the CSR if csrFile is a valid PEM or
+     * binary PKCS10 Certificate Signing Request, the path to a failure message fragment otherwise.
+     */
+    @PostMapping(CsrViews.CSR_POST_PATH)
+    public Mono<String> csrResponse(@RequestPart("csr-file") Mono<FilePart> csrFile, Model model) {
+        return csrFile
+                .flatMap(file -> DataBufferUtils.join(file.content(), uploadReader.maxCsrSize() + 1))
+                .publishOn(inspectionScheduler)
+                .map(this::inspect)
+                .onErrorResume(DataBufferLimitException.class,
+                        e -> Mono.just(CsrInspection.inspect(new CsrParsingResult(PKCS10Parser.ParseResultState.TOO_LARGE))))
+                .map(inspection -> CsrViews.render(inspection, model))
+                .onErrorResume(UncheckedIOException.class, e -> {
+                    logger.info("Failed to get content of uploaded file.");
+                    return Mono.just(CsrViews.renderReadFailure(model));
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> CsrViews.renderReadFailure(model)));
+    }
+
+    private CsrInspection inspect(DataBuffer buffer) {
+        try (var in = buffer.asInputStream(true)) {
+            return inspectionService.inspect(in, -1, CsrViews.SECTIONS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.edec.EdECObjectIdentifiers;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.RSASSAPSSparams;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.crypto.Signer;
+import org.bouncycastle.crypto.engines.RSABlindedEngine;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
+import org.bouncycastle.crypto.params.Ed448PublicKeyParameters;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
+import org.bouncycastle.crypto.signers.PSSSigner;
+import org.bouncycastle.crypto.util.PublicKeyFactory;
+import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.DigestAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.bc.BcContentVerifierProviderBuilder;
+import org.bouncycastle.operator.bc.BcECContentVerifierProviderBuilder;
+import org.bouncycastle.operator.bc.BcEdDSAContentVerifierProviderBuilder;
+import org.bouncycastle.operator.bc.BcRSAContentVerifierProviderBuilder;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.bouncycastle.pkcs.PKCSException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.vonberg.csrviewer.PKCS10Parser.ValidationResultState.INVALID_SIGNATURE;
+import static com.vonberg.csrviewer.PKCS10Parser.ValidationResultState.MALFORMED_SIGNATURE;
+import static com.vonberg.csrviewer.PKCS10Parser.ValidationResultState.UNKNOWN_ALGORITHM;
+import static com.vonberg.csrviewer.PKCS10Parser.ValidationResultState.VALID;
+
+/**
+ * Verifies the signatures of certificate signing requests, dispatching on the signature algorithm of the request to
+ * RSA (PKCS#1 v1.5), RSASSA-PSS, ECDSA and EdDSA verifiers. The verifier provider builders and the digest algorithm
+ * finder hold no per-request state and are shared by all requests, and decoded public keys are cached by the hash of
+ * their SubjectPublicKeyInfo.
+ */
+final class SignatureVerificationEngine {
+
+    static final Logger logger = LoggerFactory.getLogger(SignatureVerificationEngine.class);
+
+    /**
+     * The families of signature algorithms, each verified by its own BouncyCastle verifier provider builder.
+     */
+    enum SignatureFamily {
+        RSA, RSASSA_PSS, ECDSA, EDDSA;
+
+        boolean acceptsKey(AsymmetricKeyParameter key) {
+            return switch (this) {
+                case RSA, RSASSA_PSS -> key instanceof RSAKeyParameters;
+                case ECDSA -> key instanceof ECPublicKeyParameters;
+                case EDDSA -> key instanceof Ed25519PublicKeyParameters || key instanceof Ed448PublicKeyParameters;
+            };
+        }
+    }
+
+    private static final DigestAlgorithmIdentifierFinder digestAlgorithmFinder = new DefaultDigestAlgorithmIdentifierFinder();
+
+    private static final Map<SignatureFamily, BcContentVerifierProviderBuilder> builders = Map.of(
+            SignatureFamily.RSA, new BcRSAContentVerifierProviderBuilder(digestAlgorithmFinder),
+            SignatureFamily.RSASSA_PSS, new BcRSAPSSContentVerifierProviderBuilder(),
+            SignatureFamily.ECDSA, new BcECContentVerifierProviderBuilder(digestAlgorithmFinder),
+            SignatureFamily.EDDSA, new BcEdDSAContentVerifierProviderBuilder()
+    );
+
+    private static final Map<ASN1ObjectIdentifier, SignatureFamily> families = buildFamilyTable();
+
+    private static final Cache<String, AsymmetricKeyParameter> publicKeys = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .build();
+
+    private SignatureVerificationEngine() {
+    }
+
+    private static Map<ASN1ObjectIdentifier, SignatureFamily> buildFamilyTable() {
+        Map<ASN1ObjectIdentifier, SignatureFamily> table = new HashMap<>();
+        for (var oid : new ASN1ObjectIdentifier[]{
+                PKCSObjectIdentifiers.md2WithRSAEncryption,
+                PKCSObjectIdentifiers.md5WithRSAEncryption,
+                PKCSObjectIdentifiers.sha1WithRSAEncryption,
+                PKCSObjectIdentifiers.sha224WithRSAEncryption,
+                PKCSObjectIdentifiers.sha256WithRSAEncryption,
+                PKCSObjectIdentifiers.sha384WithRSAEncryption,
+                PKCSObjectIdentifiers.sha512WithRSAEncryption,
+                PKCSObjectIdentifiers.sha512_224WithRSAEncryption,
+                PKCSObjectIdentifiers.sha512_256WithRSAEncryption,
+                NISTObjectIdentifiers.id_rsassa_pkcs1_v1_5_with_sha3_224,
+                NISTObjectIdentifiers.id_rsassa_pkcs1_v1_5_with_sha3_256,
+                NISTObjectIdentifiers.id_rsassa_pkcs1_v1_5_with_sha3_384,
+                NISTObjectIdentifiers.id_rsassa_pkcs1_v1_5_with_sha3_512}) {
+            table.put(oid, SignatureFamily.RSA);
+        }
+        table.put(PKCSObjectIdentifiers.id_RSASSA_PSS, SignatureFamily.RSASSA_PSS);
+        for (var oid : new ASN1ObjectIdentifier[]{
+                X9ObjectIdentifiers.ecdsa_with_SHA1,
+                X9ObjectIdentifiers.ecdsa_with_SHA224,
+                X9ObjectIdentifiers.ecdsa_with_SHA256,
+                X9ObjectIdentifiers.ecdsa_with_SHA384,
+                X9ObjectIdentifiers.ecdsa_with_SHA512,
+                NISTObjectIdentifiers.id_ecdsa_with_sha3_224,
+                NISTObjectIdentifiers.id_ecdsa_with_sha3_256,
+                NISTObjectIdentifiers.id_ecdsa_with_sha3_384,
+                NISTObjectIdentifiers.id_ecdsa_with_sha3_512}) {
+            table.put(oid, SignatureFamily.ECDSA);
+        }
+        table.put(EdECObjectIdentifiers.id_Ed25519, SignatureFamily.EDDSA);
+        table.put(EdECObjectIdentifiers.id_Ed448, SignatureFamily.EDDSA);
+        return Map.copyOf(table);
+    }
+
+    /**
+     * @param signatureAlgorithm the signature algorithm of a request
+     * @return the family of the signature algorithm, or null if it is not supported
+     */
+    static SignatureFamily familyOf(AlgorithmIdentifier signatureAlgorithm) {
+        return families.get(signatureAlgorithm.getAlgorithm());
+    }
+
+    /**
+     * Attempt to validate the signature of a certificate signing request.
+     *
+     * @param request the certificate signing request whose signature to verify
+     * @return VALID if the signature is valid, INVALID_SIGNATURE if not or if the key does not match the signature
+     * algorithm, UNKNOWN_ALGORITHM if the signature algorithm is not supported and MALFORMED_SIGNATURE if the key or
+     * the signature cannot be decoded.
+     */
+    static PKCS10Parser.ValidationResultState verify(PKCS10CertificationRequest request) {
+        var family = familyOf(request.getSignatureAlgorithm());
+        if (family == null) {
+            logger.debug("Unsupported signature algorithm {}.", request.getSignatureAlgorithm().getAlgorithm());
+            return UNKNOWN_ALGORITHM;
+        }
+        try {
+            var publicKey = decodePublicKey(request.getSubjectPublicKeyInfo());
+            if (!family.acceptsKey(publicKey)) {
+                logger.debug("Key of type {} cannot have produced a signature of family {}.",
+                        publicKey.getClass().getSimpleName(), family);
+                return INVALID_SIGNATURE;
+            }
+            var verifierProvider = builders.get(family).build(publicKey);
+            return request.isSignatureValid(verifierProvider) ? VALID : INVALID_SIGNATURE;
+        } catch (OperatorCreationException e) {
+            logger.error("Unable to get verifier for the CSR.");
+            return UNKNOWN_ALGORITHM;
+        } catch (PKCSException e) {
+            logger.debug("Unable to check signature validity, error while verifying.");
+            return MALFORMED_SIGNATURE;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.debug("Error while decoding the key from the request.");
+            return MALFORMED_SIGNATURE;
+        } catch (ArithmeticException e) {
+            logger.debug("Parameter of the signature algorithm out of range.");
+            return MALFORMED_SIGNATURE;
+        }
+    }
+
+    /**
+     * Decode the public key of a request, or get it from the cache of previously decoded keys.
+     */
+    static AsymmetricKeyParameter decodePublicKey(SubjectPublicKeyInfo publicKeyInfo) throws IOException {
+        var key = CsrInspectionService.sha256Hex(publicKeyInfo.getEncoded());
+        var cached = publicKeys.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        var decoded = PublicKeyFactory.createKey(publicKeyInfo);
+        publicKeys.put(key, decoded);
+        return decoded;
+    }
+
+    /**
+     * Verifier provider builder for RSASSA-PSS signatures, which the BouncyCastle RSA builder does not handle. The
+     * digests, the salt length and the trailer field are taken from the parameters of the signature algorithm; only
+     * MGF1 is supported as mask generation function, and parameters that do not fit an int are rejected like any other
+     * malformed signature.
+     */
+    static class BcRSAPSSContentVerifierProviderBuilder extends BcContentVerifierProviderBuilder {
+
+        @Override
+        protected Signer createSigner(AlgorithmIdentifier sigAlgId) throws OperatorCreationException {
+            var params = sigAlgId.getParameters() == null
+                    ? new RSASSAPSSparams()
+                    : RSASSAPSSparams.getInstance(sigAlgId.getParameters());
+            var maskGenAlgorithm = params.getMaskGenAlgorithm();
+            if (!PKCSObjectIdentifiers.id_mgf1.equals(maskGenAlgorithm.getAlgorithm())
+                    || maskGenAlgorithm.getParameters() == null) {
+                throw new OperatorCreationException("Unsupported RSASSA-PSS mask generation function "
+                        + maskGenAlgorithm.getAlgorithm());
+            }
+            int saltLength;
+            try {
+                if (params.getTrailerField().intValueExact() != 1) {
+                    throw new OperatorCreationException("Unsupported RSASSA-PSS trailer field "
+                            + params.getTrailerField());
+                }
+                saltLength = params.getSaltLength().intValueExact();
+            } catch (ArithmeticException e) {
+                throw new OperatorCreationException("RSASSA-PSS parameter out of range", e);
+            }
+            if (saltLength < 0) {
+                throw new OperatorCreationException("Negative RSASSA-PSS salt length " + saltLength);
+            }
+            var contentDigest = digestProvider.get(params.getHashAlgorithm());
+            var mgfDigest = digestProvider.get(AlgorithmIdentifier.getInstance(maskGenAlgorithm.getParameters()));
+            return new PSSSigner(new RSABlindedEngine(), contentDigest, mgfDigest, saltLength,
+                    PSSSigner.TRAILER_IMPLICIT);
+        }
+
+        @Override
+        protected AsymmetricKeyParameter extractKeyParameters(SubjectPublicKeyInfo publicKeyInfo) throws IOException {
+            return decodePublicKey(publicKeyInfo);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.vonberg.csrviewer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A fixed pool of platform threads for the CPU-bound parsing and signature verification of requests. The number of
+ * tasks that may be running or waiting is bounded; callers beyond that bound block until a task completes, which for
+ * virtual threads only parks the virtual thread and leaves its carrier free.
+ */
+class VerificationExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits;
+
+    VerificationExecutor(int threads, int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new CustomizableThreadFactory("csr-verify-"));
+        this.permits = new Semaphore(threads + queueCapacity);
+    }
+
+    /**
+     * Run a task on the pool and wait for its result.
+     *
+     * @param task the CPU-bound task
+     * @return the result of the task
+     */
+    <T> T call(Supplier<T> task) {
+        permits.acquireUninterruptibly();
+        try {
+            return CompletableFuture.supplyAsync(task, executor).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
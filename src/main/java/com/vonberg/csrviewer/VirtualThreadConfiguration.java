@@ -0,0 +1,52 @@
+package com.vonberg.csrviewer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Opt-in execution mode that serves requests on virtual threads instead of Tomcat's pool of platform threads, so that
+ * slow uploads only occupy cheap virtual threads. Parsing and signature verification are offloaded to a bounded pool
+ * of platform threads sized to the CPU, so that they can't pin all carrier threads. Requires Java 21, see
+ * {@link VirtualThreadRequestExecutor}.
+ * <p>
+ * Enable with {@code csrviewer.virtual-threads.enabled=true}, or run {@code ./gradlew bootRun -PvirtualThreads}.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "csrviewer.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    static final Logger logger = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+    @Bean(destroyMethod = "shutdown")
+    VirtualThreadRequestExecutor virtualThreadRequestExecutor() {
+        var executor = new VirtualThreadRequestExecutor();
+        logger.info("Serving requests on virtual threads.");
+        return executor;
+    }
+
+    @Bean
+    TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer(
+            VirtualThreadRequestExecutor virtualThreadRequestExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadRequestExecutor.executor());
+    }
+
+    /**
+     * @param threads the number of platform threads for parsing and verification, defaults to the number of
+     *                available processors
+     * @param queueCapacity the number of requests that may wait for a free verification thread before further
+     *                      requests block
+     */
+    @Bean(destroyMethod = "shutdown")
+    VerificationExecutor verificationExecutor(@Value("${csrviewer.verification.threads:0}") int threads,
+                                              @Value("${csrviewer.verification.queue-capacity:256}") int queueCapacity) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return new VerificationExecutor(poolSize, queueCapacity);
+    }
+}
@@ -0,0 +1,39 @@
+package com.vonberg.csrviewer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The executor that runs a virtual thread per request. Requires Java 21; the application is still compiled for
+ * Java 17, which is why the executor is looked up reflectively.
+ * <p>
+ * The executor is wrapped instead of being a bean itself, because Spring Boot does not create its
+ * applicationTaskExecutor, which serves asynchronous MVC requests, once the context contains an Executor bean.
+ */
+class VirtualThreadRequestExecutor {
+
+    private final ExecutorService executor;
+
+    /**
+     * @throws IllegalStateException if the JVM does not support virtual threads
+     */
+    VirtualThreadRequestExecutor() {
+        try {
+            this.executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("csrviewer.virtual-threads.enabled requires Java 21 or later, but the "
+                    + "application is running on Java " + Runtime.version() + ".", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create the virtual thread executor.", e);
+        }
+    }
+
+    Executor executor() {
+        return executor;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
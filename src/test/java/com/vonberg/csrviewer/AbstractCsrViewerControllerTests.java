@@ -0,0 +1,46 @@
+package com.vonberg.csrviewer;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The tests of the frontend that the servlet and the reactive stack share. Subclasses get the form and submit a file
+ * with the client of their stack.
+ */
+abstract class AbstractCsrViewerControllerTests {
+
+    /**
+     * @return the HTML of the form, after checking that it was served as HTML with status 200
+     */
+    abstract String getForm() throws Exception;
+
+    /**
+     * @return the HTML fragment rendered for the file, after checking that it was served with status 200
+     */
+    abstract String submit(byte[] content) throws Exception;
+
+    @Test
+    public void testGetForm() throws Exception {
+        Document document = Jsoup.parse(getForm());
+        assertEquals("/submit-csr", document.select("#csr").attr("hx-post"));
+    }
+
+    @Test
+    public void testSubmitCsr() throws Exception {
+        var document = Jsoup.parse(submit(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes()));
+        assertEquals("EN", document.getElementsByAttributeValue("data-testid", "subject-name-value-C").text());
+        assertEquals("MD5WITHRSA", document.getElementsByAttributeValue("data-testid", "signature-algorithm").text());
+        assertTrue(document.getElementsByAttributeValue("data-testid", "validation-success-notice").size() >= 1);
+    }
+
+    @Test
+    public void testSubmitOversizedFile() throws Exception {
+        var document = Jsoup.parse(submit(new byte[1024 * 1024]));
+        assertEquals("The file is too large to be a certificate signing request.",
+                document.getElementsByAttributeValue("data-testid", "failure-notice").text());
+    }
+}
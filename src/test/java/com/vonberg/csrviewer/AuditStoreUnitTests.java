@@ -0,0 +1,159 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AuditStoreUnitTests {
+
+    private static final Instant START = Instant.parse("2026-01-01T00:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    private static String key(String name) {
+        return CsrInspectionService.sha256Hex(name.getBytes());
+    }
+
+    private static AuditRecord record(Instant inspectedAt, String commonName, String key, String... dnsNames) {
+        return new AuditRecord(inspectedAt, key("request " + inspectedAt + commonName), "CN=" + commonName, commonName,
+                Arrays.stream(dnsNames).map(name -> new CsrReport.AltName("dNSName", name)).toList(),
+                "RSA", 2048, PKCS10Parser.ValidationResultState.VALID, key);
+    }
+
+    private static AuditStore.Query query(String san, String commonName, String spki, Instant since, Instant until,
+                                          int limit) {
+        return new AuditStore.Query(san, commonName, spki, since, until, limit);
+    }
+
+    private static List<String> commonNames(AuditStore.Result result) {
+        return result.records().stream().map(AuditRecord::commonName).toList();
+    }
+
+    @Test
+    void searchesByNameKeyAndTime() throws IOException {
+        try (var store = AuditStore.open(directory, DataSize.ofMegabytes(1).toBytes(), false)) {
+            store.append(List.of(
+                    record(START, "www.example.com", key("a"), "www.example.com", "example.com"),
+                    record(START.plus(Duration.ofDays(1)), "mail.example.com", key("b"), "mail.example.com",
+                            "*.mail.example.com")));
+            store.append(List.of(
+                    record(START.plus(Duration.ofDays(2)), "www.example.org", key("a"), "www.example.org"),
+                    new AuditRecord(START.plus(Duration.ofDays(40)), key("d"), "CN=API.Example.com.", "API.Example.com.",
+                            List.of(new CsrReport.AltName("dNSName", "api.example.com"),
+                                    new CsrReport.AltName("iPAddress", "10.0.0.1")),
+                            "EC", 256, null, key("c"))));
+
+            assertEquals(List.of("API.Example.com.", "mail.example.com", "www.example.com"),
+                    commonNames(store.search(query("*.example.com", null, null, null, null, 10))));
+            assertEquals(List.of("www.example.com"),
+                    commonNames(store.search(query("Example.COM", null, null, null, null, 10))));
+            assertEquals(List.of("mail.example.com"),
+                    commonNames(store.search(query("*.mail.example.com", null, null, null, null, 10))));
+            assertEquals(List.of("API.Example.com.", "mail.example.com"), commonNames(store.search(
+                    query("*.example.com", null, null, START.plus(Duration.ofDays(1)), null, 10))));
+            var limited = store.search(query("*.example.com", null, null, null, START.plus(Duration.ofDays(30)), 1));
+            assertEquals(List.of("mail.example.com"), commonNames(limited));
+            assertTrue(limited.truncated());
+            assertFalse(store.search(query("*.example.com", null, null, null, null, 3)).truncated());
+
+            assertEquals(List.of("API.Example.com."), commonNames(store.search(query(null, "api.example.com", null, null, null, 10))));
+            assertEquals(List.of("www.example.org", "www.example.com"),
+                    commonNames(store.search(query(null, null, key("a"), null, null, 10))));
+            assertEquals(List.of("www.example.org"),
+                    commonNames(store.search(query("*.example.org", null, key("a"), null, null, 10))));
+            assertEquals(List.of("API.Example.com.", "www.example.org"),
+                    commonNames(store.search(query(null, null, null, START.plus(Duration.ofDays(2)), null, 10))));
+            assertTrue(store.search(query("10.0.0.1", null, null, null, null, 10)).records().isEmpty());
+            assertTrue(store.search(query("*.example.net", null, null, null, null, 10)).records().isEmpty());
+
+            // timestamps never decrease
+            store.append(List.of(record(START, "late.example.com", key("e"), "late.example.com")));
+            assertEquals(START.plus(Duration.ofDays(40)),
+                    store.search(query("late.example.com", null, null, null, null, 10)).records().get(0).inspectedAt());
+        }
+        assertThrows(IllegalArgumentException.class, () -> query(null, null, "not a hash", null, null, 10));
+        assertThrows(IllegalArgumentException.class, () -> query(null, null, null, null, null, 0));
+    }
+
+    /**
+     * A torn record at the end of the last segment is cut off, and removing the oldest segments expires their records.
+     */
+    @Test
+    void reopeningIndexesTheSegments() throws IOException {
+        var records = new ArrayList<AuditRecord>();
+        for (int i = 0; i < 50; i++) {
+            records.add(record(START.plus(Duration.ofMinutes(i)), "host" + i + ".example.com", key("key" + i),
+                    "host" + i + ".example.com"));
+        }
+        try (var store = AuditStore.open(directory, 1024, false)) {
+            for (int i = 0; i < records.size(); i += 5) {
+                store.append(records.subList(i, i + 5));
+            }
+        }
+        List<Path> segments;
+        try (var files = Files.list(directory)) {
+            segments = files.sorted().toList();
+        }
+        assertTrue(segments.size() > 2);
+        Files.write(segments.get(segments.size() - 1), new byte[]{0, 0, 1, 0, 0, 0, 0, 0, 42}, StandardOpenOption.APPEND);
+
+        try (var store = AuditStore.open(directory, 1024, false)) {
+            assertEquals(50, store.size());
+            assertEquals(List.of("host0.example.com"), commonNames(store.search(query(null, null, key("key0"), null, null, 10))));
+            assertEquals(10, store.search(query("*.example.com", null, null, null, null, 10)).records().size());
+            store.append(List.of(record(START.plus(Duration.ofDays(1)), "new.example.com", key("new"), "new.example.com")));
+        }
+
+        Files.delete(segments.get(0));
+        try (var store = AuditStore.open(directory, 1024, false)) {
+            assertTrue(store.search(query(null, null, key("key0"), null, null, 10)).records().isEmpty());
+            assertEquals(List.of("host49.example.com"), commonNames(store.search(query("host49.example.com", null, null, null, null, 10))));
+            assertEquals(List.of("new.example.com"), commonNames(store.search(query(null, "new.example.com", null, null, null, 10))));
+        }
+    }
+
+    @Test
+    void inspectionsAreRecordedInTheBackground() throws Exception {
+        var registry = new SimpleMeterRegistry();
+        var auditLog = new CsrAuditLog(AuditStore.open(directory, 1 << 20, false), registry, 16, 4);
+        var service = new CsrInspectionService(new CsrUploadReader(DataSize.ofKilobytes(64), 4), CsrMetrics.noop(),
+                null, auditLog, null, null, true, 100, Duration.ofHours(1));
+        var pem = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes();
+        var inspection = service.inspect(pem, EnumSet.of(CsrInspection.Section.SUBJECT));
+        // served from the cache, and recorded again
+        service.inspect(pem);
+        service.inspect("not a csr".getBytes());
+        assertTrue(auditLog.flush(Duration.ofSeconds(10)));
+
+        var result = auditLog.search(query(null, "*.wikipedia.org", null, null, null, 10));
+        assertEquals(2, result.records().size());
+        var latest = result.records().get(0);
+        assertEquals(PKCS10Parser.ValidationResultState.VALID, latest.validationState());
+        assertEquals(inspection.spkiSha256(), latest.spkiSha256());
+        assertEquals("*.wikipedia.org", latest.commonName());
+        assertEquals(2048, latest.keySize());
+        // the signature was not verified the first time
+        assertNull(result.records().get(1).validationState());
+        assertEquals(2, registry.get(CsrAuditLog.RECORD_COUNTER).tag("outcome", "written").counter().count());
+        auditLog.destroy();
+    }
+}
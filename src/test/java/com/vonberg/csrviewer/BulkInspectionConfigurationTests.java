@@ -0,0 +1,44 @@
+package com.vonberg.csrviewer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BulkInspectionConfigurationTests {
+
+    private final WebApplicationContextRunner runner = new WebApplicationContextRunner()
+            // converts the DataSize properties, as SpringApplication does
+            .withInitializer(context -> context.getBeanFactory()
+                    .setConversionService(ApplicationConversionService.getSharedInstance()))
+            .withConfiguration(AutoConfigurations.of(TaskExecutionAutoConfiguration.class))
+            .withUserConfiguration(BulkInspectionConfiguration.class);
+
+    @Test
+    void streamsOnTheApplicationTaskExecutor() {
+        runner.run(context -> {
+            assertNull(context.getStartupFailure());
+            assertSame(context.getBean(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME),
+                    context.getBean(BulkInspectionConfiguration.AsyncSupport.class).executor());
+        });
+    }
+
+    @Test
+    void streamsOnAPoolOfItsOwnNextToAnotherExecutor() {
+        runner.withBean("customExecutor", Executor.class, Executors::newSingleThreadExecutor)
+                .run(context -> {
+                    assertNull(context.getStartupFailure());
+                    assertInstanceOf(ThreadPoolTaskExecutor.class,
+                            context.getBean(BulkInspectionConfiguration.AsyncSupport.class).executor());
+                });
+    }
+}
@@ -0,0 +1,193 @@
+package com.vonberg.csrviewer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClientRateLimiterUnitTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicLong clock = new AtomicLong();
+
+    private ClientRateLimiter limiter(ClientRateLimiter.Limit cheap, ClientRateLimiter.Limit expensive, int maxInFlight) {
+        return new ClientRateLimiter(cheap, expensive, maxInFlight, 1000, Set.of("known-key"), registry, clock::get);
+    }
+
+    @Test
+    void bucketsRefillAtTheirRate() {
+        var limiter = limiter(new ClientRateLimiter.Limit(2, 3), new ClientRateLimiter.Limit(1, 1), 10);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.admit("ip:10.0.0.1", ClientRateLimiter.Budget.CHEAP).admitted());
+        }
+        var rejected = limiter.admit("ip:10.0.0.1", ClientRateLimiter.Budget.CHEAP);
+        assertFalse(rejected.admitted());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), rejected.retryAfterNanos());
+        assertEquals(1, rejected.retryAfterSeconds());
+        // the budgets and the clients are independent of each other
+        assertTrue(limiter.admit("ip:10.0.0.1", ClientRateLimiter.Budget.EXPENSIVE).admitted());
+        assertTrue(limiter.admit("ip:10.0.0.2", ClientRateLimiter.Budget.CHEAP).admitted());
+
+        clock.addAndGet(rejected.retryAfterNanos());
+        assertTrue(limiter.admit("ip:10.0.0.1", ClientRateLimiter.Budget.CHEAP).admitted());
+        assertFalse(limiter.admit("ip:10.0.0.1", ClientRateLimiter.Budget.CHEAP).admitted());
+        assertEquals(2, registry.get(ClientRateLimiter.REJECTION_COUNTER).tag("reason", "cheap").counter().count());
+    }
+
+    @Test
+    void expensiveRequestsAreShedAtTheInFlightCap() {
+        var limiter = limiter(new ClientRateLimiter.Limit(100, 100), new ClientRateLimiter.Limit(100, 100), 2);
+        assertTrue(limiter.admit("ip:10.0.0.1", ClientRateLimiter.Budget.EXPENSIVE).admitted());
+        assertTrue(limiter.admit("ip:10.0.0.2", ClientRateLimiter.Budget.EXPENSIVE).admitted());
+        var shed = limiter.admit("ip:10.0.0.3", ClientRateLimiter.Budget.EXPENSIVE);
+        assertFalse(shed.admitted());
+        assertEquals(1, shed.retryAfterSeconds());
+        // cheap requests don't count against the cap
+        assertTrue(limiter.admit("ip:10.0.0.3", ClientRateLimiter.Budget.CHEAP).admitted());
+        assertEquals(2, registry.get(ClientRateLimiter.IN_FLIGHT_GAUGE).gauge().value());
+
+        limiter.release();
+        assertTrue(limiter.admit("ip:10.0.0.3", ClientRateLimiter.Budget.EXPENSIVE).admitted());
+        assertEquals(1, registry.get(ClientRateLimiter.REJECTION_COUNTER).tag("reason", "in_flight").counter().count());
+    }
+
+    @Test
+    void onlyKnownApiKeysIdentifyClients() {
+        var limiter = limiter(new ClientRateLimiter.Limit(1, 1), new ClientRateLimiter.Limit(1, 1), 10);
+        assertEquals("key:known-key", limiter.clientKey("known-key", "10.0.0.1"));
+        assertEquals("ip:10.0.0.1", limiter.clientKey("made-up-key", "10.0.0.1"));
+        assertEquals("ip:10.0.0.1", limiter.clientKey(null, "10.0.0.1"));
+    }
+
+    /**
+     * A greedy client hammers the limiter from many threads while other clients each use a single thread. Every
+     * client gets exactly its budget, no matter how many threads compete for it, and no token is handed out twice.
+     */
+    @Test
+    void clientsGetTheirBudgetUnderContention() throws Exception {
+        int burst = 200;
+        int ratePerSecond = 50;
+        var limiter = limiter(new ClientRateLimiter.Limit(ratePerSecond, burst), new ClientRateLimiter.Limit(1, 1), 10);
+        var clients = List.of("ip:10.0.0.1", "ip:10.0.0.2", "ip:10.0.0.3", "ip:10.0.0.4");
+        var greedy = "ip:10.0.0.66";
+        ExecutorService executor = Executors.newFixedThreadPool(clients.size() + 8);
+        try {
+            for (int round = 0; round < 3; round++) {
+                var admitted = new ArrayList<AtomicInteger>();
+                var start = new CountDownLatch(1);
+                var futures = new ArrayList<Future<?>>();
+                for (int i = 0; i <= clients.size(); i++) {
+                    admitted.add(new AtomicInteger());
+                }
+                for (int i = 0; i < clients.size(); i++) {
+                    futures.add(executor.submit(hammer(limiter, clients.get(i), admitted.get(i), start)));
+                }
+                for (int thread = 0; thread < 8; thread++) {
+                    futures.add(executor.submit(hammer(limiter, greedy, admitted.get(clients.size()), start)));
+                }
+                start.countDown();
+                for (var future : futures) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+                int expected = round == 0 ? burst : ratePerSecond;
+                for (var count : admitted) {
+                    assertEquals(expected, count.get(), "round " + round);
+                }
+                clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Runnable hammer(ClientRateLimiter limiter, String client, AtomicInteger admitted, CountDownLatch start) {
+        return () -> {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (int i = 0; i < 2000; i++) {
+                if (limiter.admit(client, ClientRateLimiter.Budget.CHEAP).admitted()) {
+                    admitted.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    @Test
+    void uploadsAndAuditSearchesAreExpensive() {
+        assertEquals(ClientRateLimiter.Budget.EXPENSIVE, ClientRateLimiter.Budget.of("POST", CsrApiController.API_PATH));
+        assertEquals(ClientRateLimiter.Budget.EXPENSIVE,
+                ClientRateLimiter.Budget.of("GET", CsrAuditController.SEARCH_PATH));
+        assertEquals(ClientRateLimiter.Budget.CHEAP, ClientRateLimiter.Budget.of("GET", CsrApiController.API_PATH + "/00"));
+        assertEquals(ClientRateLimiter.Budget.CHEAP, ClientRateLimiter.Budget.of("GET", "/form"));
+    }
+
+    @Test
+    void filterRespondsWithRetryAfterAndReleasesPermits() throws Exception {
+        var limiter = limiter(new ClientRateLimiter.Limit(100, 100), new ClientRateLimiter.Limit(1, 2), 10);
+        var filter = new RateLimitConfiguration.RateLimitFilter(limiter, "X-API-Key");
+
+        var request = new MockHttpServletRequest("POST", CsrViews.CSR_POST_PATH);
+        request.setRemoteAddr("10.0.0.1");
+        var chain = new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                assertEquals(1, limiter.inFlight());
+            }
+        };
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        assertEquals(0, limiter.inFlight());
+
+        // the permit of an asynchronous request is returned when the async context completes
+        var asyncRequest = new MockHttpServletRequest("POST", CsrBulkInspectionController.BULK_PATH);
+        asyncRequest.setRemoteAddr("10.0.0.1");
+        asyncRequest.setAsyncSupported(true);
+        filter.doFilter(asyncRequest, new MockHttpServletResponse(),
+                (servletRequest, servletResponse) -> servletRequest.startAsync());
+        assertEquals(1, limiter.inFlight());
+        ((MockAsyncContext) asyncRequest.getAsyncContext()).complete();
+        assertEquals(0, limiter.inFlight());
+
+        var rejectedRequest = new MockHttpServletRequest("POST", CsrViews.CSR_POST_PATH);
+        rejectedRequest.setRemoteAddr("10.0.0.1");
+        var rejectedResponse = new MockHttpServletResponse();
+        var rejectedChain = new MockFilterChain();
+        filter.doFilter(rejectedRequest, rejectedResponse, rejectedChain);
+        assertNull(rejectedChain.getRequest());
+        assertEquals(429, rejectedResponse.getStatus());
+        assertEquals("1", rejectedResponse.getHeader(HttpHeaders.RETRY_AFTER));
+
+        // a client with a known API key has its own budget
+        var knownClient = new MockHttpServletRequest("POST", CsrViews.CSR_POST_PATH);
+        knownClient.setRemoteAddr("10.0.0.1");
+        knownClient.addHeader("X-API-Key", "known-key");
+        var knownChain = new MockFilterChain();
+        filter.doFilter(knownClient, new MockHttpServletResponse(), knownChain);
+        assertNotNull(knownChain.getRequest());
+    }
+}
@@ -0,0 +1,67 @@
+package com.vonberg.csrviewer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumSet;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CsrInspectionServiceUnitTests {
+
+    @Test
+    void repeatedSubmissionIsServedFromCache() throws IOException {
+        var service = new CsrInspectionService(new CsrUploadReader(DataSize.ofKilobytes(64), 4), CsrMetrics.noop(), true, 100, Duration.ofHours(1));
+        var pem = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes();
+        var first = service.inspect(pem);
+        var der = first.parseResult().request.getEncoded();
+
+        assertSame(first, service.inspect(pem));
+        // the same request in binary encoding has the same cache key
+        assertSame(first, service.inspect(der));
+        assertEquals(2, service.cacheStats().hitCount());
+        assertEquals(1, service.cacheStats().missCount());
+    }
+
+    @Test
+    void failedParsesAreNotCached() {
+        var service = new CsrInspectionService(new CsrUploadReader(DataSize.ofKilobytes(64), 4), CsrMetrics.noop(), true, 100, Duration.ofHours(1));
+        var junk = "This is not a valid Certificate Signing Request".getBytes();
+        assertEquals(PKCS10Parser.ParseResultState.UNRECOGNIZED_FORMAT, service.inspect(junk).parseResult().state);
+        service.inspect(junk);
+        assertEquals(0, service.cacheStats().hitCount());
+    }
+
+    @Test
+    void disabledCacheInspectsEveryTime() {
+        var service = new CsrInspectionService(new CsrUploadReader(DataSize.ofKilobytes(64), 4), CsrMetrics.noop(), false, 100, Duration.ofHours(1));
+        var pem = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes();
+        assertNotSame(service.inspect(pem), service.inspect(pem));
+        assertEquals(0, service.cacheStats().requestCount());
+    }
+
+    @Test
+    void onlyRequestedSectionsAreComputed() {
+        var service = new CsrInspectionService(new CsrUploadReader(DataSize.ofKilobytes(64), 4), CsrMetrics.noop(), true, 100, Duration.ofHours(1));
+        var pem = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes();
+        var inspection = service.inspect(pem, EnumSet.of(CsrInspection.Section.SUBJECT));
+        assertTrue(inspection.computed(CsrInspection.Section.SUBJECT));
+        assertFalse(inspection.computed(CsrInspection.Section.SIGNATURE));
+        assertFalse(inspection.computed(CsrInspection.Section.KEY_INFO));
+
+        // the cached inspection computes the signature section when it is requested later, and only once
+        var again = service.inspect(pem, EnumSet.of(CsrInspection.Section.SIGNATURE));
+        assertSame(inspection, again);
+        assertTrue(inspection.computed(CsrInspection.Section.SIGNATURE));
+        assertEquals(PKCS10Parser.ValidationResultState.VALID, inspection.validationState());
+        assertFalse(inspection.computed(CsrInspection.Section.KEY_INFO));
+        assertEquals(2048, inspection.keySize());
+        assertTrue(inspection.compute(CsrInspection.Section.ALL).computed(CsrInspection.Section.ALL));
+    }
+}
@@ -0,0 +1,74 @@
+package com.vonberg.csrviewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CsrMetricsUnitTests {
+
+    private static CsrInspectionService service(CsrMetrics metrics) {
+        return new CsrInspectionService(new CsrUploadReader(DataSize.ofKilobytes(64), 4), metrics, false, 100, Duration.ofHours(1));
+    }
+
+    @Test
+    void stagesAreTimedAndInspectionsCounted() throws IOException {
+        var registry = new SimpleMeterRegistry();
+        var service = service(new CsrMetrics(registry, 1.0));
+        var pem = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes();
+        service.inspect(new ByteArrayInputStream(pem), pem.length);
+        service.inspect("not a csr".getBytes());
+
+        for (var stage : new String[]{"read", "parse", "verify"}) {
+            assertEquals(stage.equals("read") ? 2 : 1,
+                    registry.get(CsrMetrics.STAGE_TIMER).tag("stage", stage).timer().count(), stage);
+        }
+        assertEquals(1, registry.get(CsrMetrics.INSPECTION_COUNTER)
+                .tag("parse_state", "SUCCESS")
+                .tag("validation_state", "VALID")
+                .tag("signature_algorithm", "MD5WITHRSA")
+                .tag("key_size", "2048")
+                .counter().count());
+        assertEquals(1, registry.get(CsrMetrics.INSPECTION_COUNTER)
+                .tag("parse_state", "UNRECOGNIZED_FORMAT")
+                .counter().count());
+    }
+
+    @Test
+    void unsampledRequestsAreCountedButNotTimed() {
+        var registry = new SimpleMeterRegistry();
+        var service = service(new CsrMetrics(registry, 0.0));
+        service.inspect(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes());
+
+        assertEquals(0, registry.get(CsrMetrics.STAGE_TIMER).tag("stage", "verify").timer().count());
+        assertEquals(1, registry.get(CsrMetrics.INSPECTION_COUNTER).tag("parse_state", "SUCCESS").counter().count());
+    }
+
+    @Test
+    void allStagesOfASampledRequestAreTimed() {
+        var registry = new SimpleMeterRegistry();
+        var service = service(new CsrMetrics(registry, 0.5));
+        for (int i = 0; i < 100; i++) {
+            service.inspect(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes());
+        }
+
+        long read = registry.get(CsrMetrics.STAGE_TIMER).tag("stage", "read").timer().count();
+        assertEquals(read, registry.get(CsrMetrics.STAGE_TIMER).tag("stage", "parse").timer().count());
+        assertEquals(read, registry.get(CsrMetrics.STAGE_TIMER).tag("stage", "verify").timer().count());
+    }
+
+    @Test
+    void uncommonKeySizesAreTaggedAsOther() {
+        assertEquals("2048", CsrMetrics.keySizeTag(2048));
+        assertEquals("255", CsrMetrics.keySizeTag(255));
+        assertEquals(CsrMetrics.OTHER, CsrMetrics.keySizeTag(2047));
+        assertEquals(CsrMetrics.OTHER, CsrMetrics.keySizeTag(123456));
+        assertNull(CsrMetrics.keySizeTag(-1));
+    }
+}
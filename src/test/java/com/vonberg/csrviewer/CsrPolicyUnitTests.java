@@ -0,0 +1,181 @@
+package com.vonberg.csrviewer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.pkcs.CertificationRequest;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Attribute;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CsrPolicyUnitTests {
+
+    private static final String RULES = """
+            {
+              "keys": {"RSA": {"minSize": 2048}, "EC": {"curves": ["P-384", "secp521r1"]}},
+              "requiredRdns": ["CN", "O"],
+              "forbiddenExtensions": ["basicConstraints"],
+              "maxSubjectAltNames": 3,
+              "allowWildcards": false,
+              "allowedDomains": ["example.com", "*.example.com", "**.internal.example.org"],
+              "allowedNamePatterns": ["10\\\\.0\\\\.0\\\\.\\\\d+"]
+            }
+            """;
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private SimpleMeterRegistry registry;
+    private CsrPolicy policy;
+    private CsrInspectionService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = directory.resolve("policy.json");
+        Files.writeString(file, RULES);
+        registry = new SimpleMeterRegistry();
+        policy = new CsrPolicy(registry, file, Duration.ZERO);
+        service = new CsrInspectionService(new CsrUploadReader(DataSize.ofKilobytes(64), 4), CsrMetrics.noop(),
+                null, null, null, policy, true, 100, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        policy.destroy();
+    }
+
+    private static PKCS10CertificationRequest request(String subject, int curveSize, BasicConstraints basicConstraints,
+                                                      GeneralName... altNames) throws Exception {
+        var extensions = new ExtensionsGenerator();
+        extensions.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(altNames));
+        if (basicConstraints != null) {
+            extensions.addExtension(Extension.basicConstraints, true, basicConstraints);
+        }
+        return TestCsrBuilder.buildCSR(new X500Name(subject), "EC", "SHA256withECDSA", curveSize, new Attribute[]{
+                new Attribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, new DERSet(extensions.generate()))
+        }).request();
+    }
+
+    private static GeneralName dns(String name) {
+        return new GeneralName(GeneralName.dNSName, name);
+    }
+
+    private static Set<CsrPolicy.Rule> rules(CsrInspection inspection) {
+        return inspection.policyEvaluation().violations().stream()
+                .map(CsrPolicy.Violation::rule)
+                .collect(Collectors.toSet());
+    }
+
+    @Test
+    void domainTrieMatchesNamesBelowPatterns() {
+        var trie = new DomainTrie();
+        trie.add("example.com");
+        trie.add("*.example.com");
+        trie.add("**.internal.example.org.");
+        assertEquals(3, trie.size());
+        assertTrue(trie.matches("example.com"));
+        assertTrue(trie.matches("WWW.Example.com."));
+        assertTrue(trie.matches("*.example.com"));
+        assertFalse(trie.matches("a.www.example.com"));
+        assertFalse(trie.matches("com"));
+        assertFalse(trie.matches("notexample.com"));
+        assertTrue(trie.matches("a.b.internal.example.org"));
+        assertTrue(trie.matches("*.internal.example.org"));
+        assertFalse(trie.matches("internal.example.org"));
+        assertFalse(trie.matches(""));
+        assertThrows(IllegalArgumentException.class, () -> trie.add("www.*.example.com"));
+        assertThrows(IllegalArgumentException.class, () -> trie.add("*"));
+        assertThrows(IllegalArgumentException.class, () -> trie.add("a..example.com"));
+    }
+
+    @Test
+    void cheapRulesAreCheckedBeforeTheSignature() throws Exception {
+        var request = request("CN=www.example.com", 256, new BasicConstraints(true),
+                dns("www.example.com"), dns("*.example.com"), dns("www.example.net"),
+                new GeneralName(GeneralName.iPAddress, "10.0.0.5"));
+        var inspection = service.inspect(request.getEncoded(), EnumSet.of(CsrInspection.Section.SUBJECT));
+        assertEquals(List.of(
+                new CsrPolicy.Violation(CsrPolicy.Rule.FORBIDDEN_EXTENSION, "2.5.29.19"),
+                new CsrPolicy.Violation(CsrPolicy.Rule.REQUIRED_RDN, "O"),
+                new CsrPolicy.Violation(CsrPolicy.Rule.SAN_COUNT, "4 names, at most 3 allowed"),
+                new CsrPolicy.Violation(CsrPolicy.Rule.WILDCARD_SAN, "*.example.com"),
+                new CsrPolicy.Violation(CsrPolicy.Rule.SAN_NOT_ALLOWED, "dNSName www.example.net"),
+                new CsrPolicy.Violation(CsrPolicy.Rule.CURVE, "prime256v1")
+        ), inspection.policyEvaluation().violations());
+        assertEquals(policy.ruleSet(), inspection.policyEvaluation().ruleSet());
+        // the request breaks the policy anyway, so its signature was not verified
+        assertFalse(inspection.computed(CsrInspection.Section.SIGNATURE));
+        assertEquals(1, registry.get(CsrPolicy.VIOLATION_COUNTER).tag("rule", "CURVE").counter().count());
+    }
+
+    @Test
+    void compliantRequestsAreVerified() throws Exception {
+        var request = request("CN=www.example.com,O=Example", 384, null,
+                dns("www.example.com"), dns("a.b.internal.example.org"),
+                new GeneralName(GeneralName.iPAddress, "10.0.0.5"));
+        var inspection = service.inspect(request.getEncoded(), EnumSet.of(CsrInspection.Section.SUBJECT));
+        assertEquals(List.of(), inspection.policyEvaluation().violations());
+        assertTrue(inspection.computed(CsrInspection.Section.SIGNATURE));
+
+        var signature = request.getSignature();
+        signature[signature.length / 2] ^= 0x01;
+        var tampered = new PKCS10CertificationRequest(new CertificationRequest(
+                request.toASN1Structure().getCertificationRequestInfo(),
+                request.getSignatureAlgorithm(),
+                new DERBitString(signature)));
+        assertEquals(Set.of(CsrPolicy.Rule.SIGNATURE),
+                rules(service.inspect(tampered.getEncoded(), EnumSet.of(CsrInspection.Section.SUBJECT))));
+    }
+
+    @Test
+    void changedRulesApplyToCachedInspections() throws Exception {
+        var bytes = request("CN=www.example.com,O=Example", 384, null, dns("www.example.com")).getEncoded();
+        assertEquals(Set.of(), rules(service.inspect(bytes)));
+        var first = policy.ruleSet();
+        assertFalse(policy.reload());
+
+        Files.writeString(file, RULES.replace("\"CN\", \"O\"", "\"CN\", \"O\", \"C\""));
+        assertTrue(policy.reload());
+        var inspection = service.inspect(bytes);
+        assertEquals(List.of(new CsrPolicy.Violation(CsrPolicy.Rule.REQUIRED_RDN, "C")),
+                inspection.policyEvaluation().violations());
+        assertEquals(policy.ruleSet(), inspection.policyEvaluation().ruleSet());
+        assertFalse(first.equals(policy.ruleSet()));
+
+        // invalid rules are not loaded, the previous rules stay in force
+        var second = policy.ruleSet();
+        Files.writeString(file, RULES.replace("P-384", "P-3840"));
+        assertFalse(policy.reload());
+        Files.writeString(file, "{\"keys\": ");
+        assertFalse(policy.reload());
+        assertEquals(second, policy.ruleSet());
+        assertEquals(1, registry.get(CsrPolicy.RELOAD_COUNTER).tag("result", "success").counter().count());
+        assertEquals(2, registry.get(CsrPolicy.RELOAD_COUNTER).tag("result", "failure").counter().count());
+        assertThrows(IllegalArgumentException.class, () -> new CsrPolicy(registry, file, Duration.ZERO));
+    }
+}
@@ -0,0 +1,167 @@
+package com.vonberg.csrviewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CsrScannerUnitTests {
+
+    @TempDir
+    Path directory;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    private int scan(String... args) {
+        return CsrScanner.run(args, new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    @Test
+    void scansDirectoriesAndArchives() throws IOException {
+        var pem = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes(StandardCharsets.US_ASCII);
+        Files.createDirectories(directory.resolve("nested"));
+        Files.write(directory.resolve("single.csr"), pem);
+        Files.write(directory.resolve("nested/bundle.pem"), (SampleCsrData.SAMPLE_CSR_WIKIPEDIA + "\n" + SampleCsrData.SAMPLE_CSR_WIKIPEDIA).getBytes());
+        Files.write(directory.resolve("nested/README.txt"), "not scanned".getBytes());
+        try (var zip = new ZipOutputStream(Files.newOutputStream(directory.resolve("requests.zip")))) {
+            zip.putNextEntry(new ZipEntry("in-zip.csr"));
+            zip.write(pem);
+            zip.closeEntry();
+        }
+        Files.write(directory.resolve("requests.tar"), tar("a/".repeat(60) + "in-tar.csr", pem));
+
+        assertEquals(CsrScanner.EXIT_OK, scan(directory.toString()));
+        var lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(5, lines.size());
+        assertTrue(lines.stream().allMatch(line -> line.contains("\"validationState\":\"VALID\"")));
+        assertTrue(lines.stream().anyMatch(line -> line.contains("requests.zip!in-zip.csr")));
+        assertTrue(lines.stream().anyMatch(line -> line.contains("a/a/in-tar.csr")));
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("scanned 5 requests from 4 files"));
+    }
+
+    @Test
+    void writesCsvAndReportsFailures() throws IOException {
+        Files.write(directory.resolve("good.csr"), SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes());
+        Files.write(directory.resolve("junk.csr"), "not a csr".getBytes());
+        Files.write(directory.resolve("large.csr"), new byte[2048]);
+
+        assertEquals(CsrScanner.EXIT_FAILURES, scan("--format", "csv", "--max-csr-size", "1536", directory.toString()));
+        var lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals("source,index,parseState,validationState,signatureAlgorithm,subject,subjectAltNames,error", lines.get(0));
+        assertEquals(4, lines.size());
+        assertTrue(lines.stream().anyMatch(line -> line.contains("junk.csr,0,UNRECOGNIZED_FORMAT,")));
+        assertTrue(lines.stream().anyMatch(line -> line.contains("large.csr,0,TOO_LARGE,")));
+        assertTrue(lines.stream().anyMatch(line -> line.contains(",SUCCESS,VALID,MD5WITHRSA,\"C=EN,ST=none")));
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("2 requests failed to parse or validate"));
+    }
+
+    @Test
+    void readsPaxNamesAndCompressedArchives() throws IOException {
+        var pem = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes(StandardCharsets.US_ASCII);
+        var archive = new ByteArrayOutputStream();
+        paxEntry(archive, "ascii.csr", pem);
+        paxEntry(archive, "zürich-ünïcödé.csr", pem);
+        archive.writeBytes(new byte[1024]);
+        Files.write(directory.resolve("pax.tar"), archive.toByteArray());
+        try (var gzip = new GZIPOutputStream(Files.newOutputStream(directory.resolve("requests.tar.gz")))) {
+            gzip.write(tar("b/".repeat(60) + "in-tar-gz.csr", pem));
+        }
+
+        assertEquals(CsrScanner.EXIT_OK, scan(directory.toString()));
+        var results = out.toString(StandardCharsets.UTF_8);
+        assertTrue(results.contains("pax.tar!ascii.csr\""));
+        assertTrue(results.contains("pax.tar!zürich-ünïcödé.csr\""));
+        assertTrue(results.contains("b/b/in-tar-gz.csr\""));
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("scanned 3 requests from 3 files"));
+    }
+
+    @Test
+    void reportsMalformedPaxHeaders() throws IOException {
+        var records = "99 path=long.csr\n".getBytes(StandardCharsets.UTF_8);
+        var archive = new ByteArrayOutputStream();
+        archive.writeBytes(tarHeader("PaxHeaders/long.csr", records.length, 'x'));
+        archive.writeBytes(padded(records));
+        archive.writeBytes(new byte[1024]);
+        Files.write(directory.resolve("malformed.tar"), archive.toByteArray());
+
+        assertEquals(CsrScanner.EXIT_FAILURES, scan(directory.resolve("malformed.tar").toString()));
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains("Malformed pax extended header"));
+    }
+
+    @Test
+    void rejectsInvalidArguments() {
+        assertEquals(CsrScanner.EXIT_USAGE, scan());
+        assertEquals(CsrScanner.EXIT_USAGE, scan("--format", "xml", "."));
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("usage: scan"));
+    }
+
+    /**
+     * @return a TAR archive with a GNU long name entry followed by a single regular file
+     */
+    private static byte[] tar(String name, byte[] contents) {
+        var archive = new ByteArrayOutputStream();
+        var longName = (name + "\0").getBytes(StandardCharsets.UTF_8);
+        archive.writeBytes(tarHeader("././@LongLink", longName.length, 'L'));
+        archive.writeBytes(padded(longName));
+        archive.writeBytes(tarHeader(name.substring(name.length() - 90), contents.length, '0'));
+        archive.writeBytes(padded(contents));
+        archive.writeBytes(new byte[1024]);
+        return archive.toByteArray();
+    }
+
+    /**
+     * Append a regular file whose name is given in a pax extended header, as tar --format=pax writes it.
+     */
+    private static void paxEntry(ByteArrayOutputStream archive, String name, byte[] contents) {
+        var record = " path=" + name + "\n";
+        int length = record.getBytes(StandardCharsets.UTF_8).length;
+        // the length includes its own digits
+        length += Integer.toString(length + Integer.toString(length).length()).length();
+        var records = (length + record).getBytes(StandardCharsets.UTF_8);
+        archive.writeBytes(tarHeader("PaxHeaders/entry", records.length, 'x'));
+        archive.writeBytes(padded(records));
+        archive.writeBytes(tarHeader("entry", contents.length, '0'));
+        archive.writeBytes(padded(contents));
+    }
+
+    private static byte[] tarHeader(String name, int size, char type) {
+        var header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 124, String.format("%011o", size));
+        put(header, 136, String.format("%011o", 0));
+        header[156] = (byte) type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        put(header, 148, "        ");
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        put(header, 148, String.format("%06o", checksum));
+        return header;
+    }
+
+    private static void put(byte[] header, int offset, String value) {
+        var bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    private static byte[] padded(byte[] contents) {
+        var block = new byte[(contents.length + 511) / 512 * 512];
+        System.arraycopy(contents, 0, block, 0, contents.length);
+        return block;
+    }
+}
@@ -0,0 +1,86 @@
+package com.vonberg.csrviewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CsrUploadReaderUnitTests {
+
+    private static final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final CsrUploadReader reader = new CsrUploadReader(DataSize.ofKilobytes(64), 4);
+
+    @Test
+    void pemAndDerDecodeToSameRequest() throws IOException {
+        var pem = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes();
+        var der = PKCS10Parser.parseCSRFromByteArray(pem).request.getEncoded();
+
+        var fromPem = reader.read(new ByteArrayInputStream(pem), pem.length);
+        var fromDer = reader.read(new ByteArrayInputStream(der), der.length);
+        assertEquals(PKCS10Parser.ParseResultState.SUCCESS, fromPem.state());
+        assertArrayEquals(der, fromPem.der());
+        assertArrayEquals(der, fromDer.der());
+    }
+
+    @Test
+    void leadingTextBeforePemBlockIsIgnored() {
+        var upload = ("Certificate Request:\n    Data: ...\n" + SampleCsrData.SAMPLE_CSR_WIKIPEDIA + "\n").getBytes();
+        assertEquals(PKCS10Parser.ParseResultState.SUCCESS, reader.read(upload).state());
+    }
+
+    @Test
+    void nonCsrPayloadsAreRejected() {
+        assertEquals(PKCS10Parser.ParseResultState.UNRECOGNIZED_FORMAT, reader.read("not a csr".getBytes()).state());
+        var certificate = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.replace("CERTIFICATE REQUEST", "CERTIFICATE");
+        assertEquals(PKCS10Parser.ParseResultState.UNRECOGNIZED_FORMAT, reader.read(certificate.getBytes()).state());
+        // a SEQUENCE whose declared length exceeds the upload
+        assertEquals(PKCS10Parser.ParseResultState.MALFORMED, reader.read(new byte[]{0x30, 0x10, 0x02}).state());
+    }
+
+    @Test
+    void oversizedUploadsAreRejectedEarly() throws IOException {
+        assertEquals(PKCS10Parser.ParseResultState.TOO_LARGE,
+                reader.read(InputStream.nullInputStream(), DataSize.ofMegabytes(8).toBytes()).state());
+        var stream = new ByteArrayInputStream(new byte[(int) DataSize.ofMegabytes(8).toBytes()]);
+        assertEquals(PKCS10Parser.ParseResultState.TOO_LARGE, reader.read(stream, -1).state());
+        // only one byte more than the maximum CSR size was consumed
+        assertEquals(DataSize.ofMegabytes(8).toBytes() - DataSize.ofKilobytes(64).toBytes() - 1, stream.available());
+    }
+
+    @Test
+    void allocationPerRequestIsBounded() throws IOException {
+        var pem = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes();
+        var oversized = new byte[(int) DataSize.ofMegabytes(8).toBytes()];
+        // warm up the buffer pool and the JIT
+        for (int i = 0; i < 1000; i++) {
+            reader.read(new ByteArrayInputStream(pem), -1);
+            reader.read(new ByteArrayInputStream(oversized), -1);
+        }
+
+        int iterations = 1000;
+        long before = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            reader.read(new ByteArrayInputStream(pem), -1);
+        }
+        long perAcceptedRequest = (threadMXBean.getCurrentThreadAllocatedBytes() - before) / iterations;
+
+        before = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            reader.read(new ByteArrayInputStream(oversized), -1);
+        }
+        long perRejectedRequest = (threadMXBean.getCurrentThreadAllocatedBytes() - before) / iterations;
+
+        // the DER copy of the 720 byte request, the stream and the result, but none of the 64KB buffers
+        assertTrue(perAcceptedRequest < 2048, "allocated " + perAcceptedRequest + " bytes per accepted request");
+        assertTrue(perRejectedRequest < 512, "allocated " + perRejectedRequest + " bytes per rejected request");
+    }
+}
@@ -1,63 +1,318 @@
 package com.vonberg.csrviewer;
 
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.jayway.jsonpath.JsonPath;
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.web.context.WebApplicationContext;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest(
-        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "csrviewer.audit.enabled=true"
 )
-class CsrViewerControllerTests {
+class CsrViewerControllerTests extends AbstractCsrViewerControllerTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
 
     private MockMvc mockMvc;
 
+    private CsrAuditLog auditLog;
+
     @BeforeEach
     public void setUp(WebApplicationContext context) {
         this.mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+        this.auditLog = context.getBean(CsrAuditLog.class);
     }
 
-    @Test
-    public void testGetForm() throws Exception {
-        var response = mockMvc.perform(get("/form"))
+    @Override
+    String getForm() throws Exception {
+        return mockMvc.perform(get("/form"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType("text/html;charset=UTF-8"))
                 .andReturn()
                 .getResponse()
                 .getContentAsString();
-        Document document = Jsoup.parse(response);
-        assertEquals("/submit-csr", document.select("#csr").attr("hx-post"));
+    }
+
+    @Override
+    String submit(byte[] content) throws Exception {
+        var upload = new MockMultipartFile("csr-file", "sample.csr", "application/pkcs10", content);
+        return mockMvc.perform(
+                MockMvcRequestBuilders
+                        .multipart("/submit-csr")
+                        .file(upload)
+                        .contentType("multipart/form-data")
+                ).andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+    }
+
+    @Test
+    public void testFormIsPrerendered() throws Exception {
+        var plain = mockMvc.perform(get("/form"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andReturn()
+                .getResponse();
+        var gzip = mockMvc.perform(get("/form").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate, br"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn()
+                .getResponse();
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(gzip.getContentAsByteArray()))) {
+            assertArrayEquals(plain.getContentAsByteArray(), in.readAllBytes());
+        }
+        assertTrue(Jsoup.parse(plain.getContentAsString()).select("link").attr("href").startsWith("/"));
+        assertNotEquals(plain.getHeader(HttpHeaders.ETAG), gzip.getHeader(HttpHeaders.ETAG));
+
+        mockMvc.perform(get("/form").header(HttpHeaders.IF_NONE_MATCH, plain.getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void testBulkSubmitIsolatesErrors() throws Exception {
+        var bundle = SampleCsrData.SAMPLE_CSR_WIKIPEDIA + "\n" + SampleCsrData.SAMPLE_CSR_WIKIPEDIA + "\n";
+        MockMultipartFile bundleUpload = new MockMultipartFile("csr-files", "bundle.pem", "application/pkcs10", bundle.getBytes());
+        MockMultipartFile junkUpload = new MockMultipartFile("csr-files", "junk.csr", "application/pkcs10", "not a csr".getBytes());
+        mockMvc.perform(
+                MockMvcRequestBuilders
+                        .multipart("/api/csr/bulk")
+                        .file(bundleUpload)
+                        .file(junkUpload)
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].source").value("bundle.pem"))
+                .andExpect(jsonPath("$[1].index").value(1))
+                .andExpect(jsonPath("$[1].validationState").value("VALID"))
+                .andExpect(jsonPath("$[1].signatureAlgorithm").value("MD5WITHRSA"))
+                .andExpect(jsonPath("$[2].source").value("junk.csr"))
+                .andExpect(jsonPath("$[2].parseState").value("UNRECOGNIZED_FORMAT"));
+    }
+
+    @Test
+    public void testOnlyBulkUploadsMayBeLarge() {
+        var padded = (SampleCsrData.SAMPLE_CSR_WIKIPEDIA + "\n" + " ".repeat(2 * 1024 * 1024)).getBytes();
+        var upload = new ByteArrayResource(padded) {
+            @Override
+            public String getFilename() {
+                return "padded.pem";
+            }
+        };
+        var headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+
+        var bulk = new LinkedMultiValueMap<String, Object>();
+        bulk.add("csr-files", upload);
+        var bulkResponse = restTemplate.postForEntity("/api/csr/bulk", new HttpEntity<>(bulk, headers), String.class);
+        assertEquals(HttpStatus.OK, bulkResponse.getStatusCode());
+        assertEquals("VALID", JsonPath.read(bulkResponse.getBody(), "$[0].validationState"));
+
+        var single = new LinkedMultiValueMap<String, Object>();
+        single.add("csr-file", upload);
+        var singleResponse = restTemplate.postForEntity("/api/csr", new HttpEntity<>(single, headers), String.class);
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, singleResponse.getStatusCode());
+    }
+
+    @Test
+    public void testBulkSubmitStreamsNdjson() throws Exception {
+        var bundle = SampleCsrData.SAMPLE_CSR_WIKIPEDIA + "\n" + SampleCsrData.SAMPLE_CSR_WIKIPEDIA;
+        MockMultipartFile bundleUpload = new MockMultipartFile("csr-files", "bundle.pem", "application/pkcs10", bundle.getBytes());
+        var asyncResult = mockMvc.perform(
+                MockMvcRequestBuilders
+                        .multipart("/api/csr/bulk")
+                        .file(bundleUpload)
+                        .accept(MediaType.APPLICATION_NDJSON)
+                ).andExpect(request().asyncStarted())
+                .andReturn();
+        var response = mockMvc.perform(asyncDispatch(asyncResult))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+        var lines = response.lines().toList();
+        assertEquals(2, lines.size());
+        assertTrue(lines.stream().allMatch(line -> line.contains("\"validationState\":\"VALID\"")));
     }
 
     @Test
-    public void testSubmitCsr() throws Exception {
+    public void testApiReportsJsonAndCbor() throws Exception {
         MockMultipartFile pemUpload = new MockMultipartFile("csr-file", "sample.csr", "application/pkcs10", SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes());
-        var response = mockMvc.perform(
+        var jsonResponse = mockMvc.perform(
                 MockMvcRequestBuilders
-                        .multipart("/submit-csr")
+                        .multipart("/api/csr")
                         .file(pemUpload)
-                        .contentType("multipart/form-data")
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andExpect(status().isOk())
+                .andExpect(jsonPath("$.parseState").value("SUCCESS"))
+                .andExpect(jsonPath("$.validationState").value("VALID"))
+                .andExpect(jsonPath("$.keyFindings").isArray())
+                .andExpect(jsonPath("$.signatureAlgorithm").value("MD5WITHRSA"))
+                .andExpect(jsonPath("$.keyAlgorithm").value("RSA"))
+                .andExpect(jsonPath("$.keySize").value(2048))
+                .andExpect(jsonPath("$.subjectRDNs[5].CN").value("*.wikipedia.org"))
+                .andExpect(jsonPath("$.subjectAltNames.length()").value(0))
+                .andReturn()
+                .getResponse();
+        var sha256 = JsonPath.read(jsonResponse.getContentAsString(), "$.sha256").toString();
+        assertEquals("W/\"" + sha256 + "\"", jsonResponse.getHeader(HttpHeaders.ETAG));
+
+        var cborResponse = mockMvc.perform(
+                MockMvcRequestBuilders
+                        .post("/api/csr")
+                        .contentType("application/pkcs10")
+                        .content(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes())
+                        .accept(MediaType.APPLICATION_CBOR)
+                ).andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn()
+                .getResponse()
+                .getContentAsByteArray();
+        var report = new CBORMapper().readTree(cborResponse);
+        assertEquals(sha256, report.get("sha256").asText());
+        assertEquals("VALID", report.get("validationState").asText());
+    }
+
+    @Test
+    public void testApiConditionalGet() throws Exception {
+        var sha256 = JsonPath.read(mockMvc.perform(
+                MockMvcRequestBuilders
+                        .post("/api/csr")
+                        .contentType("application/pkcs10")
+                        .content(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes())
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andReturn().getResponse().getContentAsString(), "$.sha256").toString();
+        var eTag = mockMvc.perform(get("/api/csr/" + sha256).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sha256").value(sha256))
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/api/csr/" + sha256).accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        // a report of fewer sections has a tag of its own, which does not match the full report
+        var subjectETag = mockMvc.perform(get("/api/csr/" + sha256 + "?sections=subject").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.validationState").doesNotExist())
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+        assertNotEquals(eTag, subjectETag);
+        mockMvc.perform(get("/api/csr/" + sha256 + "?sections=subject").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, subjectETag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/csr/" + sha256).accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, subjectETag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.validationState").value("VALID"));
+        mockMvc.perform(get("/api/csr/" + "0".repeat(64)).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testApiRejectsJunk() throws Exception {
+        mockMvc.perform(
+                MockMvcRequestBuilders
+                        .post("/api/csr")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("not a csr")
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.parseState").value("UNRECOGNIZED_FORMAT"))
+                .andExpect(jsonPath("$.sha256").doesNotExist());
+    }
+
+    @Test
+    public void testApiReportsRequestedSections() throws Exception {
+        mockMvc.perform(
+                MockMvcRequestBuilders
+                        .post("/api/csr?sections=subject,subject-alt-names")
+                        .contentType("application/pkcs10")
+                        .content(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes())
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andExpect(status().isOk())
+                .andExpect(jsonPath("$.subject").value("C=EN,ST=none,L=none,O=Wikipedia,OU=none,CN=*.wikipedia.org,E=none@none.com"))
+                .andExpect(jsonPath("$.validationState").doesNotExist())
+                .andExpect(jsonPath("$.keySize").doesNotExist())
+                .andExpect(jsonPath("$.keyFindings").doesNotExist());
+        mockMvc.perform(
+                MockMvcRequestBuilders
+                        .post("/api/csr?sections=key-info")
+                        .contentType("application/pkcs10")
+                        .content(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes())
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andExpect(status().isOk())
+                .andExpect(jsonPath("$.keySize").value(2048))
+                .andExpect(jsonPath("$.keyFindings").isArray())
+                .andExpect(jsonPath("$.validationState").doesNotExist());
+        mockMvc.perform(
+                MockMvcRequestBuilders
+                        .post("/api/csr?sections=issuer")
+                        .contentType("application/pkcs10")
+                        .content(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes())
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testInspectedRequestsAreAudited() throws Exception {
+        var report = mockMvc.perform(
+                MockMvcRequestBuilders
+                        .post("/api/csr")
+                        .contentType("application/pkcs10")
+                        .content(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes())
+                        .accept(MediaType.APPLICATION_JSON)
                 ).andExpect(status().isOk())
                 .andReturn()
                 .getResponse()
                 .getContentAsString();
-        var document = Jsoup.parse(response);
-        System.out.println(document);
-        assertEquals("EN", document.getElementsByAttributeValue("data-testid", "subject-name-value-C").text());
-        assertEquals("MD5WITHRSA", document.getElementsByAttributeValue("data-testid", "signature-algorithm").text());
-        assertTrue(document.getElementsByAttributeValue("data-testid", "validation-success-notice").size() >= 1);
+        String sha256 = JsonPath.read(report, "$.sha256");
+        String spkiSha256 = JsonPath.read(report, "$.spkiSha256");
+        assertTrue(auditLog.flush(Duration.ofSeconds(10)));
+
+        mockMvc.perform(get(CsrAuditController.SEARCH_PATH + "?spki=" + spkiSha256 + "&cn=*.wikipedia.org&since=PT1M&limit=1")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.records[0].sha256").value(sha256))
+                .andExpect(jsonPath("$.records[0].validationState").value("VALID"))
+                .andExpect(jsonPath("$.records[0].keySize").value(2048));
+        mockMvc.perform(get(CsrAuditController.SEARCH_PATH + "?spki=not-a-hash").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get(CsrAuditController.SEARCH_PATH + "?since=yesterday").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
     }
 }
@@ -0,0 +1,198 @@
+package com.vonberg.csrviewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Attribute;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares throughput and tail latency of the platform thread and the virtual thread execution modes with many
+ * concurrent, slow uploads to /submit-csr. Excluded from the regular test run; run with {@code ./gradlew loadTest},
+ * on Java 21 to include the virtual thread mode, e.g. with {@code -PloadTestJava=21}.
+ * <p>
+ * The load can be adjusted with the system properties loadtest.concurrency (default 1000), loadtest.requests
+ * (default 5000) and loadtest.upload-delay-ms, the pause between the chunks of each upload (default 5).
+ */
+@Tag("load")
+class ExecutionModeLoadTests {
+
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 1000);
+    private static final int REQUESTS = Integer.getInteger("loadtest.requests", 5000);
+    private static final int UPLOAD_DELAY_MS = Integer.getInteger("loadtest.upload-delay-ms", 5);
+    private static final int UPLOAD_CHUNK_SIZE = 256;
+    private static final String BOUNDARY = "csrviewer-load-test";
+
+    record LoadResult(String mode, int requests, int failures, double seconds, long[] latenciesNanos) {
+        double throughput() {
+            return requests / seconds;
+        }
+
+        double percentileMillis(double percentile) {
+            int index = (int) Math.ceil(percentile / 100 * latenciesNanos.length) - 1;
+            return latenciesNanos[Math.max(index, 0)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-9s %7d req %5d failed %9.1f req/s   p50 %8.2f ms   p99 %8.2f ms   p99.9 %8.2f ms",
+                    mode, requests, failures, throughput(), percentileMillis(50), percentileMillis(99), percentileMillis(99.9));
+        }
+    }
+
+    @Test
+    void compareExecutionModes() throws Exception {
+        var uploads = buildUploads(16);
+        List<LoadResult> results = new ArrayList<>();
+        results.add(run(false, uploads));
+        if (Runtime.version().feature() >= 21) {
+            results.add(run(true, uploads));
+        } else {
+            System.out.println("Skipping the virtual thread mode, it requires Java 21 but this is Java " + Runtime.version());
+        }
+        System.out.printf("%d uploads, %d concurrent, %d ms between chunks of %d bytes%n",
+                REQUESTS, CONCURRENCY, UPLOAD_DELAY_MS, UPLOAD_CHUNK_SIZE);
+        results.forEach(System.out::println);
+        for (var result : results) {
+            assertEquals(0, result.failures(), "failed requests in mode " + result.mode());
+        }
+    }
+
+    private LoadResult run(boolean virtualThreads, List<byte[]> uploads) throws Exception {
+        // arguments, since default properties would not override application.properties
+        try (var context = new SpringApplicationBuilder(CsrViewerApplication.class)
+                .run("--server.port=0",
+                        "--csrviewer.virtual-threads.enabled=" + virtualThreads,
+                        // every upload should be parsed and verified
+                        "--csrviewer.cache.enabled=false",
+                        // all uploads come from a single client
+                        "--csrviewer.rate-limit.enabled=false",
+                        "--logging.level.root=WARN")) {
+            int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            return drive(virtualThreads ? "virtual" : "platform", URI.create("http://localhost:" + port + "/submit-csr"), uploads);
+        }
+    }
+
+    private LoadResult drive(String mode, URI uri, List<byte[]> uploads) throws Exception {
+        var clientExecutor = clientExecutor();
+        var client = HttpClient.newBuilder().executor(clientExecutor).build();
+        var inFlight = new Semaphore(CONCURRENCY);
+        var failures = new AtomicInteger();
+        var completed = new AtomicInteger();
+        long[] latencies = new long[REQUESTS];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            inFlight.acquire();
+            final int index = i;
+            final byte[] body = uploads.get(i % uploads.size());
+            var request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                    .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new SlowInputStream(body)))
+                    .build();
+            long requestStart = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                latencies[index] = System.nanoTime() - requestStart;
+                if (error != null || response.statusCode() != 200) {
+                    failures.incrementAndGet();
+                }
+                completed.incrementAndGet();
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(CONCURRENCY);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        clientExecutor.shutdown();
+        clientExecutor.awaitTermination(10, TimeUnit.SECONDS);
+
+        Arrays.sort(latencies);
+        return new LoadResult(mode, completed.get(), failures.get(), seconds, latencies);
+    }
+
+    /**
+     * The client needs one thread per slow upload, which are virtual threads when available.
+     */
+    private static ExecutorService clientExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static List<byte[]> buildUploads(int count) throws Exception {
+        List<byte[]> uploads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            var request = TestCsrBuilder.buildCSR(new X500Name("CN=load" + i + ".example.com"), "RSA", "SHA256withRSA",
+                    2048, new Attribute[0]).request();
+            var pem = new StringWriter();
+            try (var writer = new JcaPEMWriter(pem)) {
+                writer.writeObject(request);
+            }
+            var body = new ByteArrayOutputStream();
+            body.writeBytes(("--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"csr-file\"; filename=\"load" + i + ".csr\"\r\n"
+                    + "Content-Type: application/pkcs10\r\n\r\n").getBytes());
+            body.writeBytes(pem.toString().getBytes());
+            body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes());
+            uploads.add(body.toByteArray());
+        }
+        return uploads;
+    }
+
+    /**
+     * Delivers the upload in chunks with a pause before each chunk, like a client on a slow connection.
+     */
+    private static class SlowInputStream extends InputStream {
+        private final byte[] bytes;
+        private int position;
+
+        SlowInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (position >= bytes.length) {
+                return -1;
+            }
+            try {
+                Thread.sleep(UPLOAD_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            int count = Math.min(Math.min(length, UPLOAD_CHUNK_SIZE), bytes.length - position);
+            System.arraycopy(bytes, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.vonberg.csrviewer;
+
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.RSAPublicKey;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.PKCS10CertificationRequestBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KeyAnalyzerUnitTests {
+
+    private static final BigInteger EXPONENT = BigInteger.valueOf(65537);
+
+    private SimpleMeterRegistry registry;
+    private KeyAnalyzer analyzer;
+    private CsrInspectionService service;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        analyzer = new KeyAnalyzer(registry, 2048, 1000, 1000, 2, Duration.ofMillis(500), 64, 2);
+        service = new CsrInspectionService(new CsrUploadReader(DataSize.ofKilobytes(64), 4), CsrMetrics.noop(),
+                null, null, analyzer, null, true, 100, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        analyzer.destroy();
+    }
+
+    /**
+     * @return a request for the given RSA modulus, signed with an unrelated key since the analyzer does not care
+     */
+    private static byte[] request(String commonName, BigInteger modulus) throws Exception {
+        var keyInfo = new SubjectPublicKeyInfo(new AlgorithmIdentifier(PKCSObjectIdentifiers.rsaEncryption),
+                new RSAPublicKey(modulus, EXPONENT));
+        var generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        var signer = new JcaContentSignerBuilder("SHA256withECDSA").build(generator.generateKeyPair().getPrivate());
+        return new PKCS10CertificationRequestBuilder(new X500Name("CN=" + commonName), keyInfo)
+                .build(signer)
+                .getEncoded();
+    }
+
+    /**
+     * @return a modulus of exactly the given size with the given factor, random otherwise
+     */
+    private static BigInteger modulus(int size, BigInteger factor, Random random) {
+        while (true) {
+            var modulus = factor.multiply(BigInteger.probablePrime(size - factor.bitLength(), random));
+            if (modulus.bitLength() == size) {
+                return modulus;
+            }
+        }
+    }
+
+    private static BigInteger modulus(int size, Random random) {
+        return modulus(size, BigInteger.probablePrime(size / 2, random), random);
+    }
+
+    private Set<KeyAnalyzer.Finding> findings(byte[] request) {
+        return service.inspect(request).keyFindings();
+    }
+
+    @Test
+    void flagsReusedKeys() throws Exception {
+        var modulus = modulus(2048, new SecureRandom());
+        var first = request("first.example.com", modulus);
+        assertEquals(Set.of(), findings(first));
+        assertEquals(Set.of(KeyAnalyzer.Finding.REUSED_KEY), findings(request("second.example.com", modulus)));
+        // the same request again is not a reuse
+        assertEquals(Set.of(), findings(first));
+        assertEquals(Set.of(), findings(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes()));
+        assertEquals(1, registry.get(KeyAnalyzer.FINDING_COUNTER).tag("finding", "REUSED_KEY").counter().count());
+    }
+
+    @Test
+    void flagsWeakModuli() throws Exception {
+        var random = new SecureRandom();
+        var shared = BigInteger.probablePrime(1024, random);
+        var even = modulus(2048, random).add(BigInteger.ONE);
+        assertEquals(Set.of(KeyAnalyzer.Finding.SMALL_FACTOR), findings(request("even.example.com", even)));
+        // the small modulus and a are checked together, b against them, and c and d against both batches; the
+        // requests are built first, so that a follows the small modulus well within the batch interval
+        var small = request("small.example.com", modulus(1024, random));
+        var a = request("a.example.com", modulus(2048, shared, random));
+        var b = request("b.example.com", modulus(2048, shared, random));
+        var c = request("c.example.com", modulus(2048, shared, random));
+        var d = request("d.example.com", modulus(2048, random));
+        assertEquals(Set.of(KeyAnalyzer.Finding.SMALL_MODULUS), findings(small));
+        assertEquals(Set.of(), findings(a));
+        assertEquals(Set.of(), findings(b));
+        assertTrue(analyzer.flush(Duration.ofSeconds(10)));
+        assertEquals(Set.of(KeyAnalyzer.Finding.SHARED_FACTOR), findings(a));
+        assertEquals(Set.of(KeyAnalyzer.Finding.SHARED_FACTOR), findings(b));
+        assertEquals(Set.of(), findings(c));
+        assertEquals(Set.of(), findings(d));
+        assertTrue(analyzer.flush(Duration.ofSeconds(10)));
+        assertEquals(Set.of(KeyAnalyzer.Finding.SHARED_FACTOR), findings(c));
+        assertEquals(Set.of(), findings(d));
+        assertEquals(3, registry.get(KeyAnalyzer.FINDING_COUNTER).tag("finding", "SHARED_FACTOR").counter().count());
+    }
+
+    @Test
+    void batchGcdFindsSharedFactorsInParallel() {
+        var random = new Random(42);
+        var primes = new ArrayList<BigInteger>();
+        for (int i = 0; i < 400; i++) {
+            primes.add(BigInteger.probablePrime(128, random));
+        }
+        // moduli 10 and 70 share a prime, 50 shares one with the other set
+        var moduli = new BigInteger[100];
+        var expected = new boolean[moduli.length];
+        for (int i = 0; i < moduli.length; i++) {
+            moduli[i] = primes.get(2 * i).multiply(primes.get(2 * i + 1));
+        }
+        moduli[70] = primes.get(20).multiply(primes.get(399));
+        expected[10] = expected[70] = true;
+        var other = primes.get(300).multiply(primes.get(301)).multiply(primes.get(101)).multiply(primes.get(398));
+        var otherExpected = new boolean[moduli.length];
+        otherExpected[50] = true;
+
+        var pool = new ForkJoinPool(4);
+        try {
+            var tree = pool.invoke(BatchGcd.productTree(moduli));
+            assertEquals(0, tree.lo());
+            assertEquals(moduli.length, tree.hi());
+            assertArrayEquals(expected, pool.invoke(BatchGcd.sharedFactors(tree, moduli)));
+            assertArrayEquals(otherExpected, pool.invoke(BatchGcd.factorsIn(tree, moduli, other)));
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(KeyAnalyzer.hasSmallFactor(BigInteger.valueOf(997).multiply(primes.get(0))));
+        assertFalse(KeyAnalyzer.hasSmallFactor(moduli[0]));
+    }
+
+    @Test
+    void fingerprintTableGrowsUpToItsMaximumSize() {
+        var table = new FingerprintTable(5000);
+        var random = new Random(7);
+        var keys = random.longs(6000).toArray();
+        keys[0] = 0;
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i < 5000, table.add(keys[i], i));
+        }
+        assertTrue(table.full());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i < 5000 ? i : -1, table.firstRequest(keys[i], -1));
+            assertFalse(table.add(keys[i], -2));
+        }
+    }
+}
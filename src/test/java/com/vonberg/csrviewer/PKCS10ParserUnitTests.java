@@ -1,10 +1,36 @@
 package com.vonberg.csrviewer;
 
+import java.math.BigInteger;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERPrintableString;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.pkcs.CertificationRequest;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.RSASSAPSSparams;
 import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Attribute;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.DefaultAlgorithmNameFinder;
-import org.junit.jupiter.api.Disabled;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -13,10 +39,38 @@ public class PKCS10ParserUnitTests {
 
     private static final DefaultAlgorithmNameFinder finder = new DefaultAlgorithmNameFinder();
 
+    @BeforeAll
+    static void registerProvider() {
+        // the JCA providers of the JDK don't know the BouncyCastle names of RSASSA-PSS signature algorithms
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
     @Test
     void parseCSRFromByteArrayTest() {
         var result = PKCS10Parser.parseCSRFromByteArray("This is not a valid Certificate Signing Request".getBytes());
-        assertEquals(result.state, PKCS10Parser.ParseResultState.ERROR);
+        assertEquals(result.state, PKCS10Parser.ParseResultState.UNRECOGNIZED_FORMAT);
+    }
+
+    @Test
+    void parseDerTest() throws Exception {
+        var der = PKCS10Parser.parseCSRFromByteArray(SampleCsrData.SAMPLE_CSR_WIKIPEDIA.getBytes()).request.getEncoded();
+        var result = PKCS10Parser.parseCSRFromByteArray(der);
+        assertEquals(PKCS10Parser.ParseResultState.SUCCESS, result.state);
+        assertEquals("C=EN,ST=none,L=none,O=Wikipedia,OU=none,CN=*.wikipedia.org,E=none@none.com", result.request.getSubject().toString());
+    }
+
+    @Test
+    void malformedRequestTest() {
+        // a complete SEQUENCE that is not a certificate signing request
+        var sequence = new byte[]{0x30, 0x03, 0x02, 0x01, 0x00};
+        assertEquals(PKCS10Parser.ParseResultState.MALFORMED, PKCS10Parser.parseCSRFromByteArray(sequence).state);
+        // PEM armour without an end line
+        var truncated = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.substring(0, SampleCsrData.SAMPLE_CSR_WIKIPEDIA.indexOf("-----END"));
+        assertEquals(PKCS10Parser.ParseResultState.MALFORMED, PKCS10Parser.parseCSRFromByteArray(truncated.getBytes()).state);
+        // PEM armour around base64 that was cut short
+        var lines = SampleCsrData.SAMPLE_CSR_WIKIPEDIA.split("\n");
+        var shortened = lines[0] + "\n" + lines[1] + "\n" + lines[lines.length - 1];
+        assertEquals(PKCS10Parser.ParseResultState.MALFORMED, PKCS10Parser.parseCSRFromByteArray(shortened.getBytes()).state);
     }
 
     @Test
@@ -29,11 +83,137 @@ public class PKCS10ParserUnitTests {
         assertNull(result.request.getRequestedExtensions());
     }
 
-    @Disabled
+    @Test
+    void splitPemBundleTest() {
+        var bundle = "leading text\n" + SampleCsrData.SAMPLE_CSR_WIKIPEDIA + "\n" + SampleCsrData.SAMPLE_CSR_WIKIPEDIA;
+        var blocks = PKCS10Parser.splitPemBundle(bundle.getBytes());
+        assertEquals(2, blocks.size());
+        for (var block : blocks) {
+            assertEquals(SampleCsrData.SAMPLE_CSR_WIKIPEDIA, new String(block));
+        }
+        var binary = new byte[]{0x30, 0x03, 0x02, 0x01, 0x00};
+        assertEquals(1, PKCS10Parser.splitPemBundle(binary).size());
+    }
+
     @ParameterizedTest
-    void buildAndValidateSignature(X500Name subjectName, String signatureAlgorithm) {
-        // TODO
+    @CsvSource({
+            "RSA, SHA256withRSA, 2048",
+            "RSA, SHA256withRSAandMGF1, 2048",
+            "EC, SHA256withECDSA, 256",
+            "EC, SHA384withECDSA, 384",
+            "Ed25519, Ed25519, 255",
+            "Ed448, Ed448, 448"
+    })
+    void buildAndValidateSignature(String keyAlgorithm, String signatureAlgorithm, int keySize) throws Exception {
+        var subjectName = new X500Name("C=DE,O=CSR Viewer,CN=test.example.com");
+        var request = TestCsrBuilder.buildCSR(subjectName, keyAlgorithm, signatureAlgorithm, keySize, new Attribute[0]).request();
+        CertificateSigningRequestAssert.assertThat(request)
+                .subjectNameToStringEquals("C=DE,O=CSR Viewer,CN=test.example.com")
+                .signatureIsValid();
+
+        var signature = request.getSignature();
+        signature[signature.length / 2] ^= 0x01;
+        var tampered = new PKCS10CertificationRequest(new CertificationRequest(
+                request.toASN1Structure().getCertificationRequestInfo(),
+                request.getSignatureAlgorithm(),
+                new DERBitString(signature)));
+        CertificateSigningRequestAssert.assertThat(tampered)
+                .signatureIsInvalid()
+                .signatureValidationResultDoesNotEqual(PKCS10Parser.ValidationResultState.UNKNOWN_ALGORITHM);
     }
 
+    @Test
+    void mismatchedKeyAndSignatureAlgorithmTest() throws Exception {
+        var rsa = TestCsrBuilder.buildCSR(new X500Name("CN=rsa"), "RSA", "SHA256withRSA", 2048, new Attribute[0]).request();
+        var ec = TestCsrBuilder.buildCSR(new X500Name("CN=ec"), "EC", "SHA256withECDSA", 256, new Attribute[0]).request();
+        // an ECDSA signature algorithm on a request with an RSA key
+        var mismatched = new PKCS10CertificationRequest(new CertificationRequest(
+                rsa.toASN1Structure().getCertificationRequestInfo(),
+                ec.getSignatureAlgorithm(),
+                new DERBitString(ec.getSignature())));
+        CertificateSigningRequestAssert.assertThat(mismatched)
+                .signatureValidationResultEquals(PKCS10Parser.ValidationResultState.INVALID_SIGNATURE);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "1, 2147483648, false",
+            "1, -1, false",
+            "99999999999999999999, 32, false",
+            "1, 32, true"
+    })
+    void malformedPssParametersTest(String trailerField, String saltLength, boolean unsupportedMaskGeneration)
+            throws Exception {
+        var request = TestCsrBuilder.buildCSR(new X500Name("CN=pss"), "RSA", "SHA256withRSAandMGF1", 2048,
+                new Attribute[0]).request();
+        var params = RSASSAPSSparams.getInstance(request.getSignatureAlgorithm().getParameters());
+        var maskGeneration = unsupportedMaskGeneration
+                ? new AlgorithmIdentifier(new ASN1ObjectIdentifier("1.2.3.4"), params.getHashAlgorithm())
+                : params.getMaskGenAlgorithm();
+        var malformed = new PKCS10CertificationRequest(new CertificationRequest(
+                request.toASN1Structure().getCertificationRequestInfo(),
+                new AlgorithmIdentifier(PKCSObjectIdentifiers.id_RSASSA_PSS, new RSASSAPSSparams(
+                        params.getHashAlgorithm(), maskGeneration,
+                        new ASN1Integer(new BigInteger(saltLength)), new ASN1Integer(new BigInteger(trailerField)))),
+                new DERBitString(request.getSignature())));
+        CertificateSigningRequestAssert.assertThat(malformed)
+                .signatureValidationResultEquals(PKCS10Parser.ValidationResultState.MALFORMED_SIGNATURE);
+    }
+
+    @Test
+    void decodeExtensionsTest() throws Exception {
+        var extensions = new ExtensionsGenerator();
+        extensions.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment));
+        extensions.addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(new KeyPurposeId[]{
+                KeyPurposeId.id_kp_serverAuth, KeyPurposeId.getInstance(new ASN1ObjectIdentifier("1.3.6.1.4.1.99999.1"))}));
+        extensions.addExtension(Extension.basicConstraints, true, new BasicConstraints(0));
+        extensions.addExtension(new ASN1ObjectIdentifier("1.3.6.1.4.1.99999.2"), false, new DEROctetString(new byte[]{1, 2}));
+        var request = TestCsrBuilder.buildCSR(new X500Name("CN=extensions"), "EC", "SHA256withECDSA", 256, new Attribute[]{
+                new Attribute(PKCSObjectIdentifiers.pkcs_9_at_challengePassword, new DERSet(new DERPrintableString("secret"))),
+                new Attribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, new DERSet(extensions.generate()))
+        }).request();
+
+        // the request has extensions but no subjectAltName extension
+        CertificateSigningRequestAssert.assertThat(request).hasNoAltNames();
+
+        var decoded = CsrExtensions.decode(request);
+        assertEquals(List.of(
+                new CsrExtensions.Decoded("1.2.840.113549.1.9.7", "challengePassword", false, List.of(CsrExtensions.HIDDEN)),
+                new CsrExtensions.Decoded("2.5.29.15", "keyUsage", true, List.of("digitalSignature", "keyEncipherment")),
+                new CsrExtensions.Decoded("2.5.29.37", "extendedKeyUsage", false, List.of("serverAuth", "1.3.6.1.4.1.99999.1")),
+                new CsrExtensions.Decoded("2.5.29.19", "basicConstraints", true, List.of("CA:TRUE", "pathlen:0")),
+                new CsrExtensions.Decoded("1.3.6.1.4.1.99999.2", "1.3.6.1.4.1.99999.2", false, List.of("04020102"))
+        ), decoded);
+    }
+
+    @Test
+    void decodeMalformedExtensionTest() {
+        var extensions = new Extensions(new Extension(Extension.keyUsage, false, new DEROctetString(new byte[]{0x05, 0x00})));
+        assertEquals(List.of(new CsrExtensions.Decoded("2.5.29.15", "keyUsage", false, List.of(CsrExtensions.MALFORMED + "0500"))),
+                CsrExtensions.decode(extensions));
+    }
+
+    @Test
+    void malformedAltNamesTest() throws Exception {
+        var extensions = new ExtensionsGenerator();
+        extensions.addExtension(Extension.subjectAlternativeName, false, new ASN1Integer(5));
+        var request = TestCsrBuilder.buildCSR(new X500Name("CN=malformed"), "EC", "SHA256withECDSA", 256, new Attribute[]{
+                new Attribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, new DERSet(extensions.generate()))
+        }).request();
+
+        CertificateSigningRequestAssert.assertThat(request).hasNoAltNames();
+        assertEquals(0, CsrInspection.inspect(request.getEncoded()).subjectAltNames().length);
+        assertEquals(List.of(new CsrExtensions.Decoded("2.5.29.17", "subjectAltName", false,
+                List.of(CsrExtensions.MALFORMED + "020105"))), CsrExtensions.decode(request));
+    }
+
+    @Test
+    void mapSubjectTest() {
+        var subject = new X500Name("C=EN,CN=*.wikipedia.org,E=none@none.com,1.3.6.1.4.1.99999.3=other");
+        var rdns = new ArrayList<String>();
+        PKCS10Parser.getMappingOfX500NameComponents(subject).forEach(rdn -> rdns.addAll(rdn.keySet()));
+        assertEquals(List.of("C", "CN", "E", "1.3.6.1.4.1.99999.3"), rdns);
+        assertEquals("commonName", PKCS10Parser.FULL_ATTRIBUTE_TYPE_NAMES.get("CN"));
+    }
 
 }
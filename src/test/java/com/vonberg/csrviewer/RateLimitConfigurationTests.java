@@ -0,0 +1,19 @@
+package com.vonberg.csrviewer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RateLimitConfigurationTests {
+
+    @Test
+    void startsWithRateLimitingDisabled() {
+        // component scanning registers the nested configurations on their own, so they need the condition as well
+        try (var context = new SpringApplicationBuilder(CsrViewerApplication.class)
+                .run("--server.port=0", "--csrviewer.rate-limit.enabled=false", "--logging.level.root=WARN")) {
+            assertEquals(0, context.getBeanNamesForType(ClientRateLimiter.class).length);
+            assertEquals(0, context.getBeanNamesForType(RateLimitConfiguration.ServletRateLimitConfiguration.class).length);
+        }
+    }
+}
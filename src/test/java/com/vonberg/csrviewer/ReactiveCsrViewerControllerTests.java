@@ -0,0 +1,65 @@
+package com.vonberg.csrviewer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The tests of the frontend shared with {@link CsrViewerControllerTests}, run against the reactive stack, and the
+ * checks that only apply to it.
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.main.web-application-type=reactive"
+)
+class ReactiveCsrViewerControllerTests extends AbstractCsrViewerControllerTests {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Test
+    public void testReactiveStackIsUsed() {
+        assertEquals(1, context.getBeanNamesForType(ReactiveCsrInfoViewerController.class).length);
+        assertEquals(0, context.getBeanNamesForType(CsrInfoViewerController.class).length);
+    }
+
+    @Override
+    String getForm() {
+        return webTestClient.get().uri("/form")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType("text/html;charset=UTF-8")
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Override
+    String submit(byte[] content) {
+        var multipart = new MultipartBodyBuilder();
+        multipart.part("csr-file", new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return "sample.csr";
+            }
+        }).contentType(MediaType.valueOf("application/pkcs10"));
+        return webTestClient.post().uri("/submit-csr")
+                .body(BodyInserters.fromMultipartData(multipart.build()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+    }
+}
@@ -0,0 +1,376 @@
+package com.vonberg.csrviewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.pkcs.CertificationRequest;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Attribute;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Drives /submit-csr with a fixed mix of uploads and writes throughput, latency percentiles and heap and GC
+ * statistics to build/reports/loadtest/submit-csr.json. Excluded from the regular test run; run with
+ * {@code ./gradlew loadTest}, or with {@code ./gradlew loadTestGate} to also compare the report with the stored
+ * baseline. The application runs in the same JVM on a random port and every upload is generated locally, so no
+ * network access is needed.
+ * <p>
+ * Each kind of upload is a multipart form like the one the browser sends: PEM or DER encoded requests with RSA 2048
+ * or EC P-256 keys, requests with a broken signature and uploads that are not a request at all. The mix is set with
+ * loadtest.submit.mix as kind=weight pairs, by default pem-rsa=30,pem-ec=30,der-rsa=15,der-ec=15,invalid-signature=5,
+ * malformed=5. The schedule of kinds is shuffled with a fixed seed, so every run sends the same sequence. The load is
+ * set with loadtest.submit.concurrency, the number of requests in flight (default 16), loadtest.submit.warmup
+ * (default 2000) and loadtest.submit.requests (default 10000), the number of requests sent before and during the
+ * measurement.
+ * <p>
+ * The heap and GC statistics are those of the whole JVM, which includes the client, and are taken over the
+ * measurement only.
+ */
+@Tag("load")
+class SubmitCsrLoadTests {
+
+    private static final String MIX = System.getProperty("loadtest.submit.mix",
+            "pem-rsa=30,pem-ec=30,der-rsa=15,der-ec=15,invalid-signature=5,malformed=5");
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.submit.concurrency", 16);
+    private static final int WARMUP = Integer.getInteger("loadtest.submit.warmup", 2000);
+    private static final int REQUESTS = Integer.getInteger("loadtest.submit.requests", 10000);
+    private static final Path REPORT = Path.of(System.getProperty("loadtest.report-dir", "build/reports/loadtest"),
+            "submit-csr.json");
+    /**
+     * The number of different uploads of each kind, which are sent in turn.
+     */
+    private static final int UPLOADS_PER_KIND = 16;
+    private static final String BOUNDARY = "csrviewer-load-test";
+
+    /**
+     * A kind of upload and the marker its response has to contain.
+     */
+    enum Kind {
+        PEM_RSA("data-testid=\"validation-success-notice\""),
+        PEM_EC("data-testid=\"validation-success-notice\""),
+        DER_RSA("data-testid=\"validation-success-notice\""),
+        DER_EC("data-testid=\"validation-success-notice\""),
+        INVALID_SIGNATURE("data-testid=\"validation-failure-notice\""),
+        MALFORMED("data-testid=\"failure-notice\"");
+
+        final String expected;
+
+        Kind(String expected) {
+            this.expected = expected;
+        }
+
+        String propertyName() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        static Kind of(String propertyName) {
+            return valueOf(propertyName.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    record Latency(int requests, int failures, double p50, double p99, double p999, double max) {
+        static Latency of(long[] latenciesNanos, int failures) {
+            Arrays.sort(latenciesNanos);
+            return new Latency(latenciesNanos.length, failures, percentileMillis(latenciesNanos, 50),
+                    percentileMillis(latenciesNanos, 99), percentileMillis(latenciesNanos, 99.9),
+                    latenciesNanos.length == 0 ? 0 : latenciesNanos[latenciesNanos.length - 1] / 1e6);
+        }
+
+        private static double percentileMillis(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)] / 1e6;
+        }
+    }
+
+    record Gc(long collections, long timeMillis, Map<String, Long> collectionsByCollector) {
+    }
+
+    record Heap(long peakUsedBytes, long usedAfterBytes, long committedBytes, long maxBytes) {
+    }
+
+    /**
+     * The report, latencies are in milliseconds. loadTestGate compares throughput and latencyMillis with the baseline.
+     */
+    record Report(String endpoint, String javaVersion, int processors, Map<String, Integer> mix, int concurrency,
+                  int warmup, int requests, int failures, double seconds, double throughput, Latency latencyMillis,
+                  Map<String, Latency> latencyMillisByKind, Gc gc, Heap heap) {
+    }
+
+    @Test
+    void submitMixedUploads() throws Exception {
+        var mix = parseMix(MIX);
+        var uploads = buildUploads(mix.keySet());
+        var schedule = schedule(mix, REQUESTS);
+        // arguments, since default properties would not override application.properties
+        try (var context = new SpringApplicationBuilder(CsrViewerApplication.class)
+                .run("--server.port=0",
+                        // every upload should be parsed and verified
+                        "--csrviewer.cache.enabled=false",
+                        // all uploads come from a single client
+                        "--csrviewer.rate-limit.enabled=false",
+                        "--logging.level.root=WARN")) {
+            int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            var uri = URI.create("http://127.0.0.1:" + port + CsrViews.CSR_POST_PATH);
+            var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+            drive(client, uri, uploads, schedule(mix, WARMUP), new long[WARMUP], new boolean[WARMUP]);
+            System.gc();
+
+            var gcBefore = collections();
+            long gcTimeBefore = collectionTimeMillis();
+            heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+            long[] latencies = new long[REQUESTS];
+            boolean[] failed = new boolean[REQUESTS];
+            long start = System.nanoTime();
+            drive(client, uri, uploads, schedule, latencies, failed);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            var report = report(mix, schedule, latencies, failed, seconds, gcBefore, gcTimeBefore);
+            Files.createDirectories(REPORT.getParent());
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(REPORT.toFile(), report);
+            System.out.printf("%d requests, %d concurrent, %d failed: %.1f req/s, p50 %.2f ms, p99 %.2f ms, "
+                            + "p99.9 %.2f ms, %d collections in %d ms, written to %s%n",
+                    report.requests(), CONCURRENCY, report.failures(), report.throughput(),
+                    report.latencyMillis().p50(), report.latencyMillis().p99(), report.latencyMillis().p999(),
+                    report.gc().collections(), report.gc().timeMillis(), REPORT);
+            assertEquals(0, report.failures(), "requests with an error or an unexpected response, see " + REPORT);
+        }
+    }
+
+    /**
+     * Sends the scheduled uploads with at most CONCURRENCY requests in flight and records the latency of each, and
+     * whether it failed with an error or a response without the marker of its kind.
+     */
+    private static void drive(HttpClient client, URI uri, Map<Kind, List<byte[]>> uploads, Kind[] schedule,
+                              long[] latencies, boolean[] failed) throws InterruptedException {
+        var inFlight = new Semaphore(CONCURRENCY);
+        var next = new EnumMap<Kind, Integer>(Kind.class);
+        for (int i = 0; i < schedule.length; i++) {
+            inFlight.acquire();
+            final int index = i;
+            final var kind = schedule[i];
+            int upload = next.merge(kind, 1, Integer::sum);
+            var request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(uploads.get(kind).get(upload % UPLOADS_PER_KIND)))
+                    .build();
+            long requestStart = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+                latencies[index] = System.nanoTime() - requestStart;
+                failed[index] = error != null || response.statusCode() != 200
+                        || !response.body().contains(kind.expected);
+                inFlight.release();
+            });
+        }
+        // acquiring every permit waits for the last responses and publishes the recorded values
+        inFlight.acquire(CONCURRENCY);
+    }
+
+    private static Report report(Map<Kind, Integer> mix, Kind[] schedule, long[] latencies,
+                                 boolean[] failed, double seconds, Map<String, Long> gcBefore,
+                                 long gcTimeBefore) {
+        int failures = 0;
+        var byKind = new EnumMap<Kind, List<Long>>(Kind.class);
+        var failuresByKind = new EnumMap<Kind, Integer>(Kind.class);
+        for (int i = 0; i < schedule.length; i++) {
+            byKind.computeIfAbsent(schedule[i], kind -> new ArrayList<>()).add(latencies[i]);
+            failures += failed[i] ? 1 : 0;
+            failuresByKind.merge(schedule[i], failed[i] ? 1 : 0, Integer::sum);
+        }
+        var latencyByKind = new LinkedHashMap<String, Latency>();
+        byKind.forEach((kind, values) -> latencyByKind.put(kind.propertyName(),
+                Latency.of(values.stream().mapToLong(Long::longValue).toArray(), failuresByKind.get(kind))));
+        var mixByName = new LinkedHashMap<String, Integer>();
+        mix.forEach((kind, weight) -> mixByName.put(kind.propertyName(), weight));
+
+        var gcAfter = collections();
+        var collectionsByCollector = new LinkedHashMap<String, Long>();
+        gcAfter.forEach((name, count) -> collectionsByCollector.put(name, count - gcBefore.getOrDefault(name, 0L)));
+        long collections = collectionsByCollector.values().stream().mapToLong(Long::longValue).sum();
+        var gc = new Gc(collections, collectionTimeMillis() - gcTimeBefore, collectionsByCollector);
+
+        var memory = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        // the sum of the peaks of the pools, which is at least the peak of the heap
+        long peak = heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        var heap = new Heap(peak, memory.getUsed(), memory.getCommitted(), memory.getMax());
+
+        return new Report(CsrViews.CSR_POST_PATH, Runtime.version().toString(),
+                Runtime.getRuntime().availableProcessors(), mixByName, CONCURRENCY, WARMUP, schedule.length,
+                failures, seconds, schedule.length / seconds, Latency.of(latencies, failures), latencyByKind, gc,
+                heap);
+    }
+
+    private static Map<String, Long> collections() {
+        var collections = new LinkedHashMap<String, Long>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections.put(collector.getName(), Math.max(collector.getCollectionCount(), 0));
+        }
+        return collections;
+    }
+
+    private static long collectionTimeMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(collector -> Math.max(collector.getCollectionTime(), 0))
+                .sum();
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+                .toList();
+    }
+
+    static Map<Kind, Integer> parseMix(String mix) {
+        var weights = new EnumMap<Kind, Integer>(Kind.class);
+        for (var entry : mix.split(",")) {
+            var pair = entry.split("=", 2);
+            int weight = pair.length == 2 ? Integer.parseInt(pair[1].trim()) : 1;
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight in loadtest.submit.mix: " + entry);
+            }
+            if (weight > 0) {
+                weights.put(Kind.of(pair[0]), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("No upload kind in loadtest.submit.mix: " + mix);
+        }
+        return weights;
+    }
+
+    /**
+     * @return the kinds of the requests, in proportion to their weights and in an order fixed by the seed
+     */
+    private static Kind[] schedule(Map<Kind, Integer> mix, int requests) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        var schedule = new ArrayList<Kind>(requests);
+        int assigned = 0;
+        int cumulative = 0;
+        for (var entry : mix.entrySet()) {
+            cumulative += entry.getValue();
+            int until = (int) ((long) requests * cumulative / total);
+            for (; assigned < until; assigned++) {
+                schedule.add(entry.getKey());
+            }
+        }
+        Collections.shuffle(schedule, new Random(42));
+        return schedule.toArray(Kind[]::new);
+    }
+
+    private static Map<Kind, List<byte[]>> buildUploads(Iterable<Kind> kinds) throws Exception {
+        var uploads = new EnumMap<Kind, List<byte[]>>(Kind.class);
+        for (var kind : kinds) {
+            var list = new ArrayList<byte[]>();
+            for (int i = 0; i < UPLOADS_PER_KIND; i++) {
+                list.add(multipart(kind.propertyName() + i + ".csr", content(kind, i)));
+            }
+            uploads.put(kind, list);
+        }
+        return uploads;
+    }
+
+    private static byte[] content(Kind kind, int i) throws Exception {
+        var name = new X500Name("CN=" + kind.propertyName() + i + ".example.com");
+        return switch (kind) {
+            case PEM_RSA -> pem(rsa(name));
+            case PEM_EC -> pem(ec(name));
+            case DER_RSA -> rsa(name).getEncoded();
+            case DER_EC -> ec(name).getEncoded();
+            case INVALID_SIGNATURE -> {
+                var request = tampered(i % 2 == 0 ? rsa(name) : ec(name));
+                yield i % 4 < 2 ? pem(request) : request.getEncoded();
+            }
+            case MALFORMED -> malformed(name, i);
+        };
+    }
+
+    private static PKCS10CertificationRequest rsa(X500Name name) throws Exception {
+        return TestCsrBuilder.buildCSR(name, "RSA", "SHA256withRSA", 2048, new Attribute[0]).request();
+    }
+
+    private static PKCS10CertificationRequest ec(X500Name name) throws Exception {
+        return TestCsrBuilder.buildCSR(name, "EC", "SHA256withECDSA", 256, new Attribute[0]).request();
+    }
+
+    private static PKCS10CertificationRequest tampered(PKCS10CertificationRequest request) {
+        var signature = request.getSignature();
+        signature[signature.length / 2] ^= 0x01;
+        return new PKCS10CertificationRequest(new CertificationRequest(
+                request.toASN1Structure().getCertificationRequestInfo(),
+                request.getSignatureAlgorithm(),
+                new DERBitString(signature)));
+    }
+
+    /**
+     * @return in turn a truncated DER request, a PEM request with a character that is not base64, and random bytes
+     */
+    private static byte[] malformed(X500Name name, int i) throws Exception {
+        return switch (i % 3) {
+            case 0 -> {
+                var encoded = ec(name).getEncoded();
+                yield Arrays.copyOf(encoded, encoded.length / 2);
+            }
+            case 1 -> {
+                var pem = pem(ec(name));
+                pem[new String(pem).indexOf('\n') + 10] = '*';
+                yield pem;
+            }
+            default -> {
+                var bytes = new byte[512];
+                new Random(i).nextBytes(bytes);
+                yield bytes;
+            }
+        };
+    }
+
+    private static byte[] pem(PKCS10CertificationRequest request) throws Exception {
+        var pem = new StringWriter();
+        try (var writer = new JcaPEMWriter(pem)) {
+            writer.writeObject(request);
+        }
+        return pem.toString().getBytes();
+    }
+
+    private static byte[] multipart(String filename, byte[] content) {
+        var body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"csr-file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: application/pkcs10\r\n\r\n").getBytes());
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes());
+        return body.toByteArray();
+    }
+}
@@ -21,7 +21,7 @@ public class TestCsrBuilder {
         KeyPair pair = generator.generateKeyPair();
         PKCS10CertificationRequestBuilder builder = new JcaPKCS10CertificationRequestBuilder(name, pair.getPublic());
         for (var attribute : attributes) {
-            builder.addAttribute(attribute.getAttrType(), attribute.getAttrValues());
+            builder.addAttribute(attribute.getAttrType(), attribute.getAttributeValues());
         }
         ContentSigner signer = new JcaContentSignerBuilder(signatureAlgorithmId).build(pair.getPrivate());
         return new KeyPairAndCsrPair(builder.build(signer), pair);
@@ -0,0 +1,58 @@
+package com.vonberg.csrviewer;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.boot.LazyInitializationBeanFactoryPostProcessor;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Starts the application in the virtual thread execution mode, which {@link ExecutionModeLoadTests} only does in the
+ * load test run.
+ */
+class VirtualThreadConfigurationTests {
+
+    @Test
+    void keepsTheApplicationTaskExecutor() {
+        // the beans are created lazily, so that the wiring can be checked without the virtual threads of Java 21
+        new WebApplicationContextRunner()
+                .withInitializer(context -> context.addBeanFactoryPostProcessor(
+                        new LazyInitializationBeanFactoryPostProcessor()))
+                .withConfiguration(AutoConfigurations.of(TaskExecutionAutoConfiguration.class))
+                .withUserConfiguration(VirtualThreadConfiguration.class, BulkInspectionConfiguration.class)
+                .withPropertyValues("csrviewer.virtual-threads.enabled=true")
+                .run(context -> {
+                    assertNull(context.getStartupFailure());
+                    assertEquals(1, context.getBeanNamesForType(VirtualThreadRequestExecutor.class).length);
+                    assertEquals(Set.of(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME),
+                            context.getBeansOfType(Executor.class).keySet());
+                });
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void servesRequestsOnVirtualThreads() throws Exception {
+        try (var context = new SpringApplicationBuilder(CsrViewerApplication.class)
+                .run("--server.port=0", "--csrviewer.virtual-threads.enabled=true", "--logging.level.root=WARN")) {
+            int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            var response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/form")).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            assertEquals(200, response.statusCode());
+        }
+    }
+}